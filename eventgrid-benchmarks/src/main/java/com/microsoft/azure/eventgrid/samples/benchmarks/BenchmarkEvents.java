@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples.benchmarks;
+
+import com.microsoft.azure.eventgrid.models.EventGridEvent;
+import com.microsoft.azure.serializer.AzureJacksonAdapter;
+import org.joda.time.DateTime;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Realistic events and payloads shared by the benchmarks, shaped like the ones the sample publishers send.
+ */
+final class BenchmarkEvents {
+    static final String CUSTOM_TOPIC_EVENT = "Contoso.Items.ItemReceived";
+
+    private BenchmarkEvents() {
+    }
+
+    /**
+     * This captures the "Data" portion of an EventGridEvent on a custom topic.
+     */
+    public static class ContosoItemReceivedEventData {
+        public String itemSku;
+
+        public ContosoItemReceivedEventData(String itemSku) {
+            this.itemSku = itemSku;
+        }
+    }
+
+    static EventGridEvent createEvent(int index) {
+        return new EventGridEvent(
+            UUID.randomUUID().toString(),
+            String.format("Door%d", index % 16),
+            new ContosoItemReceivedEventData("Contoso Item SKU #" + index),
+            CUSTOM_TOPIC_EVENT,
+            DateTime.now(),
+            "2.0");
+    }
+
+    static List<EventGridEvent> createEvents(int count) {
+        List<EventGridEvent> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            events.add(createEvent(i));
+        }
+        return events;
+    }
+
+    /**
+     * Serializes events the way they are delivered to the consumer: a single object, or an array for batches.
+     */
+    static String createPayload(int count) throws IOException {
+        AzureJacksonAdapter serializer = new AzureJacksonAdapter();
+        List<EventGridEvent> events = createEvents(count);
+        return count == 1 ? serializer.serialize(events.get(0)) : serializer.serialize(events);
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples.benchmarks;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.microsoft.azure.eventgrid.models.StorageBlobCreatedEventData;
+import com.microsoft.azure.eventgrid.samples.EventGridConsumer;
+import com.microsoft.azure.eventgrid.samples.EventGridEventDecoder;
+import com.microsoft.azure.eventgrid.samples.EventHandlerRegistry;
+import com.microsoft.azure.serverless.functions.ExecutionContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cost of decoding EventGrid payloads and dispatching the events to their handlers, for single events and batches.
+ *  - decodeAndDispatch: the streaming decoder and handler registry used by EventGridConsumer.
+ *  - consumerRun: the EventGridConsumer function itself, with logging turned off.
+ *  - treeBaseline: the previous approach, parsing the whole envelope and re-serializing the data of each event.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ConsumerDecodeBenchmark {
+    @Param({"1", "100", "1000"})
+    public int eventCount;
+
+    private String payload;
+    private Gson gson;
+    private EventGridEventDecoder decoder;
+    private EventHandlerRegistry<Blackhole> registry;
+    private EventGridConsumer consumer;
+    private ExecutionContext executionContext;
+
+    @Setup
+    public void setup() throws IOException {
+        payload = BenchmarkEvents.createPayload(eventCount);
+        gson = new Gson();
+        registry = EventHandlerRegistry.<Blackhole>builder()
+            .on("Microsoft.Storage.BlobCreated", StorageBlobCreatedEventData.class, (data, event, blackhole) -> blackhole.consume(data.url()))
+            .on(BenchmarkEvents.CUSTOM_TOPIC_EVENT, BenchmarkEvents.ContosoItemReceivedEventData.class, (data, event, blackhole) -> blackhole.consume(data.itemSku))
+            .fallback((data, event, blackhole) -> blackhole.consume(data))
+            .build();
+        decoder = new EventGridEventDecoder(gson, registry::dataClassFor);
+        consumer = new EventGridConsumer();
+        executionContext = silentExecutionContext();
+    }
+
+    @Benchmark
+    public int decodeAndDispatch(final Blackhole blackhole) throws IOException {
+        return decoder.decode(payload, event -> {
+            try {
+                registry.dispatch(event, blackhole);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    @Benchmark
+    public void consumerRun() {
+        consumer.Run(payload, executionContext);
+    }
+
+    @Benchmark
+    public void treeBaseline(Blackhole blackhole) {
+        JsonElement root = new JsonParser().parse(payload);
+        JsonArray events;
+        if (root.isJsonArray()) {
+            events = root.getAsJsonArray();
+        } else {
+            events = new JsonArray();
+            events.add(root);
+        }
+        for (JsonElement element : events) {
+            JsonObject event = element.getAsJsonObject();
+            String eventType = event.get("eventType").getAsString();
+            if (eventType.toLowerCase().equals("Microsoft.Storage.BlobCreated".toLowerCase())) {
+                blackhole.consume(gson.fromJson(gson.toJson(event.get("data")), StorageBlobCreatedEventData.class).url());
+            } else if (eventType.toLowerCase().equals(BenchmarkEvents.CUSTOM_TOPIC_EVENT.toLowerCase())) {
+                blackhole.consume(gson.fromJson(gson.toJson(event.get("data")), BenchmarkEvents.ContosoItemReceivedEventData.class).itemSku);
+            }
+        }
+    }
+
+    /**
+     * Execution context whose logger drops everything, so the benchmark measures decoding rather than console output.
+     */
+    static ExecutionContext silentExecutionContext() {
+        final Logger logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        logger.setLevel(Level.OFF);
+        return (ExecutionContext) Proxy.newProxyInstance(
+            ExecutionContext.class.getClassLoader(),
+            new Class<?>[] { ExecutionContext.class },
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getLogger":
+                        return logger;
+                    case "getInvocationId":
+                        return "benchmark";
+                    default:
+                        return null;
+                }
+            });
+    }
+}
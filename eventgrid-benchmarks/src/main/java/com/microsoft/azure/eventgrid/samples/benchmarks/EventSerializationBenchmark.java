@@ -0,0 +1,62 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples.benchmarks;
+
+import com.microsoft.azure.eventgrid.models.EventGridEvent;
+import com.microsoft.azure.serializer.AzureJacksonAdapter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building EventGridEvent lists and serializing them to the JSON request body sent by publishEvents.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class EventSerializationBenchmark {
+    @Param({"1", "5", "100", "1000"})
+    public int eventCount;
+
+    private AzureJacksonAdapter serializer;
+    private List<EventGridEvent> events;
+
+    @Setup
+    public void setup() {
+        serializer = new AzureJacksonAdapter();
+        events = BenchmarkEvents.createEvents(eventCount);
+    }
+
+    @Benchmark
+    public List<EventGridEvent> buildEvents() {
+        return BenchmarkEvents.createEvents(eventCount);
+    }
+
+    @Benchmark
+    public String serializeEvents() throws IOException {
+        return serializer.serialize(events);
+    }
+
+    @Benchmark
+    public String buildAndSerializeEvents() throws IOException {
+        return serializer.serialize(BenchmarkEvents.createEvents(eventCount));
+    }
+}
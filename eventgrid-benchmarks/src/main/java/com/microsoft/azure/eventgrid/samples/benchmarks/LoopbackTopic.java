@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples.benchmarks;
+
+import com.microsoft.azure.eventgrid.EventGridClient;
+import com.microsoft.azure.eventgrid.TopicCredentials;
+import com.microsoft.azure.eventgrid.implementation.EventGridClientImpl;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process HTTP stub standing in for an EventGrid topic endpoint.
+ *  - The stub accepts POST /api/events, drains the body and answers 200 like the real topic.
+ *  - Publishers use the SDK's own EventGridClientImpl, so the benchmarks cover its Jackson serialization and
+ *    OkHttp connection pool. The topic hostname carries the "http" scheme, which the SDK keeps in place of the
+ *    "https" of its base URL, so no TLS is needed.
+ */
+final class LoopbackTopic implements AutoCloseable {
+    static final String TOPIC_KEY = "benchmark-key";
+
+    private final HttpServer server;
+    private final ExecutorService serverThreads;
+    private final AtomicLong requests = new AtomicLong();
+
+    LoopbackTopic() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        serverThreads = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        server.setExecutor(serverThreads);
+        // Match the path by its end, since the SDK may join a hostname ending with a slash and the path with a double slash
+        server.createContext("/", exchange -> {
+            if (!exchange.getRequestURI().getPath().endsWith("/api/events")) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            try (InputStream body = exchange.getRequestBody()) {
+                byte[] buffer = new byte[8192];
+                while (body.read(buffer) >= 0) {
+                    // drain the request body
+                }
+            }
+            int status = TOPIC_KEY.equals(exchange.getRequestHeaders().getFirst("aeg-sas-key")) ? 200 : 401;
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    /**
+     * @return the topic hostname to pass to publishEvents
+     */
+    String topicHostname() {
+        return String.format("http://127.0.0.1:%d/", server.getAddress().getPort());
+    }
+
+    long requests() {
+        return requests.get();
+    }
+
+    /**
+     * @return a new SDK client authenticated with the key of this stub
+     */
+    EventGridClient createClient() {
+        return new EventGridClientImpl(new TopicCredentials(TOPIC_KEY));
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples.benchmarks;
+
+import com.microsoft.azure.eventgrid.EventGridClient;
+import com.microsoft.azure.eventgrid.models.EventGridEvent;
+import com.microsoft.azure.eventgrid.samples.EventGridBatchPublisher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end publish with the SDK client against an in-process HTTP stub standing in for the topic endpoint.
+ *  - publishEvents: one synchronous request per event list, like the sample publishers did.
+ *  - batchPublisher: events fed one by one through a long-lived EventGridBatchPublisher and flushed, reported
+ *    per event; the publisher is built once per trial, like the static publisher of the function app.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PublishBenchmark {
+    private static final int BATCH_PUBLISHER_EVENTS = 1000;
+
+    @Param({"5", "100"})
+    public int eventCount;
+
+    private LoopbackTopic topic;
+    private EventGridClient client;
+    private List<EventGridEvent> events;
+    private List<EventGridEvent> batchPublisherEvents;
+    private EventGridBatchPublisher batchPublisher;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        topic = new LoopbackTopic();
+        client = topic.createClient();
+        events = BenchmarkEvents.createEvents(eventCount);
+        batchPublisherEvents = BenchmarkEvents.createEvents(BATCH_PUBLISHER_EVENTS);
+        batchPublisher = new EventGridBatchPublisher(client, topic.topicHostname(),
+            eventCount, EventGridBatchPublisher.DEFAULT_MAX_BATCH_BYTES, 5, 4);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        batchPublisher.close();
+        topic.close();
+    }
+
+    @Benchmark
+    public void publishEvents() {
+        client.publishEvents(topic.topicHostname(), events);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_PUBLISHER_EVENTS)
+    public long batchPublisher() throws IOException, InterruptedException {
+        batchPublisher.publishAll(batchPublisherEvents);
+        batchPublisher.flush();
+        return batchPublisher.eventsPublished();
+    }
+}
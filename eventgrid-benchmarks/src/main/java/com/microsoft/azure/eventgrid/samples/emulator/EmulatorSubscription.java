@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples.emulator;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Event subscription of the {@link LocalEventGridEmulator}.
+ *  - The filter mirrors EventSubscriptionFilter: subject begins with / ends with, included event types
+ *    and subject case sensitivity. Event types are always compared case-insensitively.
+ *  - Matching events are delivered either to an in-memory queue or to an HTTP webhook.
+ */
+public final class EmulatorSubscription {
+    private final String name;
+    private String subjectBeginsWith = "";
+    private String subjectEndsWith = "";
+    private List<String> includedEventTypes;
+    private boolean subjectCaseSensitive;
+    private URL webhookEndpoint;
+    private final BlockingQueue<String> deliveredEvents;
+    private final AtomicLong matched = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    private EmulatorSubscription(String name, BlockingQueue<String> deliveredEvents) {
+        this.name = name;
+        this.deliveredEvents = deliveredEvents;
+    }
+
+    /**
+     * Creates a subscription keeping the matching events, serialized as JSON, in memory.
+     * @param name the subscription name
+     * @param capacity the maximum number of undelivered events kept; further events are counted as failed
+     * @return the subscription
+     */
+    public static EmulatorSubscription inMemory(String name, int capacity) {
+        return new EmulatorSubscription(name, new LinkedBlockingQueue<String>(capacity));
+    }
+
+    /**
+     * Creates a subscription posting the matching events of each publish request to a webhook, as a JSON array.
+     * @param name the subscription name
+     * @param webhookEndpoint the webhook endpoint
+     * @return the subscription
+     */
+    public static EmulatorSubscription webhook(String name, URL webhookEndpoint) {
+        EmulatorSubscription subscription = new EmulatorSubscription(name, null);
+        subscription.webhookEndpoint = webhookEndpoint;
+        return subscription;
+    }
+
+    public EmulatorSubscription withSubjectBeginsWith(String subjectBeginsWith) {
+        this.subjectBeginsWith = subjectBeginsWith == null ? "" : subjectBeginsWith;
+        return this;
+    }
+
+    public EmulatorSubscription withSubjectEndsWith(String subjectEndsWith) {
+        this.subjectEndsWith = subjectEndsWith == null ? "" : subjectEndsWith;
+        return this;
+    }
+
+    public EmulatorSubscription withIncludedEventTypes(String... includedEventTypes) {
+        this.includedEventTypes = includedEventTypes.length == 0 ? null : new ArrayList<>(Arrays.asList(includedEventTypes));
+        return this;
+    }
+
+    public EmulatorSubscription withIsSubjectCaseSensitive(boolean subjectCaseSensitive) {
+        this.subjectCaseSensitive = subjectCaseSensitive;
+        return this;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return the queue of events delivered to an in-memory subscription, or null for a webhook subscription
+     */
+    public BlockingQueue<String> deliveredEvents() {
+        return deliveredEvents;
+    }
+
+    URL webhookEndpoint() {
+        return webhookEndpoint;
+    }
+
+    /**
+     * @return the number of events which passed the filter
+     */
+    public long matched() {
+        return matched.get();
+    }
+
+    /**
+     * @return the number of events delivered to the destination
+     */
+    public long delivered() {
+        return delivered.get();
+    }
+
+    /**
+     * @return the number of events which could not be delivered
+     */
+    public long failed() {
+        return failed.get();
+    }
+
+    boolean matches(String subject, String eventType) {
+        if (includedEventTypes != null) {
+            boolean included = false;
+            for (String includedEventType : includedEventTypes) {
+                if (includedEventType.equalsIgnoreCase(eventType)) {
+                    included = true;
+                    break;
+                }
+            }
+            if (!included) {
+                return false;
+            }
+        }
+        if (subject == null) {
+            subject = "";
+        }
+        boolean ignoreCase = !subjectCaseSensitive;
+        if (!subject.regionMatches(ignoreCase, 0, subjectBeginsWith, 0, subjectBeginsWith.length())) {
+            return false;
+        }
+        int suffixStart = subject.length() - subjectEndsWith.length();
+        if (suffixStart < 0 || !subject.regionMatches(ignoreCase, suffixStart, subjectEndsWith, 0, subjectEndsWith.length())) {
+            return false;
+        }
+        matched.incrementAndGet();
+        return true;
+    }
+
+    void deliverInMemory(String event) {
+        if (deliveredEvents.offer(event)) {
+            delivered.incrementAndGet();
+        } else {
+            failed.incrementAndGet();
+        }
+    }
+
+    void recordWebhookDelivery(int eventCount, boolean succeeded) {
+        (succeeded ? delivered : failed).addAndGet(eventCount);
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples.emulator;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.microsoft.azure.eventgrid.samples.LatencyHistogram;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embeddable, in-process EventGrid topic for load testing publishers and consumers without Azure.
+ *  - Accepts POST /api/events with the "aeg-sas-key" header, like a custom topic endpoint.
+ *  - Fans the events out to the subscriptions whose filter matches, in memory or through HTTP webhooks.
+ *  - Records the latency of each publish request, from the first byte read to the response being sent.
+ * Point a publisher at {@link #topicHostname()}; run {@link #main(String[])} to start a standalone emulator.
+ */
+public class LocalEventGridEmulator implements AutoCloseable {
+    private final String topicKey;
+    private final HttpServer server;
+    private final ExecutorService requestThreads;
+    private final ExecutorService deliveryThreads;
+    private final List<EmulatorSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final LatencyHistogram requestLatencyMicros = new LatencyHistogram();
+    private final AtomicLong eventsReceived = new AtomicLong();
+    private final AtomicLong requestsRejected = new AtomicLong();
+    private final JsonParser parser = new JsonParser();
+
+    /**
+     * Starts an emulator.
+     * @param port the port to listen on, or 0 for any free port
+     * @param topicKey the key publishers must send in the "aeg-sas-key" header
+     * @throws IOException if the HTTP server cannot be started
+     */
+    public LocalEventGridEmulator(int port, String topicKey) throws IOException {
+        this.topicKey = topicKey;
+        this.requestThreads = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+        this.deliveryThreads = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 4096);
+        this.server.setExecutor(requestThreads);
+        this.server.createContext("/api/events", this::handlePublish);
+        this.server.start();
+    }
+
+    /**
+     * @param subscription the subscription to add; events published afterwards are routed to it
+     * @return the subscription
+     */
+    public EmulatorSubscription addSubscription(EmulatorSubscription subscription) {
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * @return the topic hostname to pass to publishEvents, for example "http://127.0.0.1:5000/"
+     */
+    public String topicHostname() {
+        return String.format("http://127.0.0.1:%d/", server.getAddress().getPort());
+    }
+
+    /**
+     * @return the publish request latencies, in microseconds
+     */
+    public LatencyHistogram requestLatencyMicros() {
+        return requestLatencyMicros;
+    }
+
+    public long eventsReceived() {
+        return eventsReceived.get();
+    }
+
+    public long requestsRejected() {
+        return requestsRejected.get();
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        server.stop(0);
+        requestThreads.shutdown();
+        deliveryThreads.shutdown();
+        deliveryThreads.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private void handlePublish(HttpExchange exchange) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                reject(exchange, 405, "Only POST is supported");
+                return;
+            }
+            if (!topicKey.equals(exchange.getRequestHeaders().getFirst("aeg-sas-key"))) {
+                reject(exchange, 401, "The request authorization key is not authorized");
+                return;
+            }
+
+            JsonElement body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = parser.parse(new InputStreamReader(in, StandardCharsets.UTF_8));
+            } catch (JsonParseException e) {
+                reject(exchange, 400, "The request body is not valid JSON");
+                return;
+            }
+            JsonArray events = body.isJsonArray() ? body.getAsJsonArray() : new JsonArray();
+            if (!body.isJsonArray()) {
+                events.add(body);
+            }
+            for (JsonElement event : events) {
+                if (!event.isJsonObject() || !hasString(event.getAsJsonObject(), "id")
+                    || !hasString(event.getAsJsonObject(), "subject") || !hasString(event.getAsJsonObject(), "eventType")) {
+                    reject(exchange, 400, "Every event needs an id, a subject and an eventType");
+                    return;
+                }
+            }
+
+            eventsReceived.addAndGet(events.size());
+            route(events);
+            exchange.sendResponseHeaders(200, -1);
+        } finally {
+            exchange.close();
+            requestLatencyMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        }
+    }
+
+    private void route(JsonArray events) {
+        for (EmulatorSubscription subscription : subscriptions) {
+            JsonArray matching = null;
+            for (JsonElement element : events) {
+                JsonObject event = element.getAsJsonObject();
+                if (!subscription.matches(event.get("subject").getAsString(), event.get("eventType").getAsString())) {
+                    continue;
+                }
+                if (subscription.webhookEndpoint() == null) {
+                    subscription.deliverInMemory(event.toString());
+                } else {
+                    if (matching == null) {
+                        matching = new JsonArray();
+                    }
+                    matching.add(event);
+                }
+            }
+            if (matching != null) {
+                final JsonArray delivery = matching;
+                deliveryThreads.execute(() -> postToWebhook(subscription, delivery));
+            }
+        }
+    }
+
+    private static void postToWebhook(EmulatorSubscription subscription, JsonArray events) {
+        byte[] body = events.toString().getBytes(StandardCharsets.UTF_8);
+        boolean succeeded = false;
+        try {
+            HttpURLConnection connection = (HttpURLConnection) subscription.webhookEndpoint().openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            connection.setRequestProperty("aeg-event-type", "Notification");
+            connection.setRequestProperty("aeg-subscription-name", subscription.name());
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            int status = connection.getResponseCode();
+            try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                while (in != null && in.read() >= 0) {
+                    // drain so the connection goes back to the keep-alive pool
+                }
+            }
+            succeeded = status >= 200 && status < 300;
+        } catch (IOException e) {
+            System.err.println(String.format("Delivery to subscription %s failed: %s", subscription.name(), e));
+        }
+        subscription.recordWebhookDelivery(events.size(), succeeded);
+    }
+
+    private void reject(HttpExchange exchange, int status, String message) throws IOException {
+        requestsRejected.incrementAndGet();
+        byte[] body = String.format("{\"error\":{\"code\":\"%d\",\"message\":\"%s\"}}", status, message).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static boolean hasString(JsonObject event, String property) {
+        JsonElement value = event.get(property);
+        return value != null && value.isJsonPrimitive();
+    }
+
+    /**
+     * Runs a standalone emulator with a catch-all in-memory subscription, printing the request latencies every 10 seconds.
+     * @param args the port (default 5000) and the topic key (default "local-key")
+     * @throws Exception if the emulator cannot be started
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        String topicKey = args.length > 1 ? args[1] : "local-key";
+
+        final LocalEventGridEmulator emulator = new LocalEventGridEmulator(port, topicKey);
+        final EmulatorSubscription all = emulator.addSubscription(EmulatorSubscription.inMemory("all", 100000));
+        System.out.format("EventGrid emulator listening on %s with key \"%s\"\n", emulator.topicHostname(), topicKey);
+
+        while (true) {
+            Thread.sleep(10000);
+            all.deliveredEvents().clear();
+            System.out.format("Events received: %d, requests rejected: %d, request latency (us): %s\n",
+                emulator.eventsReceived(), emulator.requestsRejected(), emulator.requestLatencyMicros());
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.microsoft.azure.eventgrid.models.EventGridEvent;
+import com.microsoft.azure.storage.CloudStorageAccount;
+import com.microsoft.azure.storage.OperationContext;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.BlobContainerPublicAccessType;
+import com.microsoft.azure.storage.blob.BlobRequestOptions;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps large event data out of the EventGrid requests.
+ *  - Publishers: data larger than the offload threshold is stored in a blob and replaced by a reference to it
+ *    (the claim check); data larger than the compression threshold is gzipped and sent inline, base64 encoded.
+ *  - Consumers: the {@link EventGridEventDecoder} resolves references and compressed data when the handler reads
+ *    the data, so handlers only see the final data object. Blobs are only downloaded for events with a registered
+ *    handler which are not duplicates, recently downloaded payloads are cached, and a failed download only fails
+ *    its own event. Events come from any publisher of the topic, so the size of a payload is read from the blob
+ *    properties, not from the reference, and payloads larger than the maximum payload size are not read.
+ * The referenced blobs are not deleted, since every subscriber reads them; expire them with a lifecycle rule.
+ */
+public class ClaimCheckCodec {
+    static final String PROPERTY_PREFIX = "$eventgrid.";
+    static final String CLAIM_CHECK_PROPERTY = PROPERTY_PREFIX + "claimCheck";
+    static final String GZIP_PROPERTY = PROPERTY_PREFIX + "gzip";
+
+    private final Gson gson;
+    private final CloudBlobContainer container;
+    private final int offloadThresholdBytes;
+    private final int compressThresholdBytes;
+    private final JsonParser parser = new JsonParser();
+    private final Map<String, byte[]> cache;
+    private long cachedBytes;
+    private final long maxCachedBytes;
+    private int maxPayloadBytes = 64 * 1024 * 1024;
+    private volatile boolean containerExists;
+
+    private final AtomicLong payloadsOffloaded = new AtomicLong();
+    private final AtomicLong payloadsCompressed = new AtomicLong();
+    private final AtomicLong blobsDownloaded = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    /**
+     * @param gson the Gson instance used to serialize and parse the event data
+     * @param container the container holding the offloaded payloads, or null to never offload
+     * @param offloadThresholdBytes the serialized data size above which it is offloaded to a blob
+     * @param compressThresholdBytes the serialized data size above which it is compressed, or 0 to never compress
+     * @param maxCachedBytes the total size of the downloaded payloads kept in memory
+     */
+    public ClaimCheckCodec(Gson gson, CloudBlobContainer container, int offloadThresholdBytes, int compressThresholdBytes, long maxCachedBytes) {
+        this.gson = gson;
+        this.container = container;
+        this.offloadThresholdBytes = offloadThresholdBytes;
+        this.compressThresholdBytes = compressThresholdBytes;
+        this.maxCachedBytes = maxCachedBytes;
+        this.cache = new LinkedHashMap<>(64, 0.75f, true);
+    }
+
+    /**
+     * Creates the codec configured through the following settings:
+     *  - EVENTGRID_CLAIMCHECK_CONTAINER_NAME: the container in the EVENTGRID_STORAGE_CONNECTION_STRING account; offloading is off without it
+     *  - EVENTGRID_CLAIMCHECK_THRESHOLD_BYTES: the offload threshold, 64KB by default
+     *  - EVENTGRID_COMPRESS_THRESHOLD_BYTES: the compression threshold; compression is off when it is 0, the default
+     *  - EVENTGRID_CLAIMCHECK_MAX_BYTES: the maximum payload size, 64MB by default
+     * A container which cannot be resolved is logged and offloading is turned off.
+     * @param gson the Gson instance used to serialize and parse the event data
+     * @return the codec, or null when neither offloading nor compression is configured
+     */
+    public static ClaimCheckCodec fromEnvironment(Gson gson) {
+        CloudBlobContainer container = null;
+        String containerName = FunctionBootstrap.setting("EVENTGRID_CLAIMCHECK_CONTAINER_NAME");
+        if (containerName != null) {
+            try {
+                container = CloudStorageAccount.parse(FunctionBootstrap.storageConnectionString)
+                    .createCloudBlobClient()
+                    .getContainerReference(containerName);
+            } catch (Exception e) {
+                System.err.println("Cannot resolve claim check container " + containerName + ", offloading is off: " + e);
+            }
+        }
+        int compressThresholdBytes = FunctionBootstrap.intSetting("EVENTGRID_COMPRESS_THRESHOLD_BYTES", 0);
+        if (container == null && compressThresholdBytes <= 0) {
+            return null;
+        }
+        return new ClaimCheckCodec(gson, container,
+            FunctionBootstrap.intSetting("EVENTGRID_CLAIMCHECK_THRESHOLD_BYTES", 64 * 1024),
+            compressThresholdBytes,
+            16 * 1024 * 1024)
+            .withMaxPayloadBytes(FunctionBootstrap.intSetting("EVENTGRID_CLAIMCHECK_MAX_BYTES", 64 * 1024 * 1024));
+    }
+
+    /**
+     * @param maxPayloadBytes the size above which a downloaded or decompressed payload is refused
+     * @return this codec
+     */
+    public ClaimCheckCodec withMaxPayloadBytes(int maxPayloadBytes) {
+        this.maxPayloadBytes = maxPayloadBytes;
+        return this;
+    }
+
+    /**
+     * Replaces the data of an event by a claim check or by its compressed form when it is large enough.
+     * @param event the event to publish
+     * @return the event itself when its data is small, or a copy carrying the encoded data
+     * @throws IOException if the payload cannot be compressed or uploaded
+     */
+    public EventGridEvent encode(EventGridEvent event) throws IOException {
+        Object data = event.data();
+        if (data == null) {
+            return event;
+        }
+        byte[] json = gson.toJson(data).getBytes(StandardCharsets.UTF_8);
+        boolean compress = compressThresholdBytes > 0 && json.length > compressThresholdBytes;
+        if (container == null || json.length <= offloadThresholdBytes) {
+            if (!compress) {
+                return event;
+            }
+            payloadsCompressed.incrementAndGet();
+            return withData(event, singleton(GZIP_PROPERTY, Base64.getEncoder().encodeToString(gzip(json))));
+        }
+
+        byte[] content = compress ? gzip(json) : json;
+        CloudBlockBlob blob;
+        try {
+            ensureContainer();
+            blob = container.getBlockBlobReference(event.id() + (compress ? ".json.gz" : ".json"));
+            blob.uploadFromByteArray(content, 0, content.length);
+        } catch (Exception e) {
+            if (e instanceof StorageException && ((StorageException) e).getHttpStatusCode() == 404) {
+                // The container was deleted; create it again on the next upload
+                containerExists = false;
+            }
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            }
+            throw new IOException("Cannot offload the data of event " + event.id(), e);
+        }
+        payloadsOffloaded.incrementAndGet();
+
+        Map<String, Object> reference = new LinkedHashMap<>();
+        reference.put("blob", blob.getName());
+        reference.put("length", content.length);
+        reference.put("contentEncoding", compress ? "gzip" : "identity");
+        return withData(event, singleton(CLAIM_CHECK_PROPERTY, reference));
+    }
+
+    /**
+     * Resolves claim checks and compressed data; any other data is returned unchanged.
+     * @param data the data as received
+     * @return the original data
+     * @throws IOException if the referenced blob cannot be downloaded, the data cannot be decompressed, or either is
+     *                     larger than the maximum payload size
+     */
+    public JsonElement resolve(JsonElement data) throws IOException {
+        if (!data.isJsonObject()) {
+            return data;
+        }
+        JsonObject object = data.getAsJsonObject();
+        if (object.size() != 1) {
+            return data;
+        }
+        if (object.has(GZIP_PROPERTY)) {
+            return parse(gunzip(Base64.getDecoder().decode(object.get(GZIP_PROPERTY).getAsString())));
+        }
+        if (object.has(CLAIM_CHECK_PROPERTY)) {
+            JsonObject reference = object.getAsJsonObject(CLAIM_CHECK_PROPERTY);
+            byte[] content = download(reference.get("blob").getAsString());
+            return parse("gzip".equals(reference.get("contentEncoding").getAsString()) ? gunzip(content) : content);
+        }
+        return data;
+    }
+
+    /**
+     * Tells whether a payload may hold claim checks or compressed data, without parsing it.
+     * @param payload the JSON payload of one or more events
+     * @return false when no data of the payload needs to be resolved
+     */
+    public static boolean mayHoldEncodedData(String payload) {
+        return payload.contains(PROPERTY_PREFIX);
+    }
+
+    /**
+     * @return the number of payloads offloaded to blobs
+     */
+    public long payloadsOffloaded() {
+        return payloadsOffloaded.get();
+    }
+
+    /**
+     * @return the number of payloads sent compressed inline
+     */
+    public long payloadsCompressed() {
+        return payloadsCompressed.get();
+    }
+
+    /**
+     * @return the number of blobs downloaded
+     */
+    public long blobsDownloaded() {
+        return blobsDownloaded.get();
+    }
+
+    /**
+     * @return the number of claim checks resolved from the cache
+     */
+    public long cacheHits() {
+        return cacheHits.get();
+    }
+
+    private byte[] download(String blobName) throws IOException {
+        synchronized (cache) {
+            byte[] cached = cache.get(blobName);
+            if (cached != null) {
+                cacheHits.incrementAndGet();
+                return cached;
+            }
+        }
+        if (container == null) {
+            throw new IOException("Received a claim check for " + blobName + " but no claim check container is configured");
+        }
+
+        byte[] content;
+        try {
+            CloudBlockBlob blob = container.getBlockBlobReference(blobName);
+            blob.downloadAttributes();
+            long length = blob.getProperties().getLength();
+            if (length > maxPayloadBytes) {
+                throw new IOException(String.format("Claim checked payload %s is %d bytes which exceeds the %d bytes limit",
+                    blobName, length, maxPayloadBytes));
+            }
+            content = new byte[(int) length];
+            blob.downloadToByteArray(content, 0);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Cannot download claim checked payload " + blobName, e);
+        }
+        blobsDownloaded.incrementAndGet();
+
+        synchronized (cache) {
+            if (content.length <= maxCachedBytes && cache.put(blobName, content) == null) {
+                cachedBytes += content.length;
+            }
+            while (cachedBytes > maxCachedBytes) {
+                Map.Entry<String, byte[]> eldest = cache.entrySet().iterator().next();
+                cachedBytes -= eldest.getValue().length;
+                cache.remove(eldest.getKey());
+            }
+        }
+        return content;
+    }
+
+    private void ensureContainer() throws Exception {
+        if (!containerExists) {
+            synchronized (this) {
+                if (!containerExists) {
+                    container.createIfNotExists(BlobContainerPublicAccessType.OFF, new BlobRequestOptions(), new OperationContext());
+                    containerExists = true;
+                }
+            }
+        }
+    }
+
+    private JsonElement parse(byte[] json) {
+        return parser.parse(new InputStreamReader(new ByteArrayInputStream(json), StandardCharsets.UTF_8));
+    }
+
+    private byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 4 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(content);
+        }
+        return compressed.toByteArray();
+    }
+
+    private byte[] gunzip(byte[] content) throws IOException {
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream((int) Math.min(content.length * 4L, maxPayloadBytes));
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(content))) {
+            byte[] chunk = new byte[8192];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                if (decompressed.size() + read > maxPayloadBytes) {
+                    throw new IOException(String.format("Compressed payload exceeds the %d bytes limit once decompressed", maxPayloadBytes));
+                }
+                decompressed.write(chunk, 0, read);
+            }
+        }
+        return decompressed.toByteArray();
+    }
+
+    private static EventGridEvent withData(EventGridEvent event, Object data) {
+        return new EventGridEvent(event.id(), event.subject(), data, event.eventType(), event.eventTime(), event.dataVersion())
+            .withTopic(event.topic());
+    }
+
+    private static Map<String, Object> singleton(String name, Object value) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put(name, value);
+        return map;
+    }
+}
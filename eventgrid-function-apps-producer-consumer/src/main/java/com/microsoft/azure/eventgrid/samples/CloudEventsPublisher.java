@@ -0,0 +1,329 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import com.microsoft.azure.eventgrid.models.EventGridEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes events to a topic using the CloudEvents 1.0 schema, structured or binary content mode.
+ *  - Events are given as EventGridEvents, so publishers switch schema by configuration only: the event type
+ *    becomes "type", the topic (or the configured source) "source", and the data version the "dataversion" extension.
+ *  - Structured mode sends all events in one application/cloudevents-batch+json request.
+ *  - Binary mode sends one request per event, concurrently, with the data as the body: byte[] data as is,
+ *    String data as UTF-8 text, and other objects serialized to JSON once. When only some of them fail, the
+ *    {@link PartialPublishException} lists the failed events, so the accepted ones are not published again.
+ *    The "ce-" header values are percent-encoded as the CloudEvents HTTP binding requires.
+ *  - publishAsync is the transport of an {@link AsyncEventGridPublisher}, which adds the retries, batching and
+ *    outbox of the EventGrid schema; error responses fail with a {@link TopicRequestException}.
+ */
+public class CloudEventsPublisher {
+    public static final String SPEC_VERSION = "1.0";
+    public static final int CONNECT_TIMEOUT_MILLIS = 10000;
+    public static final int READ_TIMEOUT_MILLIS = 30000;
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private static final ExecutorService requests = Executors.newFixedThreadPool(8, daemonThreads("eventgrid-cloudevents"));
+
+    private final URL endpoint;
+    private final String topicKey;
+    private final String defaultSource;
+    private final EventSchema contentMode;
+    private final Gson gson;
+
+    private final AtomicLong requestsSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    /**
+     * @param topicEndpoint the topic endpoint, for example "https://mytopic.westus-1.eventgrid.azure.net/api/events"
+     * @param topicKey the topic access key
+     * @param defaultSource the "source" of events without a topic, for example "/contoso/items"
+     * @param contentMode either {@link EventSchema#CLOUD_EVENTS_STRUCTURED} or {@link EventSchema#CLOUD_EVENTS_BINARY}
+     * @param gson the Gson instance used to serialize the event data
+     */
+    public CloudEventsPublisher(String topicEndpoint, String topicKey, String defaultSource, EventSchema contentMode, Gson gson) {
+        if (contentMode == EventSchema.EVENT_GRID) {
+            throw new IllegalArgumentException("The CloudEvents publisher needs a CloudEvents content mode");
+        }
+        try {
+            this.endpoint = new URL(topicEndpoint.contains("?") ? topicEndpoint : topicEndpoint + "?api-version=2018-01-01");
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid topic endpoint " + topicEndpoint, e);
+        }
+        this.topicKey = topicKey;
+        this.defaultSource = defaultSource;
+        this.contentMode = contentMode;
+        this.gson = gson;
+    }
+
+    /**
+     * Publishes events, returning once the topic has accepted all of them.
+     * @param events the events to publish
+     * @throws IOException if a request fails or is rejected by the topic
+     */
+    public void publish(List<EventGridEvent> events) throws IOException {
+        try {
+            publishAsync(events).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while publishing", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Publishes events on the request threads of the publisher, without blocking the calling thread.
+     * @param events the events to publish
+     * @return a future completed once the topic has accepted all events, or failed with the IOException of a
+     *         failed or rejected request; in binary mode, a PartialPublishException when the topic accepted some events
+     */
+    public CompletableFuture<Void> publishAsync(List<EventGridEvent> events) {
+        if (events.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (contentMode == EventSchema.CLOUD_EVENTS_STRUCTURED) {
+            return CompletableFuture.runAsync(() -> {
+                try {
+                    sendStructured(events);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, requests);
+        }
+
+        List<CompletableFuture<Void>> eventRequests = new ArrayList<>(events.size());
+        for (final EventGridEvent event : events) {
+            eventRequests.add(CompletableFuture.runAsync(() -> {
+                try {
+                    sendBinary(event);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, requests));
+        }
+        return CompletableFuture.allOf(eventRequests.toArray(new CompletableFuture<?>[0])).handle((ignored, allError) -> {
+            if (allError == null) {
+                return null;
+            }
+            throw new CompletionException(binaryFailure(events, eventRequests));
+        });
+    }
+
+    /**
+     * Collects the events of the failed binary requests. The error reported is a rejection when there is one, since
+     * retrying the failed events would not help then, and otherwise the first retryable error.
+     */
+    private static Throwable binaryFailure(List<EventGridEvent> events, List<CompletableFuture<Void>> eventRequests) {
+        List<EventGridEvent> failedEvents = new ArrayList<>();
+        Throwable error = null;
+        for (int i = 0; i < events.size(); i++) {
+            try {
+                eventRequests.get(i).join();
+            } catch (CompletionException e) {
+                Throwable eventError = e.getCause() != null ? e.getCause() : e;
+                failedEvents.add(events.get(i));
+                if (error == null || (AsyncEventGridPublisher.isRetryable(error) && !AsyncEventGridPublisher.isRetryable(eventError))) {
+                    error = eventError;
+                }
+            }
+        }
+        return failedEvents.size() == events.size() ? error : new PartialPublishException(failedEvents, error);
+    }
+
+    /**
+     * @return the number of requests accepted by the topic
+     */
+    public long requestsSent() {
+        return requestsSent.get();
+    }
+
+    /**
+     * @return the number of request body bytes accepted by the topic
+     */
+    public long bytesSent() {
+        return bytesSent.get();
+    }
+
+    private void sendStructured(List<EventGridEvent> events) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(256 * events.size());
+        try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8))) {
+            writer.beginArray();
+            for (EventGridEvent event : events) {
+                writeStructured(writer, event);
+            }
+            writer.endArray();
+        }
+        send(new String[0], "application/cloudevents-batch+json; charset=utf-8", body.toByteArray());
+    }
+
+    private void writeStructured(JsonWriter writer, EventGridEvent event) throws IOException {
+        writer.beginObject();
+        writer.name("specversion").value(SPEC_VERSION);
+        writer.name("id").value(event.id());
+        writer.name("source").value(sourceOf(event));
+        writer.name("type").value(event.eventType());
+        if (event.subject() != null) {
+            writer.name("subject").value(event.subject());
+        }
+        if (event.eventTime() != null) {
+            writer.name("time").value(event.eventTime().toString());
+        }
+        if (event.dataVersion() != null) {
+            writer.name("dataversion").value(event.dataVersion());
+        }
+        Object data = event.data();
+        if (data instanceof byte[]) {
+            writer.name("datacontenttype").value("application/octet-stream");
+            writer.name("data_base64").value(Base64.getEncoder().encodeToString((byte[]) data));
+        } else if (data instanceof String) {
+            writer.name("datacontenttype").value("text/plain");
+            writer.name("data").value((String) data);
+        } else if (data != null) {
+            writer.name("datacontenttype").value("application/json");
+            writer.name("data");
+            gson.toJson(data, data.getClass(), writer);
+        }
+        writer.endObject();
+    }
+
+    private void sendBinary(EventGridEvent event) throws IOException {
+        Object data = event.data();
+        String contentType;
+        byte[] body;
+        if (data instanceof byte[]) {
+            contentType = "application/octet-stream";
+            body = (byte[]) data;
+        } else if (data instanceof String) {
+            contentType = "text/plain; charset=utf-8";
+            body = ((String) data).getBytes(StandardCharsets.UTF_8);
+        } else {
+            contentType = "application/json; charset=utf-8";
+            body = data != null ? gson.toJson(data).getBytes(StandardCharsets.UTF_8) : new byte[0];
+        }
+
+        send(new String[] {
+            "ce-specversion", SPEC_VERSION,
+            "ce-id", encodeHeaderValue(event.id()),
+            "ce-source", encodeHeaderValue(sourceOf(event)),
+            "ce-type", encodeHeaderValue(event.eventType()),
+            "ce-subject", encodeHeaderValue(event.subject()),
+            "ce-time", event.eventTime() != null ? event.eventTime().toString() : null,
+            "ce-dataversion", encodeHeaderValue(event.dataVersion())
+        }, contentType, body);
+    }
+
+    /**
+     * Percent-encodes a "ce-" header value as the CloudEvents HTTP binding requires: the UTF-8 bytes of space,
+     * double quote, percent and of every character outside printable ASCII.
+     * @param value the attribute value, or null
+     * @return the header value, or null
+     */
+    public static String encodeHeaderValue(String value) {
+        if (value == null) {
+            return null;
+        }
+        StringBuilder encoded = null;
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xff;
+            boolean plain = b > 0x20 && b < 0x7f && b != '"' && b != '%';
+            if (!plain && encoded == null) {
+                encoded = new StringBuilder(bytes.length + 16).append(new String(bytes, 0, i, StandardCharsets.US_ASCII));
+            }
+            if (encoded != null) {
+                if (plain) {
+                    encoded.append((char) b);
+                } else {
+                    encoded.append('%').append(HEX_DIGITS[b >> 4]).append(HEX_DIGITS[b & 0xf]);
+                }
+            }
+        }
+        return encoded != null ? encoded.toString() : value;
+    }
+
+    private void send(String[] headers, String contentType, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("aeg-sas-key", topicKey);
+            connection.setRequestProperty("Content-Type", contentType);
+            for (int i = 0; i < headers.length; i += 2) {
+                if (headers[i + 1] != null) {
+                    connection.setRequestProperty(headers[i], headers[i + 1]);
+                }
+            }
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+
+            int status = connection.getResponseCode();
+            // Read the response fully so the connection goes back to the keep-alive pool
+            InputStream response = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            String message = response != null ? readFully(response) : "";
+            if (status / 100 != 2) {
+                throw new TopicRequestException(String.format("Topic rejected the CloudEvents request with status %d: %s", status, message),
+                    status, connection.getHeaderField("Retry-After"));
+            }
+            requestsSent.incrementAndGet();
+            bytesSent.addAndGet(body.length);
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    private String sourceOf(EventGridEvent event) {
+        return event.topic() != null ? event.topic() : defaultSource;
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+            int read;
+            while ((read = input.read(chunk)) != -1) {
+                buffer.write(chunk, 0, read);
+            }
+            return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static ThreadFactory daemonThreads(final String prefix) {
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import java.io.IOException;
+
+/**
+ * Event read by the {@link EventGridEventDecoder}, with its "Data" portion bound to the registered type.
+ * Events in the EventGrid schema and in the CloudEvents 1.0 schema are both represented by this class; for
+ * CloudEvents, the topic is the "source", the event type the "type" and the event time the "time" attribute.
+ * Data which the decoder cannot bind while streaming, such as base64 encoded data, is bound on the first call to
+ * {@link #data()}, so a payload the decoder cannot bind only fails its own event.
+ */
+public final class DecodedEvent {
+    /**
+     * Binds the data of an event when it is first read.
+     */
+    @FunctionalInterface
+    interface DataBinder {
+        Object bind() throws IOException;
+    }
+
+    private final String id;
+    private final String topic;
+    private final String subject;
+    private final String eventType;
+    private final String eventTime;
+    private final String dataVersion;
+    private final String specVersion;
+    private DataBinder binder;
+    private Object data;
+    private RuntimeException bindFailure;
+
+    DecodedEvent(String id, String topic, String subject, String eventType, String eventTime, String dataVersion,
+                 String specVersion, Object data) {
+        this.id = id;
+        this.topic = topic;
+        this.subject = subject;
+        this.eventType = eventType;
+        this.eventTime = eventTime;
+        this.dataVersion = dataVersion;
+        this.specVersion = specVersion;
+        this.data = data;
+    }
+
+    DecodedEvent(String id, String topic, String subject, String eventType, String eventTime, String dataVersion,
+                 String specVersion, DataBinder binder) {
+        this(id, topic, subject, eventType, eventTime, dataVersion, specVersion, (Object) null);
+        this.binder = binder;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public String topic() {
+        return topic;
+    }
+
+    public String subject() {
+        return subject;
+    }
+
+    public String eventType() {
+        return eventType;
+    }
+
+    /**
+     * @return the event time as sent, in ISO 8601 format
+     */
+    public String eventTime() {
+        return eventTime;
+    }
+
+    public String dataVersion() {
+        return dataVersion;
+    }
+
+    /**
+     * @return the CloudEvents spec version, or null for an event in the EventGrid schema
+     */
+    public String specVersion() {
+        return specVersion;
+    }
+
+    /**
+     * @return the bound data object, or a JsonElement when no type is registered for the event type
+     * @throws IllegalStateException if the data cannot be bound, on this and every later call
+     */
+    public synchronized Object data() {
+        if (binder != null) {
+            try {
+                data = binder.bind();
+            } catch (IOException | RuntimeException e) {
+                bindFailure = new IllegalStateException("Cannot bind the data of event " + id, e);
+            }
+            binder = null;
+        }
+        if (bindFailure != null) {
+            throw bindFailure;
+        }
+        return data;
+    }
+
+    /**
+     * @param type the expected data type
+     * @return the data cast to the expected type, or null when it is of another type
+     * @throws IllegalStateException if the data cannot be bound
+     */
+    public <T> T data(Class<T> type) {
+        Object value = data();
+        return type.isInstance(value) ? type.cast(value) : null;
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import com.microsoft.azure.eventgrid.EventGridClient;
+import com.microsoft.azure.eventgrid.TopicCredentials;
+import com.microsoft.azure.eventgrid.implementation.EventGridClientImpl;
+
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of EventGrid clients shared by all function invocations.
+ *  - One client is created lazily per topic endpoint and reused, keeping its HTTP connection pool warm.
+ *  - The client for an endpoint is rebuilt when the topic key for that endpoint changes (key rotation).
+ *  - The topic hostname passed to publishEvents is resolved once per endpoint.
+ */
+public final class EventGridClientCache {
+    private static final ConcurrentMap<String, CachedClient> clients = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, String> topicHostnames = new ConcurrentHashMap<>();
+    private static final AtomicLong clientsCreated = new AtomicLong();
+    private static final AtomicLong clientsReused = new AtomicLong();
+
+    private EventGridClientCache() {
+    }
+
+    /**
+     * Client built for a given topic key.
+     */
+    private static final class CachedClient {
+        final String topicKey;
+        final EventGridClient client;
+
+        CachedClient(String topicKey, EventGridClient client) {
+            this.topicKey = topicKey;
+            this.client = client;
+        }
+    }
+
+    /**
+     * Gets the client for a topic endpoint, creating it on first use or when the topic key has changed.
+     * @param topicEndpoint the topic endpoint, for example "https://mytopic.westus-1.eventgrid.azure.net/api/events"
+     * @param topicKey the topic access key
+     * @return the shared client
+     */
+    public static EventGridClient getClient(String topicEndpoint, String topicKey) {
+        if (topicEndpoint == null || topicKey == null) {
+            throw new IllegalArgumentException("Both the EventGrid topic endpoint and key are required");
+        }
+
+        CachedClient cached = clients.get(topicEndpoint);
+        if (cached != null && cached.topicKey.equals(topicKey)) {
+            clientsReused.incrementAndGet();
+            return cached.client;
+        }
+
+        return clients.compute(topicEndpoint, (endpoint, current) -> {
+            if (current != null && current.topicKey.equals(topicKey)) {
+                clientsReused.incrementAndGet();
+                return current;
+            }
+            clientsCreated.incrementAndGet();
+            return new CachedClient(topicKey, new EventGridClientImpl(new TopicCredentials(topicKey)));
+        }).client;
+    }
+
+    /**
+     * Gets the client for the topic configured through the EVENTGRID_TOPIC_ENDPOINT and EVENTGRID_TOPIC_KEY settings.
+     * @return the shared client
+     */
+    public static EventGridClient getClientFromEnvironment() {
+        return getClient(FunctionBootstrap.topicEndpoint, FunctionBootstrap.topicKey);
+    }
+
+    /**
+     * Resolves the topic hostname expected by publishEvents, for example "https://mytopic.westus-1.eventgrid.azure.net/".
+     * @param topicEndpoint the topic endpoint
+     * @return the cached topic hostname
+     */
+    public static String getTopicHostname(String topicEndpoint) {
+        return topicHostnames.computeIfAbsent(topicEndpoint,
+            endpoint -> String.format("https://%s/", URI.create(endpoint).getHost()));
+    }
+
+    /**
+     * @return the number of clients created, including rebuilds after a key rotation
+     */
+    public static long clientsCreated() {
+        return clientsCreated.get();
+    }
+
+    /**
+     * @return the number of times an existing client was handed out
+     */
+    public static long clientsReused() {
+        return clientsReused.get();
+    }
+}
@@ -5,17 +5,28 @@
  */
 package com.microsoft.azure.eventgrid.samples;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-
-import com.microsoft.azure.eventgrid.models.EventGridEvent;
 import com.microsoft.azure.eventgrid.models.StorageBlobCreatedEventData;
 import com.microsoft.azure.serverless.functions.ExecutionContext;
+import com.microsoft.azure.serverless.functions.HttpRequestMessage;
+import com.microsoft.azure.serverless.functions.HttpResponseMessage;
+import com.microsoft.azure.serverless.functions.annotation.AuthorizationLevel;
 import com.microsoft.azure.serverless.functions.annotation.EventGridTrigger;
 import com.microsoft.azure.serverless.functions.annotation.FunctionName;
+import com.microsoft.azure.serverless.functions.annotation.HttpTrigger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
 
 /**
  * Azure Functions with EventGrid Trigger.
+ *  - CloudEvents delivered to a webhook, in binary or structured content mode, are handled by an HTTP trigger
  */
 public class EventGridConsumer {
     /**
@@ -30,35 +41,184 @@ public class EventGridConsumer {
         }
     }
 
+    /**
+     * Logger for the per-event messages, configured through the EVENTGRID_LOG_LEVEL setting (INFO by default) and
+     * the EVENTGRID_LOG_SAMPLE_RATES setting, for example "Contoso.Items.ItemReceived=0.01,*=1".
+     */
+    private static final AsyncSampledLogger eventLog = new AsyncSampledLogger(System.out, 8192)
+        .withLevel(logLevel(FunctionBootstrap.setting("EVENTGRID_LOG_LEVEL")))
+        .withMaxPayloadChars(1024)
+        .withSampleRates(FunctionBootstrap.setting("EVENTGRID_LOG_SAMPLE_RATES"));
+
+    /**
+     * Handlers of the known event types; event types are matched case-insensitively.
+     */
+    private static final EventHandlerRegistry<ExecutionContext> handlers = EventHandlerRegistry.<ExecutionContext>builder()
+        .on("Microsoft.Storage.BlobCreated", StorageBlobCreatedEventData.class, (eventData, event, executionContext) -> {
+            if (eventLog.isLoggable(Level.INFO, event.eventType())) {
+                eventLog.log(Level.INFO, "Got BlobCreated event data, blob URI %s", eventData.url());
+            }
+        })
+        .on("Contoso.Items.ItemReceived", ContosoItemReceivedEventData.class, (eventData, event, executionContext) -> {
+            if (eventLog.isLoggable(Level.INFO, event.eventType())) {
+                eventLog.log(Level.INFO, "Got ContosoItemReceived event data, item SKU %s", eventData.itemSku);
+            }
+        })
+        .fallback((eventData, event, executionContext) ->
+            executionContext.getLogger().warning(String.format("No handler for event %s of type %s", event.id(), event.eventType())))
+        .build();
+
+    /**
+     * Shared decoder binding the "Data" portion of each event into the data class of its handler; claim checked
+     * and compressed data is resolved first, see {@link ClaimCheckCodec#fromEnvironment}.
+     */
+    private static final EventGridEventDecoder decoder = new EventGridEventDecoder(FunctionBootstrap.gson, handlers::dataClassFor)
+        .withClaimCheckCodec(FunctionBootstrap.claimCheckCodec);
+
+    static {
+        FunctionBootstrap.registerDataClasses(handlers.dataClasses().values());
+    }
+
+    /**
+     * Ids of the events already handled. EventGrid delivers at least once and retries for up to 24 hours, so by
+     * default ids are remembered for that long, up to 100000 ids per generation (at most about 4 MB); set
+     * EVENTGRID_DEDUP_WINDOW_MINUTES and EVENTGRID_DEDUP_MAX_IDS to tune.
+     */
+    private static final EventDeduplicator deduplicator = new EventDeduplicator(
+        FunctionBootstrap.intSetting("EVENTGRID_DEDUP_MAX_IDS", 100000),
+        TimeUnit.MINUTES.toMillis(FunctionBootstrap.intSetting("EVENTGRID_DEDUP_WINDOW_MINUTES", 24 * 60)));
+
+    /**
+     * Time to decode a delivered payload and dispatch its events, per payload.
+     */
+    private static final LatencyHistogram decodeMicros = EventGridMetrics.histogram("consume_decode_micros");
+    private static final LongAdder eventsDecoded = EventGridMetrics.counter("consume_events_decoded");
+
     /**
      * EventGrid trigger function for handling the events and log them to the execution context.
      */
     @FunctionName("EventGrid-Consumer")
     public void Run(@EventGridTrigger(name = "data") String data, final ExecutionContext executionContext) {
+        long invocationStartNanos = System.nanoTime();
         executionContext.getLogger().info("Java EventGrid trigger function begun\n");
-        executionContext.getLogger().info("\tFOUND: " + data);
+        // The whole payload is only logged at FINE, since it can be up to 1 MB per delivery
+        if (eventLog.isLoggable(Level.FINE, null)) {
+            eventLog.log(Level.FINE, "\tFOUND: %s", data);
+        }
 
         try {
-            final String StorageBlobCreatedEvent = "Microsoft.Storage.BlobCreated";
-            final String CustomTopicEvent = "Contoso.Items.ItemReceived";
-            final Gson gson = new GsonBuilder().create();
-
-            EventGridEvent eventGridEvent = gson.fromJson(data, EventGridEvent.class);
+            long startNanos = System.nanoTime();
+            int events = decoder.decode(data, event -> handle(event, executionContext));
+            decodeMicros.record((System.nanoTime() - startNanos) / 1000);
+            eventsDecoded.add(events);
+        } catch (Exception e) {
+            executionContext.getLogger().info("UNEXPECTED Exception caught: " + e.toString());
+        }
+        FunctionBootstrap.recordInvocation("EventGrid-Consumer", invocationStartNanos);
+    }
 
-            // Deserialize the event data into the appropriate type based on event type
-            if (eventGridEvent.eventType().toLowerCase().equals(StorageBlobCreatedEvent.toLowerCase())) {
-                // Deserialize the data portion of the event into StorageBlobCreatedEventData
-                StorageBlobCreatedEventData eventData = gson.fromJson((String) eventGridEvent.data(), StorageBlobCreatedEventData.class);
-                executionContext.getLogger().info("Got BlobCreated event data, blob URI " + eventData.url());
+    /**
+     * HTTP trigger function for subscriptions delivering CloudEvents 1.0 to a webhook: binary content mode requests
+     * carry one event in the "ce-" headers and the body, read as UTF-8 text, and structured mode requests one event
+     * or a batch as JSON.
+     * OPTIONS requests answer the CloudEvents webhook validation handshake. A failed event is answered with status
+     * 500, so that EventGrid delivers it again.
+     */
+    @FunctionName("EventGrid-CloudEvents-Consumer")
+    public HttpResponseMessage<String> RunCloudEvents(
+            @HttpTrigger(name = "request", methods = {"post", "options"}, authLevel = AuthorizationLevel.FUNCTION) HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext executionContext) {
+        long invocationStartNanos = System.nanoTime();
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.putAll(request.getHeaders());
+        try {
+            if ("OPTIONS".equalsIgnoreCase(request.getHttpMethod())) {
+                HttpResponseMessage<String> response = request.createResponse(200, "");
+                response.addHeader("WebHook-Allowed-Origin", headers.getOrDefault("WebHook-Request-Origin", "*"));
+                response.addHeader("WebHook-Allowed-Rate", "*");
+                return response;
             }
-            else if (eventGridEvent.eventType().toLowerCase().equals(CustomTopicEvent.toLowerCase())) {
-                // Deserialize the data portion of the event into ContosoItemReceivedEventData
-                ContosoItemReceivedEventData eventData = gson.fromJson((String) eventGridEvent.data(), ContosoItemReceivedEventData.class);
-                executionContext.getLogger().info("Got ContosoItemReceived event data, item SKU " + eventData.itemSku);
+
+            String body = request.getBody().orElse("");
+            String contentType = headers.getOrDefault("Content-Type", "");
+            final AtomicBoolean failed = new AtomicBoolean();
+            long startNanos = System.nanoTime();
+            int events;
+            if (headers.containsKey("ce-id")) {
+                failed.set(!handle(decoder.decodeBinary(headers::get, body.getBytes(StandardCharsets.UTF_8)), executionContext));
+                events = 1;
+            } else if (contentType.startsWith("application/cloudevents")) {
+                events = decoder.decode(body, event -> {
+                    if (!handle(event, executionContext)) {
+                        failed.set(true);
+                    }
+                });
+            } else {
+                return request.createResponse(400, "Expected a CloudEvent in binary or structured content mode");
             }
+            decodeMicros.record((System.nanoTime() - startNanos) / 1000);
+            eventsDecoded.add(events);
+            return failed.get() ? request.createResponse(500, "Handling an event failed") : request.createResponse(200, "");
         } catch (Exception e) {
             executionContext.getLogger().info("UNEXPECTED Exception caught: " + e.toString());
+            return request.createResponse(400, e.toString());
+        } finally {
+            FunctionBootstrap.recordInvocation("EventGrid-CloudEvents-Consumer", invocationStartNanos);
+        }
+    }
+
+    /**
+     * Dispatches an event to its handler unless it was already handled.
+     * @return false if the handler failed
+     */
+    private static boolean handle(DecodedEvent event, ExecutionContext executionContext) {
+        String key = deduplicationKey(event);
+        if (key != null && !deduplicator.firstSeen(key)) {
+            if (eventLog.isLoggable(Level.INFO, event.eventType())) {
+                eventLog.log(Level.INFO, "Skipping duplicate event %s", event.id());
+            }
+            return true;
+        }
+        try {
+            handlers.dispatch(event, executionContext);
+            return true;
+        } catch (Exception e) {
+            // Let a redelivery of the event be handled again
+            if (key != null) {
+                deduplicator.forget(key);
+            }
+            executionContext.getLogger().info(String.format("Handling event %s failed: %s", event.id(), e.toString()));
+            return false;
         }
     }
 
+    /**
+     * The key under which an event is deduplicated. A CloudEvent id is only unique within its source, so CloudEvents
+     * are keyed by source and id; EventGrid event ids are unique per topic already.
+     * @return the key, or null when the event has no id
+     */
+    static String deduplicationKey(DecodedEvent event) {
+        if (event.id() == null) {
+            return null;
+        }
+        if (event.specVersion() != null && event.topic() != null) {
+            return event.topic() + '\n' + event.id();
+        }
+        return event.id();
+    }
+
+    /**
+     * Runs the decode path over synthetic events of every registered type, without dispatching them.
+     * @throws IOException if a synthetic payload cannot be decoded
+     */
+    static void warmUp() throws IOException {
+        FunctionBootstrap.primeDecoder(decoder, handlers.dataClasses().keySet());
+    }
+
+    /**
+     * Parses the EVENTGRID_LOG_LEVEL setting; an unset or empty setting means INFO.
+     */
+    private static Level logLevel(String value) {
+        return value != null ? Level.parse(value.toUpperCase()) : Level.INFO;
+    }
 }
@@ -0,0 +1,291 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Streaming decoder for EventGrid payloads.
+ *  - Reads the envelope in a single pass, for a single event or an array of events, in the EventGrid schema
+ *    or in the CloudEvents 1.0 structured format; CloudEvents in binary format are read by {@link #decodeBinary}.
+ *  - Binds the "Data" portion straight into the type registered for the event type; it is only
+ *    buffered as a JSON tree when it appears before the "eventType" property.
+ *  - Data sent as a JSON encoded string is unwrapped and bound as well.
+ *  - CloudEvents "data_base64" is bound according to its "datacontenttype" when the handler reads it, so data which
+ *    cannot be bound only fails its own event.
+ *  - With a {@link ClaimCheckCodec}, the object data of registered event types is read as a JSON tree when the
+ *    payload mentions the codec properties, so the codec can recognize claim checks and compressed data; they are
+ *    resolved and bound when the handler reads the data. Any other data is still bound straight from the reader.
+ * Instances are thread-safe and meant to be shared.
+ */
+public class EventGridEventDecoder {
+    private final Gson gson;
+    private final Function<String, Class<?>> dataTypes;
+    private final JsonParser parser = new JsonParser();
+    private ClaimCheckCodec claimCheckCodec;
+
+    /**
+     * @param gson the Gson instance used to bind the event data
+     * @param dataTypes resolves the data type of an event type, or null when the event type is not registered
+     */
+    public EventGridEventDecoder(Gson gson, Function<String, Class<?>> dataTypes) {
+        this.gson = gson;
+        this.dataTypes = dataTypes;
+    }
+
+    /**
+     * @param claimCheckCodec the codec resolving claim checks and compressed data
+     * @return this decoder
+     */
+    public EventGridEventDecoder withClaimCheckCodec(ClaimCheckCodec claimCheckCodec) {
+        this.claimCheckCodec = claimCheckCodec;
+        return this;
+    }
+
+    /**
+     * Decodes a payload holding one event or an array of events.
+     * @param payload the JSON payload
+     * @param sink receives each decoded event, in payload order
+     * @return the number of events decoded
+     * @throws IOException if the payload is not valid JSON
+     */
+    public int decode(String payload, Consumer<DecodedEvent> sink) throws IOException {
+        return decode(new StringReader(payload), sink, claimCheckCodec != null && ClaimCheckCodec.mayHoldEncodedData(payload));
+    }
+
+    /**
+     * Decodes a payload holding one event or an array of events.
+     * @param payload the JSON payload
+     * @param sink receives each decoded event, in payload order
+     * @return the number of events decoded
+     * @throws IOException if the payload is not valid JSON or not made of events; the events before the invalid
+     *                     one have already been passed to the sink
+     */
+    public int decode(Reader payload, Consumer<DecodedEvent> sink) throws IOException {
+        return decode(payload, sink, claimCheckCodec != null);
+    }
+
+    private int decode(Reader payload, Consumer<DecodedEvent> sink, boolean mayHoldEncodedData) throws IOException {
+        JsonReader reader = new JsonReader(payload);
+        int count = 0;
+        if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                sink.accept(readEvent(reader, mayHoldEncodedData));
+                count++;
+            }
+            reader.endArray();
+        } else {
+            sink.accept(readEvent(reader, mayHoldEncodedData));
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Reads one event. Gson reports JSON of the wrong shape, such as an event which is not an object or inline data
+     * which does not fit the registered type, with unchecked exceptions; they fail the payload like invalid JSON.
+     */
+    private DecodedEvent readEvent(JsonReader reader, boolean mayHoldEncodedData) throws IOException {
+        try {
+            return readEventFields(reader, mayHoldEncodedData);
+        } catch (JsonParseException | IllegalStateException | NumberFormatException e) {
+            throw new IOException("Invalid event at " + reader.getPath(), e);
+        }
+    }
+
+    private DecodedEvent readEventFields(JsonReader reader, boolean mayHoldEncodedData) throws IOException {
+        String id = null;
+        String topic = null;
+        String subject = null;
+        String eventType = null;
+        String eventTime = null;
+        String dataVersion = null;
+        String specVersion = null;
+        String dataContentType = null;
+        Class<?> dataType = null;
+        Object data = null;
+        JsonElement bufferedData = null;
+        String base64Data = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "id":
+                    id = reader.nextString();
+                    break;
+                case "topic":
+                    topic = reader.nextString();
+                    break;
+                case "subject":
+                    subject = reader.nextString();
+                    break;
+                case "eventType":
+                case "type":
+                    eventType = reader.nextString();
+                    dataType = dataTypes.apply(eventType);
+                    break;
+                case "eventTime":
+                case "time":
+                    eventTime = reader.nextString();
+                    break;
+                case "dataVersion":
+                case "dataversion":
+                    dataVersion = reader.nextString();
+                    break;
+                case "source":
+                    topic = reader.nextString();
+                    break;
+                case "specversion":
+                    specVersion = reader.nextString();
+                    break;
+                case "datacontenttype":
+                    dataContentType = reader.nextString();
+                    break;
+                case "data_base64":
+                    base64Data = reader.nextString();
+                    break;
+                case "data":
+                    // Claim checks and compressed data are objects, and only resolved for registered types
+                    if (eventType != null
+                        && (dataType == null || !mayHoldEncodedData || reader.peek() != JsonToken.BEGIN_OBJECT)) {
+                        data = readData(reader, dataType);
+                    } else {
+                        bufferedData = parser.parse(reader);
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        final Class<?> type = dataType;
+        if (bufferedData != null) {
+            final JsonElement buffered = bufferedData;
+            return new DecodedEvent(id, topic, subject, eventType, eventTime, dataVersion, specVersion,
+                () -> bindData(buffered, type));
+        } else if (base64Data != null) {
+            final String encoded = base64Data;
+            final String contentType = dataContentType;
+            return new DecodedEvent(id, topic, subject, eventType, eventTime, dataVersion, specVersion,
+                () -> bindBytes(Base64.getDecoder().decode(encoded), contentType, type));
+        }
+        return new DecodedEvent(id, topic, subject, eventType, eventTime, dataVersion, specVersion, data);
+    }
+
+    /**
+     * Decodes a CloudEvent received in binary content mode: the attributes are read from the percent-encoded "ce-"
+     * headers and the request body is the data. The data is bound when the handler reads it: JSON bodies to the registered type,
+     * text bodies as a String and other bodies as byte[].
+     * @param headers resolves a header value from its name, case-insensitively
+     * @param body the request body
+     * @return the decoded event
+     */
+    public DecodedEvent decodeBinary(Function<String, String> headers, final byte[] body) {
+        String eventType = decodeHeaderValue(headers.apply("ce-type"));
+        final Class<?> dataType = eventType != null ? dataTypes.apply(eventType) : null;
+        final String contentType = headers.apply("Content-Type");
+        return new DecodedEvent(decodeHeaderValue(headers.apply("ce-id")), decodeHeaderValue(headers.apply("ce-source")),
+            decodeHeaderValue(headers.apply("ce-subject")), eventType, decodeHeaderValue(headers.apply("ce-time")),
+            decodeHeaderValue(headers.apply("ce-dataversion")), decodeHeaderValue(headers.apply("ce-specversion")),
+            () -> body.length == 0 ? null : bindBytes(body, contentType, dataType));
+    }
+
+    /**
+     * Reverses the percent-encoding of a "ce-" header value, see {@link CloudEventsPublisher#encodeHeaderValue};
+     * a "%" which is not followed by two hex digits is kept as is.
+     */
+    static String decodeHeaderValue(String value) {
+        if (value == null || value.indexOf('%') < 0) {
+            return value;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            int high = c == '%' && i + 2 < value.length() ? Character.digit(value.charAt(i + 1), 16) : -1;
+            int low = high >= 0 ? Character.digit(value.charAt(i + 2), 16) : -1;
+            if (low >= 0) {
+                bytes.write((high << 4) | low);
+                i += 2;
+            } else {
+                int codePoint = value.codePointAt(i);
+                byte[] encoded = new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8);
+                bytes.write(encoded, 0, encoded.length);
+                i += Character.charCount(codePoint) - 1;
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private Object readData(JsonReader reader, Class<?> dataType) throws IOException {
+        if (dataType == null) {
+            return parser.parse(reader);
+        }
+        if (reader.peek() == JsonToken.STRING && dataType != String.class) {
+            return gson.fromJson(reader.nextString(), dataType);
+        }
+        return gson.getAdapter(dataType).read(reader);
+    }
+
+    /**
+     * Binds binary data by its content type: JSON is bound to the registered type, text is kept as a String and
+     * anything else as byte[]. A missing content type means JSON when a data type is registered.
+     * @throws IOException if JSON data is not valid, or non-JSON data is sent for a registered data class
+     */
+    private Object bindBytes(byte[] bytes, String contentType, Class<?> dataType) throws IOException {
+        String mediaType = contentType != null ? contentType.trim().toLowerCase() : (dataType != null ? "application/json" : "");
+        boolean json = mediaType.startsWith("application/json") || mediaType.contains("+json");
+        if (dataType == byte[].class || (dataType == null && !json && !mediaType.startsWith("text/"))) {
+            return bytes;
+        }
+        if (dataType == String.class || (dataType == null && !json)) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        if (!json) {
+            throw new IOException(String.format("Cannot bind data of content type %s to %s", contentType, dataType.getName()));
+        }
+        try {
+            JsonReader reader = new JsonReader(new StringReader(new String(bytes, StandardCharsets.UTF_8)));
+            return dataType == null ? parser.parse(reader) : gson.getAdapter(dataType).read(reader);
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid JSON data", e);
+        }
+    }
+
+    private Object bindData(JsonElement data, Class<?> dataType) throws IOException {
+        if (dataType == null) {
+            return data;
+        }
+        if (claimCheckCodec != null) {
+            data = claimCheckCodec.resolve(data);
+        }
+        if (data.isJsonPrimitive() && data.getAsJsonPrimitive().isString() && dataType != String.class) {
+            return gson.fromJson(data.getAsString(), dataType);
+        }
+        return gson.fromJson(data, dataType);
+    }
+}
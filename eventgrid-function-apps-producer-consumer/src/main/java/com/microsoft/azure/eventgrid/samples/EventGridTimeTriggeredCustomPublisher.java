@@ -5,23 +5,26 @@
  */
 package com.microsoft.azure.eventgrid.samples;
 
-import com.microsoft.azure.eventgrid.EventGridClient;
-import com.microsoft.azure.eventgrid.TopicCredentials;
-import com.microsoft.azure.eventgrid.implementation.EventGridClientImpl;
 import com.microsoft.azure.eventgrid.models.EventGridEvent;
 import com.microsoft.azure.serverless.functions.ExecutionContext;
 import com.microsoft.azure.serverless.functions.annotation.FunctionName;
 import com.microsoft.azure.serverless.functions.annotation.TimerTrigger;
 import org.joda.time.DateTime;
 
-import java.net.URI;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 /**
  * Azure Functions with Time Trigger.
  *  - Publish custom topic events which will be captured as EventGrid events
+ *  - Topics created with the CloudEvents input schema, see EVENTGRID_TOPIC_SCHEMA, get the same events as CloudEvents
+ *    through the same batching, retries, outbox and sharding
  */
 public class EventGridTimeTriggeredCustomPublisher {
 
@@ -37,35 +40,180 @@ public class EventGridTimeTriggeredCustomPublisher {
         }
     }
 
+    /**
+     * Retries are budgeted across all invocations, so sustained throttling does not multiply the load on the topic.
+     */
+    private static final RetryBudget retryBudget = new RetryBudget(100, 0.1);
+
+    /**
+     * Events which cannot be published after retrying are kept in a local spool instead of being discarded.
+     */
+    private static final DeadLetterSpool deadLetterSpool = new DeadLetterSpool(
+        Paths.get(System.getProperty("java.io.tmpdir"), "eventgrid-dead-letter", "custom-publisher.jsonl"));
+
+    /**
+     * Publisher spreading the events over the topics listed in EVENTGRID_TOPIC_ENDPOINTS, when that setting is present.
+     */
+    private static final ShardedEventGridPublisher shardedPublisher = createShardedPublisher();
+
+    /**
+     * Local outbox in the EVENTGRID_OUTBOX_DIR directory, when that setting is present: events are appended to it
+     * and published in the background, so they are kept while the topic is unreachable. The directory should be
+     * local to the instance, for example under the temp directory.
+     */
+    private static final EventOutbox outbox = createOutbox();
+
+    /**
+     * Long-lived publisher batching the events of all invocations, used when neither the outbox nor several
+     * topics are configured.
+     */
+    private static final EventGridBatchPublisher batchPublisher = createBatchPublisher();
+
+    static {
+        FunctionBootstrap.registerDataClasses(Collections.singletonList(ContosoItemReceivedEventData.class));
+    }
+
     @FunctionName("EventGrid-TimeTriggered-Custom-Publisher")
     public void EventGridWithCustomPublisher(
             @TimerTrigger(name = "timerInfo", schedule = "*/20 * * * * *") String timerInfo,
             final ExecutionContext executionContext) {
 
+        long invocationStartNanos = System.nanoTime();
+        FunctionBootstrap.startWarmUp();
         try {
-            // Create an event grid client.
-            TopicCredentials topicCredentials = new TopicCredentials(System.getenv("EVENTGRID_TOPIC_KEY"));
-            EventGridClient client = new EventGridClientImpl(topicCredentials);
+            List<EventGridEvent> events = createEvents(5);
 
-            // Publish custom events to the EventGrid.
-            System.out.println("Publish custom events to the EventGrid");
-            List<EventGridEvent> eventsList = new ArrayList<>();
-            for (int i = 0; i < 5; i++) {
-                eventsList.add(new EventGridEvent(
-                    UUID.randomUUID().toString(),
-                    String.format("Door%d", i),
-                    new ContosoItemReceivedEventData("Contoso Item SKU #1"),
-                    "Contoso.Items.ItemReceived",
-                    DateTime.now(),
-                    "2.0"
-                ));
+            if (outbox != null) {
+                // Append the events to the outbox; its drainer publishes them without holding this invocation.
+                outbox.append(events);
+                return;
             }
 
-            String eventGridEndpoint = String.format("https://%s/", new URI(System.getenv("EVENTGRID_TOPIC_ENDPOINT")).getHost());
+            if (shardedPublisher != null) {
+                // Route the events to the topics by subject; a degraded topic fails over to the next one.
+                System.out.println("Publish custom events to the EventGrid topics");
+                shardedPublisher.publishAsync(events).get();
+                return;
+            }
 
-            client.publishEvents(eventGridEndpoint, eventsList);
+            if (batchPublisher == null) {
+                executionContext.getLogger().info("The EventGrid topic is not configured, set EVENTGRID_TOPIC_ENDPOINT and EVENTGRID_TOPIC_KEY");
+                return;
+            }
+
+            // Publish custom events to the EventGrid; the shared publisher batches them with the events of
+            // concurrent invocations, and the flush waits until they are sent.
+            System.out.println("Publish custom events to the EventGrid");
+            batchPublisher.publishAll(events);
+            batchPublisher.flush();
         } catch (Exception e) {
             executionContext.getLogger().info("UNEXPECTED Exception caught: " + e.toString());
+        } finally {
+            FunctionBootstrap.recordInvocation("EventGrid-TimeTriggered-Custom-Publisher", invocationStartNanos);
+        }
+    }
+
+    /**
+     * Builds the topic client and runs the event serialization path once without publishing anything, then opens
+     * a connection to the topic through the client which publishes to it.
+     * @throws IOException if the sample events cannot be encoded
+     */
+    static void warmUp() throws IOException {
+        createEvents(5);
+        if (FunctionBootstrap.topicEndpoint == null || FunctionBootstrap.topicKey == null) {
+            return;
+        }
+        if (FunctionBootstrap.topicSchema == EventSchema.EVENT_GRID) {
+            FunctionBootstrap.primeConnection(
+                EventGridClientCache.getClient(FunctionBootstrap.topicEndpoint, FunctionBootstrap.topicKey),
+                EventGridClientCache.getTopicHostname(FunctionBootstrap.topicEndpoint));
+        } else {
+            FunctionBootstrap.primeConnection(FunctionBootstrap.topicEndpoint);
+        }
+    }
+
+    private static List<EventGridEvent> createEvents(int count) throws IOException {
+        List<EventGridEvent> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            EventGridEvent event = new EventGridEvent(
+                UUID.randomUUID().toString(),
+                String.format("Door%d", i),
+                new ContosoItemReceivedEventData("Contoso Item SKU #1"),
+                "Contoso.Items.ItemReceived",
+                DateTime.now(),
+                "2.0"
+            );
+            events.add(FunctionBootstrap.claimCheckCodec != null ? FunctionBootstrap.claimCheckCodec.encode(event) : event);
+        }
+        return events;
+    }
+
+    /**
+     * Creates the publisher of a topic, sending the events in the input schema set by EVENTGRID_TOPIC_SCHEMA.
+     */
+    private static AsyncEventGridPublisher topicPublisher(String topicEndpoint, String topicKey) {
+        if (FunctionBootstrap.topicSchema == EventSchema.EVENT_GRID) {
+            return new AsyncEventGridPublisher(
+                EventGridClientCache.getClient(topicEndpoint, topicKey),
+                EventGridClientCache.getTopicHostname(topicEndpoint),
+                EventGridBatchPublisher.DEFAULT_MAX_IN_FLIGHT_BATCHES);
+        }
+        CloudEventsPublisher cloudEventsPublisher = new CloudEventsPublisher(
+            topicEndpoint, topicKey, "/contoso/items", FunctionBootstrap.topicSchema, FunctionBootstrap.gson);
+        return new AsyncEventGridPublisher(cloudEventsPublisher::publishAsync, EventGridBatchPublisher.DEFAULT_MAX_IN_FLIGHT_BATCHES);
+    }
+
+    private static ShardedEventGridPublisher createShardedPublisher() {
+        ShardedEventGridPublisher publisher;
+        try {
+            publisher = ShardedEventGridPublisher.fromEnvironment(EventGridTimeTriggeredCustomPublisher::topicPublisher);
+        } catch (Exception e) {
+            System.err.println("Cannot create the publisher of the EVENTGRID_TOPIC_ENDPOINTS topics: " + e);
+            return null;
+        }
+        if (publisher == null) {
+            return null;
+        }
+        publisher.withTopicPublishers(topicPublisher -> topicPublisher.withRetryBudget(retryBudget));
+        // With an outbox, events which fail with a retryable error stay in it, and it spools the rejected ones itself
+        return FunctionBootstrap.outboxDirectory == null ? publisher.withDeadLetterSpool(deadLetterSpool) : publisher;
+    }
+
+    private static EventGridBatchPublisher createBatchPublisher() {
+        if (outbox != null || shardedPublisher != null
+            || FunctionBootstrap.topicEndpoint == null || FunctionBootstrap.topicKey == null) {
+            return null;
+        }
+        AsyncEventGridPublisher asyncPublisher = topicPublisher(FunctionBootstrap.topicEndpoint, FunctionBootstrap.topicKey)
+            .withRetryBudget(retryBudget)
+            .withDeadLetterSpool(deadLetterSpool);
+        return new EventGridBatchPublisher(asyncPublisher,
+            EventGridBatchPublisher.DEFAULT_MAX_BATCH_EVENTS,
+            EventGridBatchPublisher.DEFAULT_MAX_BATCH_BYTES,
+            EventGridBatchPublisher.DEFAULT_LINGER_MILLIS,
+            EventGridBatchPublisher.DEFAULT_MAX_IN_FLIGHT_BATCHES)
+            .withFailureHandler((failedEvents, error) -> System.err.println(
+                String.format("Failed to publish %d events: %s", failedEvents.size(), error)));
+    }
+
+    private static EventOutbox createOutbox() {
+        if (FunctionBootstrap.outboxDirectory == null) {
+            return null;
+        }
+        try {
+            Function<List<EventGridEvent>, CompletableFuture<Void>> publisher;
+            if (shardedPublisher != null) {
+                publisher = shardedPublisher::publishAsync;
+            } else {
+                publisher = topicPublisher(FunctionBootstrap.topicEndpoint, FunctionBootstrap.topicKey)
+                    .withRetryBudget(retryBudget)::publishAsync;
+            }
+            return new EventOutbox(Paths.get(FunctionBootstrap.outboxDirectory), 16 * 1024 * 1024, 64, publisher)
+                .withDeadLetterSpool(deadLetterSpool)
+                .start();
+        } catch (Exception e) {
+            System.err.println("Cannot open the EventGrid outbox, publishing inline: " + e);
+            return null;
         }
     }
 }
@@ -8,52 +8,49 @@ package com.microsoft.azure.eventgrid.samples;
 import com.microsoft.azure.serverless.functions.ExecutionContext;
 import com.microsoft.azure.serverless.functions.annotation.FunctionName;
 import com.microsoft.azure.serverless.functions.annotation.TimerTrigger;
-import com.microsoft.azure.storage.CloudStorageAccount;
-import com.microsoft.azure.storage.OperationContext;
-import com.microsoft.azure.storage.blob.BlobContainerPublicAccessType;
-import com.microsoft.azure.storage.blob.BlobRequestOptions;
-import com.microsoft.azure.storage.blob.CloudBlobClient;
-import com.microsoft.azure.storage.blob.CloudBlobContainer;
-import com.microsoft.azure.storage.blob.CloudBlockBlob;
 
-import java.util.UUID;
+import java.util.List;
 
 /**
  * Azure Functions with Time Trigger.
  *  - Create and delete storage blobs which will be captured as EventGrid events
  */
 public class EventGridTimeTriggeredStoragePublisher {
+    /**
+     * The number of blobs created per invocation, set through EVENTGRID_STORAGE_BLOBS_PER_INVOCATION.
+     */
+    private static final int BLOBS_PER_INVOCATION = FunctionBootstrap.intSetting("EVENTGRID_STORAGE_BLOBS_PER_INVOCATION", 10);
+
     @FunctionName("EventGrid-TimeTriggered-Storage-Publisher")
     public void EventGridWithStoragePublisher(@TimerTrigger(name = "timerInfo", schedule = "*/20 * * * * *")
                          String timerInfo,
                      final ExecutionContext executionContext) {
 
+        long invocationStartNanos = System.nanoTime();
+        FunctionBootstrap.startWarmUp();
         try {
-            // Parse the connection string and create a blob client to interact with Blob storage
-            CloudStorageAccount storageAccount = CloudStorageAccount.parse(System.getenv("EVENTGRID_STORAGE_CONNECTION_STRING"));
-            CloudBlobClient blobClient = storageAccount.createCloudBlobClient();
-            CloudBlobContainer container = blobClient.getContainerReference(System.getenv("EVENTGRID_STORAGE_CONTAINER_NAME"));
-
-
-            // Create the container if it does not exist with public access.
-            container.createIfNotExists(BlobContainerPublicAccessType.CONTAINER, new BlobRequestOptions(), new OperationContext());
-
-            // Getting a blob reference
-            String blobName = "eg_" + UUID.randomUUID().toString().replaceAll("-", "") + ".txt";
-            CloudBlockBlob blob = container.getBlockBlobReference(blobName);
-
-            // Creating blob and uploading file to it
-            executionContext.getLogger().info("Uploading the sample text ");
-            blob.uploadText(blobName + " content\n");
+            // Get the shared generator; the storage client and container are only resolved on first use.
+            StorageBlobEventGenerator generator = StorageBlobEventGenerator.fromEnvironment();
 
-            // Sleep 10 seconds then delete the blob
-            Thread.sleep(10000);
-
-            // Delete the blob
-            blob.delete();
+            // Upload the blobs in parallel; each one is deleted 10 seconds later without holding this invocation.
+            executionContext.getLogger().info(String.format("Uploading %d sample blobs", BLOBS_PER_INVOCATION));
+            List<String> blobNames = generator.createBlobs(BLOBS_PER_INVOCATION, 10000).get();
 
+            executionContext.getLogger().info(String.format("Uploaded %d blobs, %d blobs created and %d deleted so far",
+                blobNames.size(), generator.blobsCreated(), generator.blobsDeleted()));
         } catch (Exception e) {
             executionContext.getLogger().info("UNEXPECTED Exception caught: " + e.toString());
         }
+        FunctionBootstrap.recordInvocation("EventGrid-TimeTriggered-Storage-Publisher", invocationStartNanos);
+    }
+
+    /**
+     * Resolves the storage container and opens a connection to the account, when storage is configured.
+     * @throws Exception if the container cannot be created
+     */
+    static void warmUp() throws Exception {
+        if (FunctionBootstrap.storageConnectionString != null && FunctionBootstrap.storageContainerName != null) {
+            StorageBlobEventGenerator.fromEnvironment().warmUp();
+        }
     }
 }
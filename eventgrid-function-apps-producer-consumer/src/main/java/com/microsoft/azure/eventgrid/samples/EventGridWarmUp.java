@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import com.microsoft.azure.serverless.functions.ExecutionContext;
+import com.microsoft.azure.serverless.functions.annotation.FunctionName;
+import com.microsoft.azure.serverless.functions.annotation.TimerTrigger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Azure Functions with Time Trigger.
+ *  - {@link #warmUp()} primes the decode and publish paths with synthetic events and opens the topic and storage
+ *    connections, once per process; the publishing functions start it in the background on their first invocation,
+ *    see {@link FunctionBootstrap#startWarmUp()}.
+ *  - The timer only keeps an otherwise idle app loaded; nothing is published and no handler runs. Timers fire
+ *    on a single instance of the app, so it is disabled by default: turn it on by setting
+ *    AzureWebJobs.EventGrid-WarmUp.Disabled to false.
+ */
+public class EventGridWarmUp {
+    private static boolean warmedUp;
+
+    @FunctionName("EventGrid-WarmUp")
+    public void EventGridWarmUpRun(@TimerTrigger(name = "timerInfo", schedule = "0 */5 * * * *") String timerInfo,
+                                   final ExecutionContext executionContext) {
+        try {
+            long warmUpMillis = warmUp();
+            if (warmUpMillis >= 0) {
+                executionContext.getLogger().info(String.format("Warmed up in %d ms", warmUpMillis));
+            }
+        } catch (Exception e) {
+            executionContext.getLogger().info("UNEXPECTED Exception caught: " + e.toString());
+        }
+    }
+
+    /**
+     * Primes all functions of the app, unless it was already done in this process.
+     * @return the warm-up duration in milliseconds, or -1 when the process was already warm
+     * @throws Exception if a function cannot be primed
+     */
+    static synchronized long warmUp() throws Exception {
+        if (warmedUp) {
+            return -1;
+        }
+        long startNanos = System.nanoTime();
+        EventGridConsumer.warmUp();
+        EventGridTimeTriggeredCustomPublisher.warmUp();
+        EventGridTimeTriggeredStoragePublisher.warmUp();
+        warmedUp = true;
+
+        long warmUpMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        FunctionBootstrap.warmUpMillis.record(warmUpMillis);
+        return warmUpMillis;
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable table routing decoded events to typed handlers.
+ *  - Handlers are registered for an exact event type or an event type prefix, together with the data class to bind.
+ *  - Event types are matched case-insensitively through a hash table built once, without lowercasing strings per event.
+ *  - Exact registrations win over prefixes, and longer prefixes win over shorter ones.
+ *  - Events without a matching registration go to the fallback handler.
+ * @param <C> the context passed along to the handlers, for example the function ExecutionContext
+ */
+public final class EventHandlerRegistry<C> {
+    /**
+     * Handles the events of one registration.
+     * @param <T> the data class of the registration
+     * @param <C> the handler context
+     */
+    public interface EventHandler<T, C> {
+        void handle(T data, DecodedEvent event, C context) throws Exception;
+    }
+
+    /**
+     * A handler together with the event type it was registered for and the data class it binds.
+     */
+    static final class Registration<C> {
+        final String eventType;
+        final boolean prefix;
+        final Class<?> dataClass;
+        final EventHandler<Object, C> handler;
+
+        @SuppressWarnings("unchecked")
+        <T> Registration(String eventType, boolean prefix, Class<T> dataClass, EventHandler<? super T, C> handler) {
+            this.eventType = eventType;
+            this.prefix = prefix;
+            this.dataClass = dataClass;
+            this.handler = (EventHandler<Object, C>) handler;
+        }
+    }
+
+    private final Registration<C>[] table;
+    private final int mask;
+    private final Registration<C>[] prefixes;
+    private final EventHandler<Object, C> fallback;
+
+    private EventHandlerRegistry(List<Registration<C>> exact, List<Registration<C>> prefixList, EventHandler<Object, C> fallback) {
+        int capacity = Integer.highestOneBit(Math.max(2, exact.size() * 2) - 1) << 1;
+        this.table = newArray(capacity);
+        this.mask = capacity - 1;
+        for (Registration<C> registration : exact) {
+            int slot = hashIgnoreCase(registration.eventType) & mask;
+            while (table[slot] != null) {
+                if (table[slot].eventType.equalsIgnoreCase(registration.eventType)) {
+                    throw new IllegalArgumentException("Duplicate handler for event type " + registration.eventType);
+                }
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = registration;
+        }
+
+        prefixList.sort(Comparator.comparingInt((Registration<C> registration) -> registration.eventType.length()).reversed());
+        this.prefixes = prefixList.toArray(newArray(prefixList.size()));
+        this.fallback = fallback;
+    }
+
+    /**
+     * @param <C> the handler context
+     * @return a builder for a new registry
+     */
+    public static <C> Builder<C> builder() {
+        return new Builder<>();
+    }
+
+    /**
+     * Resolves the data class to bind for an event type; meant to be passed to the {@link EventGridEventDecoder}.
+     * @param eventType the event type
+     * @return the data class, or null when no handler is registered for the event type
+     */
+    public Class<?> dataClassFor(String eventType) {
+        Registration<C> registration = lookup(eventType);
+        return registration != null ? registration.dataClass : null;
+    }
+
+    /**
+     * @return the registered event types, then the registered event type prefixes, with their data classes
+     */
+    public Map<String, Class<?>> dataClasses() {
+        Map<String, Class<?>> dataClasses = new LinkedHashMap<>();
+        for (Registration<C> registration : table) {
+            if (registration != null) {
+                dataClasses.put(registration.eventType, registration.dataClass);
+            }
+        }
+        for (Registration<C> registration : prefixes) {
+            dataClasses.put(registration.eventType, registration.dataClass);
+        }
+        return dataClasses;
+    }
+
+    /**
+     * Routes an event to its handler, or to the fallback handler when none matches.
+     * @param event the decoded event
+     * @param context the handler context
+     * @throws Exception when the handler fails
+     */
+    public void dispatch(DecodedEvent event, C context) throws Exception {
+        Registration<C> registration = lookup(event.eventType());
+        if (registration != null && registration.dataClass.isInstance(event.data())) {
+            registration.handler.handle(event.data(), event, context);
+        } else {
+            fallback.handle(event.data(), event, context);
+        }
+    }
+
+    Registration<C> lookup(String eventType) {
+        if (eventType == null) {
+            return null;
+        }
+        int slot = hashIgnoreCase(eventType) & mask;
+        Registration<C> candidate;
+        while ((candidate = table[slot]) != null) {
+            if (candidate.eventType.equalsIgnoreCase(eventType)) {
+                return candidate;
+            }
+            slot = (slot + 1) & mask;
+        }
+        for (Registration<C> prefix : prefixes) {
+            if (eventType.regionMatches(true, 0, prefix.eventType, 0, prefix.eventType.length())) {
+                return prefix;
+            }
+        }
+        return null;
+    }
+
+    private static int hashIgnoreCase(String value) {
+        int hash = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            } else if (c >= 0x80) {
+                c = Character.toLowerCase(Character.toUpperCase(c));
+            }
+            hash = 31 * hash + c;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <C> Registration<C>[] newArray(int size) {
+        return (Registration<C>[]) new Registration[size];
+    }
+
+    /**
+     * Collects the handler registrations of a registry.
+     * @param <C> the handler context
+     */
+    public static final class Builder<C> {
+        private final List<Registration<C>> exact = new ArrayList<>();
+        private final List<Registration<C>> prefixes = new ArrayList<>();
+        private EventHandler<Object, C> fallback = (data, event, context) -> {
+            throw new IllegalStateException("No handler registered for event type " + event.eventType());
+        };
+
+        private Builder() {
+        }
+
+        /**
+         * Registers a handler for an exact event type, matched case-insensitively.
+         * @param eventType the event type, for example "Microsoft.Storage.BlobCreated"
+         * @param dataClass the class the event data is bound to
+         * @param handler the handler
+         * @return this builder
+         */
+        public <T> Builder<C> on(String eventType, Class<T> dataClass, EventHandler<? super T, C> handler) {
+            exact.add(new Registration<>(eventType, false, dataClass, handler));
+            return this;
+        }
+
+        /**
+         * Registers a handler for all event types starting with a prefix, matched case-insensitively.
+         * @param eventTypePrefix the event type prefix, for example "Microsoft.Storage."
+         * @param dataClass the class the event data is bound to
+         * @param handler the handler
+         * @return this builder
+         */
+        public <T> Builder<C> onPrefix(String eventTypePrefix, Class<T> dataClass, EventHandler<? super T, C> handler) {
+            prefixes.add(new Registration<>(eventTypePrefix, true, dataClass, handler));
+            return this;
+        }
+
+        /**
+         * Sets the handler for events without a matching registration; by default such events fail the dispatch.
+         * @param fallback the fallback handler, receiving the unbound data
+         * @return this builder
+         */
+        public Builder<C> fallback(EventHandler<Object, C> fallback) {
+            this.fallback = fallback;
+            return this;
+        }
+
+        /**
+         * @return the registry with its precomputed lookup table
+         */
+        public EventHandlerRegistry<C> build() {
+            return new EventHandlerRegistry<>(new ArrayList<>(exact), new ArrayList<>(prefixes), fallback);
+        }
+    }
+}
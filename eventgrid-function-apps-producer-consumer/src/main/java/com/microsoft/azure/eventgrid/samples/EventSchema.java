@@ -0,0 +1,45 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+/**
+ * Input schema of a topic, and for CloudEvents the HTTP content mode used to publish to it.
+ */
+public enum EventSchema {
+    /**
+     * EventGrid schema, published through the EventGridClient.
+     */
+    EVENT_GRID,
+
+    /**
+     * CloudEvents 1.0 structured content mode: a JSON array of events carrying both attributes and data.
+     */
+    CLOUD_EVENTS_STRUCTURED,
+
+    /**
+     * CloudEvents 1.0 binary content mode: one event per request, attributes in "ce-" headers and the data,
+     * unchanged, as the request body.
+     */
+    CLOUD_EVENTS_BINARY;
+
+    /**
+     * Parses a topic schema setting: "EventGrid" (the default), "CloudEvents" or "CloudEvents-Binary".
+     * @param value the setting value, may be null
+     * @return the schema
+     */
+    public static EventSchema parse(String value) {
+        if (value == null || value.trim().isEmpty() || value.trim().equalsIgnoreCase("EventGrid")) {
+            return EVENT_GRID;
+        }
+        if (value.trim().equalsIgnoreCase("CloudEvents")) {
+            return CLOUD_EVENTS_STRUCTURED;
+        }
+        if (value.trim().equalsIgnoreCase("CloudEvents-Binary")) {
+            return CLOUD_EVENTS_BINARY;
+        }
+        throw new IllegalArgumentException("Unknown topic schema " + value);
+    }
+}
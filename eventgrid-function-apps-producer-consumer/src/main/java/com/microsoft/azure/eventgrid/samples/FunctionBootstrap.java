@@ -0,0 +1,241 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.microsoft.azure.eventgrid.EventGridClient;
+import com.microsoft.rest.ServiceClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Process-wide state shared by all functions, built once when the first function class is loaded.
+ *  - Settings are resolved once instead of on every invocation. An invalid setting is logged and replaced by its
+ *    default, so that it does not fail the loading of every function class.
+ *  - One Gson instance and one {@link ClaimCheckCodec} are shared, and the type adapters of the registered
+ *    event data classes are built ahead of the first event.
+ *  - Every instance warms up in the background from the first invocation of a publishing function, unless
+ *    EVENTGRID_WARM_UP is "false": the decode and serialization paths run once and the connections are opened
+ *    ahead of the later traffic, see {@link #startWarmUp()}. Loading this class opens no connection.
+ *  - The duration of the first invocation of every function is recorded apart from the later ones, so cold
+ *    starts show up in {@link EventGridMetrics}.
+ */
+public final class FunctionBootstrap {
+    public static final String topicEndpoint = setting("EVENTGRID_TOPIC_ENDPOINT");
+    public static final String topicKey = setting("EVENTGRID_TOPIC_KEY");
+    public static final String storageConnectionString = setting("EVENTGRID_STORAGE_CONNECTION_STRING");
+    public static final String storageContainerName = setting("EVENTGRID_STORAGE_CONTAINER_NAME");
+    public static final String outboxDirectory = setting("EVENTGRID_OUTBOX_DIR");
+
+    /**
+     * Input schema of the topic, set through EVENTGRID_TOPIC_SCHEMA: "EventGrid" (the default), "CloudEvents" or "CloudEvents-Binary".
+     */
+    public static final EventSchema topicSchema = schemaSetting("EVENTGRID_TOPIC_SCHEMA");
+
+    public static final Gson gson = new GsonBuilder().create();
+
+    /**
+     * Offloads large event data to blob storage and compresses medium sized data, see {@link ClaimCheckCodec#fromEnvironment};
+     * null when neither is configured.
+     */
+    public static final ClaimCheckCodec claimCheckCodec = createClaimCheckCodec();
+
+    /**
+     * Duration of the first invocation of each function in the process, of the later invocations, and of warm-ups.
+     */
+    static final LatencyHistogram firstInvocationMicros = EventGridMetrics.histogram("function_first_invocation_micros");
+    static final LatencyHistogram invocationMicros = EventGridMetrics.histogram("function_invocation_micros");
+    static final LatencyHistogram warmUpMillis = EventGridMetrics.histogram("function_warm_up_millis");
+
+    private static final Set<String> invokedFunctions = ConcurrentHashMap.newKeySet();
+
+    private static final AtomicBoolean warmUpStarted = new AtomicBoolean();
+
+    private FunctionBootstrap() {
+    }
+
+    /**
+     * Runs {@link EventGridWarmUp#warmUp()} in a background thread, once per process and unless EVENTGRID_WARM_UP
+     * is "false"; the publishing functions call it on every invocation, the later calls do nothing.
+     */
+    public static void startWarmUp() {
+        if ("false".equalsIgnoreCase(setting("EVENTGRID_WARM_UP")) || !warmUpStarted.compareAndSet(false, true)) {
+            return;
+        }
+        Thread warmUp = new Thread(() -> {
+            try {
+                long millis = EventGridWarmUp.warmUp();
+                if (millis >= 0) {
+                    System.out.println(String.format("Warmed up in %d ms", millis));
+                }
+            } catch (Exception e) {
+                System.out.println("UNEXPECTED Exception caught: " + e.toString());
+            }
+        }, "eventgrid-warm-up");
+        warmUp.setDaemon(true);
+        warmUp.start();
+    }
+
+    /**
+     * Builds the Gson type adapters of event data classes; Gson keeps them, so the first event of each type
+     * does not pay for the reflection.
+     * @param dataClasses the data classes
+     */
+    public static void registerDataClasses(Collection<? extends Class<?>> dataClasses) {
+        for (Class<?> dataClass : dataClasses) {
+            gson.getAdapter(dataClass);
+        }
+    }
+
+    /**
+     * Runs a decoder once over synthetic EventGrid and CloudEvents payloads of the given event types, which loads
+     * the classes of the decode path; the decoded events are discarded, so no handler runs.
+     * @param decoder the decoder to prime
+     * @param eventTypes the event types to decode
+     * @throws IOException if a synthetic payload cannot be decoded
+     */
+    public static void primeDecoder(EventGridEventDecoder decoder, Collection<String> eventTypes) throws IOException {
+        for (String eventType : eventTypes) {
+            String quotedType = gson.toJson(eventType);
+            String eventGridPayload = "[{\"id\":\"warm-up\",\"subject\":\"warm-up\",\"eventType\":" + quotedType
+                + ",\"eventTime\":\"2018-01-01T00:00:00Z\",\"data\":{},\"dataVersion\":\"1.0\"}]";
+            String cloudEventsPayload = "[{\"specversion\":\"1.0\",\"id\":\"warm-up\",\"source\":\"/warm-up\",\"type\":" + quotedType
+                + ",\"time\":\"2018-01-01T00:00:00Z\",\"data\":{}}]";
+            decoder.decode(eventGridPayload, event -> { });
+            decoder.decode(cloudEventsPayload, event -> { });
+        }
+    }
+
+    /**
+     * Sends a request to a topic through the HTTP client of an EventGrid client and discards the response, which
+     * resolves its address and leaves a kept-alive connection in the connection pool of that client.
+     * @param client the EventGrid client, see {@link EventGridClientCache}
+     * @param topicHostname the topic hostname, for example "https://mytopic.westus-1.eventgrid.azure.net/"
+     */
+    public static void primeConnection(EventGridClient client, String topicHostname) {
+        if (!(client instanceof ServiceClient)) {
+            return;
+        }
+        Request request = new Request.Builder().url(topicHostname).head().build();
+        try (Response ignored = ((ServiceClient) client).httpClient().newCall(request).execute()) {
+            // Any status will do, the connection is pooled either way
+        } catch (Exception e) {
+            System.err.println("Cannot prime the connection to " + topicHostname + ": " + e);
+        }
+    }
+
+    /**
+     * Sends a request to the host of an endpoint and discards the response, which resolves its address, loads
+     * the TLS stack and leaves a kept-alive connection for the HttpURLConnection based clients, such as the
+     * {@link CloudEventsPublisher}.
+     * @param endpoint the endpoint, for example a topic endpoint
+     */
+    public static void primeConnection(String endpoint) {
+        if (endpoint == null || endpoint.isEmpty()) {
+            return;
+        }
+        HttpURLConnection connection = null;
+        try {
+            URI uri = URI.create(endpoint);
+            connection = (HttpURLConnection) new URL(uri.getScheme() + "://" + uri.getAuthority() + "/").openConnection();
+            connection.setRequestMethod("HEAD");
+            connection.setConnectTimeout(5000);
+            connection.setReadTimeout(5000);
+            int status = connection.getResponseCode();
+            InputStream response = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            if (response != null) {
+                response.close();
+            }
+        } catch (Exception e) {
+            System.err.println("Cannot prime the connection to " + endpoint + ": " + e);
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Records the duration of a function invocation; the first invocation of each function in the process is
+     * recorded separately and logged together with the process uptime.
+     * @param functionName the function name
+     * @param startNanos the System.nanoTime() at the start of the invocation
+     */
+    public static void recordInvocation(String functionName, long startNanos) {
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        if (invokedFunctions.add(functionName)) {
+            firstInvocationMicros.record(micros);
+            System.out.println(String.format("First invocation of %s took %d us, %d ms after the process started",
+                functionName, micros, ManagementFactory.getRuntimeMXBean().getUptime()));
+        } else {
+            invocationMicros.record(micros);
+        }
+    }
+
+    /**
+     * Reads a string setting; an empty setting is not present.
+     * @param name the setting name
+     * @return the setting value, or null when the setting is not present
+     */
+    public static String setting(String name) {
+        String value = System.getenv(name);
+        return value != null && !value.trim().isEmpty() ? value.trim() : null;
+    }
+
+    /**
+     * Reads an integer setting.
+     * @param name the setting name
+     * @param defaultValue the value used when the setting is not present or is not an integer
+     * @return the setting value
+     */
+    public static int intSetting(String name, int defaultValue) {
+        String value = setting(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.err.println(String.format("Setting %s is not an integer: \"%s\", using %d", name, value, defaultValue));
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Reads a topic schema setting, see {@link EventSchema#parse(String)}.
+     * @param name the setting name
+     * @return the setting value, or {@link EventSchema#EVENT_GRID} when the setting is not present or unknown
+     */
+    static EventSchema schemaSetting(String name) {
+        String value = setting(name);
+        try {
+            return EventSchema.parse(value);
+        } catch (IllegalArgumentException e) {
+            System.err.println(String.format("Setting %s is not a topic schema: \"%s\", using EventGrid", name, value));
+            return EventSchema.EVENT_GRID;
+        }
+    }
+
+    private static ClaimCheckCodec createClaimCheckCodec() {
+        try {
+            return ClaimCheckCodec.fromEnvironment(gson);
+        } catch (RuntimeException e) {
+            System.err.println("Cannot configure the claim check codec, offloading and compression are off: " + e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,336 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import com.microsoft.azure.eventgrid.models.EventGridEvent;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * Publisher spreading events over several topics, possibly in different regions, to scale past the ingress
+ * limits of a single topic.
+ *  - Events are routed by consistent hashing on their subject, so all events of a subject go to the same topic
+ *    and adding or removing a topic only moves the subjects of that topic.
+ *  - The events of each topic are split into requests within the {@link EventGridBatchPublisher} default limits.
+ *  - The latency and error rate of every request attempt, without the retry backoff, are tracked as moving
+ *    averages per topic; requests the topic rejects, such as 400 or 413, say nothing about its health and are not
+ *    counted. A topic whose error rate or
+ *    latency degrades is skipped for a cool-down period, and its subjects go to the next topic on the ring.
+ *  - A request that still fails with a retryable error after the retries of its topic, see
+ *    {@link AsyncEventGridPublisher#isRetryable(Throwable)}, is sent once more to the next available topic; a
+ *    rejected request would be rejected by every topic and goes to the dead letter spool at once.
+ */
+public class ShardedEventGridPublisher implements AutoCloseable {
+    private static final int VIRTUAL_NODES_PER_TOPIC = 128;
+    private static final double EWMA_WEIGHT = 0.2;
+
+    private final Topic[] topics;
+    private final long[] ringHashes;
+    private final int[] ringTopics;
+
+    private double maxErrorRate = 0.5;
+    private double latencyDegradationFactor = 3.0;
+    private long coolDownMillis = 30000;
+    private DeadLetterSpool deadLetterSpool;
+
+    /**
+     * A topic with its publisher and health statistics.
+     */
+    static final class Topic {
+        final String endpoint;
+        final AsyncEventGridPublisher publisher;
+        double errorRate;
+        double latencyMillis;
+        long excludedUntilMillis;
+        long requestsSucceeded;
+        long requestsFailed;
+
+        Topic(String endpoint, AsyncEventGridPublisher publisher) {
+            this.endpoint = endpoint;
+            this.publisher = publisher;
+        }
+
+        synchronized void record(boolean success, double latencyMillis) {
+            if (success) {
+                requestsSucceeded++;
+            } else {
+                requestsFailed++;
+            }
+            errorRate = errorRate * (1 - EWMA_WEIGHT) + (success ? 0 : EWMA_WEIGHT);
+            this.latencyMillis = requestsSucceeded + requestsFailed == 1
+                ? latencyMillis
+                : this.latencyMillis * (1 - EWMA_WEIGHT) + latencyMillis * EWMA_WEIGHT;
+        }
+
+        synchronized double latencyMillis() {
+            return latencyMillis;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%s: %d succeeded, %d failed, error rate %.2f, latency %.1f ms%s",
+                endpoint, requestsSucceeded, requestsFailed, errorRate, latencyMillis,
+                excludedUntilMillis > System.currentTimeMillis() ? ", excluded" : "");
+        }
+    }
+
+    /**
+     * @param topicEndpoints the topic endpoints, for example "https://mytopic.westus-1.eventgrid.azure.net/api/events"
+     * @param topicKeys the access keys of the topics, in the same order
+     * @param maxInFlightRequestsPerTopic the maximum number of requests sent at the same time to each topic
+     */
+    public ShardedEventGridPublisher(List<String> topicEndpoints, List<String> topicKeys, int maxInFlightRequestsPerTopic) {
+        this(topicEndpoints, topicKeys, (endpoint, key) -> new AsyncEventGridPublisher(
+            EventGridClientCache.getClient(endpoint, key),
+            EventGridClientCache.getTopicHostname(endpoint),
+            maxInFlightRequestsPerTopic));
+    }
+
+    /**
+     * @param topicEndpoints the topic endpoints, for example "https://mytopic.westus-1.eventgrid.azure.net/api/events"
+     * @param topicKeys the access keys of the topics, in the same order
+     * @param topicPublishers creates the publisher of a topic from its endpoint and key, for example one sending CloudEvents
+     */
+    public ShardedEventGridPublisher(List<String> topicEndpoints, List<String> topicKeys,
+                                     BiFunction<String, String, AsyncEventGridPublisher> topicPublishers) {
+        if (topicEndpoints.isEmpty() || topicEndpoints.size() != topicKeys.size()) {
+            throw new IllegalArgumentException("One key is required for each of the topic endpoints");
+        }
+        this.topics = new Topic[topicEndpoints.size()];
+        for (int i = 0; i < topics.length; i++) {
+            String endpoint = topicEndpoints.get(i);
+            final Topic topic = new Topic(endpoint, topicPublishers.apply(endpoint, topicKeys.get(i)));
+            topic.publisher.withAttemptListener((error, latencyMicros) -> {
+                if (error != null && !AsyncEventGridPublisher.isRetryable(error)) {
+                    return;
+                }
+                topic.record(error == null, latencyMicros / 1000.0);
+                updateExclusion(topic);
+            });
+            topics[i] = topic;
+        }
+
+        // Each topic owns many points on the ring so that the subjects spread evenly
+        long[][] points = new long[topics.length * VIRTUAL_NODES_PER_TOPIC][];
+        for (int topic = 0; topic < topics.length; topic++) {
+            for (int node = 0; node < VIRTUAL_NODES_PER_TOPIC; node++) {
+                points[topic * VIRTUAL_NODES_PER_TOPIC + node] = new long[] {EventDeduplicator.hash(topicEndpoints.get(topic) + "#" + node), topic};
+            }
+        }
+        Arrays.sort(points, (a, b) -> Long.compare(a[0], b[0]));
+        this.ringHashes = new long[points.length];
+        this.ringTopics = new int[points.length];
+        for (int i = 0; i < points.length; i++) {
+            ringHashes[i] = points[i][0];
+            ringTopics[i] = (int) points[i][1];
+        }
+    }
+
+    /**
+     * Creates the publisher for the topics configured through the EVENTGRID_TOPIC_ENDPOINTS and EVENTGRID_TOPIC_KEYS
+     * settings, both comma separated.
+     * @param topicPublishers creates the publisher of a topic from its endpoint and key
+     * @return the publisher, or null when the settings are not present
+     */
+    public static ShardedEventGridPublisher fromEnvironment(BiFunction<String, String, AsyncEventGridPublisher> topicPublishers) {
+        String endpoints = FunctionBootstrap.setting("EVENTGRID_TOPIC_ENDPOINTS");
+        String keys = FunctionBootstrap.setting("EVENTGRID_TOPIC_KEYS");
+        if (endpoints == null || keys == null) {
+            return null;
+        }
+        return new ShardedEventGridPublisher(split(endpoints), split(keys), topicPublishers);
+    }
+
+    /**
+     * Applies a configuration to the publishers of all topics, for example a shared retry budget.
+     * @param configuration the configuration to apply
+     * @return this publisher
+     */
+    public ShardedEventGridPublisher withTopicPublishers(Consumer<AsyncEventGridPublisher> configuration) {
+        for (Topic topic : topics) {
+            configuration.accept(topic.publisher);
+        }
+        return this;
+    }
+
+    /**
+     * @param deadLetterSpool the spool receiving the events which could not be published to any topic; the topic
+     *                        publishers should not have a spool of their own, since their failures are failed over
+     * @return this publisher
+     */
+    public ShardedEventGridPublisher withDeadLetterSpool(DeadLetterSpool deadLetterSpool) {
+        this.deadLetterSpool = deadLetterSpool;
+        return this;
+    }
+
+    /**
+     * @param maxErrorRate the error rate, between 0 and 1, above which a topic is excluded
+     * @param latencyDegradationFactor how many times slower than the fastest available topic a topic may get before it is excluded
+     * @param coolDownMillis how long a degraded topic is excluded
+     * @return this publisher
+     */
+    public ShardedEventGridPublisher withHealthPolicy(double maxErrorRate, double latencyDegradationFactor, long coolDownMillis) {
+        this.maxErrorRate = maxErrorRate;
+        this.latencyDegradationFactor = latencyDegradationFactor;
+        this.coolDownMillis = coolDownMillis;
+        return this;
+    }
+
+    /**
+     * Publishes events, in as few requests per topic they are routed to as the request limits allow.
+     * @param events the events to publish
+     * @return a future completed when all events are published, or failed when some could not be published
+     */
+    public CompletableFuture<Void> publishAsync(List<EventGridEvent> events) {
+        long now = System.currentTimeMillis();
+        Map<Integer, List<EventGridEvent>> byTopic = new LinkedHashMap<>();
+        for (EventGridEvent event : events) {
+            byTopic.computeIfAbsent(route(event.subject(), -1, now), topic -> new ArrayList<>()).add(event);
+        }
+
+        List<CompletableFuture<Void>> requests = new ArrayList<>(byTopic.size());
+        for (Map.Entry<Integer, List<EventGridEvent>> entry : byTopic.entrySet()) {
+            List<List<EventGridEvent>> batches;
+            try {
+                batches = EventGridBatchPublisher.split(entry.getValue(),
+                    EventGridBatchPublisher.DEFAULT_MAX_BATCH_EVENTS, EventGridBatchPublisher.DEFAULT_MAX_BATCH_BYTES);
+            } catch (IOException | RuntimeException e) {
+                CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                requests.add(failed.whenComplete((ignored, error) -> spool(entry.getValue(), error)));
+                continue;
+            }
+            for (List<EventGridEvent> batch : batches) {
+                requests.add(sendWithFailover(entry.getKey(), batch));
+            }
+        }
+        return CompletableFuture.allOf(requests.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Sends a request to a topic; when it still fails with a retryable error after the retries of the topic, it is
+     * sent once more to the next available topic, and then to the dead letter spool.
+     */
+    private CompletableFuture<Void> sendWithFailover(final int topic, final List<EventGridEvent> topicEvents) {
+        return topics[topic].publisher.publishAsync(topicEvents).handle((ignored, error) -> {
+            if (error == null) {
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+            // Fail over to the next available topic on the ring, with the events the first one did not accept
+            List<EventGridEvent> failedEvents = PartialPublishException.failedEvents(error, topicEvents);
+            int failover = AsyncEventGridPublisher.isRetryable(error)
+                ? route(topicEvents.get(0).subject(), topic, System.currentTimeMillis())
+                : topic;
+            if (failover == topic) {
+                spool(topicEvents, error);
+                CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(error);
+                return failed;
+            }
+            return topics[failover].publisher.publishAsync(failedEvents)
+                .whenComplete((result, failoverError) -> spool(failedEvents, failoverError));
+        }).thenCompose(result -> result);
+    }
+
+    private void spool(List<EventGridEvent> events, Throwable error) {
+        if (error != null && deadLetterSpool != null) {
+            try {
+                deadLetterSpool.write(PartialPublishException.failedEvents(error, events), error);
+            } catch (IOException e) {
+                error.addSuppressed(e);
+            }
+        }
+    }
+
+    /**
+     * @return the health statistics of every topic, one line per topic
+     */
+    public String healthReport() {
+        StringBuilder report = new StringBuilder();
+        for (Topic topic : topics) {
+            report.append(topic).append('\n');
+        }
+        return report.toString();
+    }
+
+    @Override
+    public void close() {
+        for (Topic topic : topics) {
+            topic.publisher.close();
+        }
+    }
+
+    /**
+     * Finds the topic of a subject: the owner of the first ring point at or after the subject hash which is
+     * available and not the excluded topic. When no topic is available, availability is ignored.
+     */
+    int route(String subject, int excludedTopic, long nowMillis) {
+        long hash = EventDeduplicator.hash(subject != null ? subject : "");
+        int start = Arrays.binarySearch(ringHashes, hash);
+        if (start < 0) {
+            start = -start - 1;
+        }
+        int fallback = -1;
+        for (int i = 0; i < ringTopics.length; i++) {
+            int topic = ringTopics[(start + i) % ringTopics.length];
+            if (topic != excludedTopic) {
+                if (isAvailable(topics[topic], nowMillis)) {
+                    return topic;
+                }
+                if (fallback < 0) {
+                    fallback = topic;
+                }
+            }
+        }
+        return fallback >= 0 ? fallback : ringTopics[start % ringTopics.length];
+    }
+
+    private static boolean isAvailable(Topic topic, long nowMillis) {
+        synchronized (topic) {
+            return topic.excludedUntilMillis <= nowMillis;
+        }
+    }
+
+    private void updateExclusion(Topic topic) {
+        double fastest = Double.MAX_VALUE;
+        long now = System.currentTimeMillis();
+        for (Topic other : topics) {
+            if (other != topic && isAvailable(other, now)) {
+                fastest = Math.min(fastest, other.latencyMillis());
+            }
+        }
+        synchronized (topic) {
+            boolean failing = topic.errorRate > maxErrorRate;
+            boolean slow = fastest != Double.MAX_VALUE && fastest > 0 && topic.latencyMillis > fastest * latencyDegradationFactor;
+            if ((failing || slow) && topic.excludedUntilMillis <= now) {
+                topic.excludedUntilMillis = now + coolDownMillis;
+                // Give the topic a fresh start once the cool-down is over
+                topic.errorRate = maxErrorRate / 2;
+                topic.latencyMillis = fastest != Double.MAX_VALUE ? fastest : topic.latencyMillis;
+                System.err.println("EventGrid topic excluded for " + coolDownMillis + " ms: " + topic.endpoint
+                    + (failing ? " (errors)" : " (latency)"));
+            }
+        }
+    }
+
+    private static List<String> split(String value) {
+        List<String> parts = new ArrayList<>();
+        for (String part : value.split(",")) {
+            if (!part.trim().isEmpty()) {
+                parts.add(part.trim());
+            }
+        }
+        return parts;
+    }
+}
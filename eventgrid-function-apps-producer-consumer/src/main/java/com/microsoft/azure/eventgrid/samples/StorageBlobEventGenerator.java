@@ -0,0 +1,227 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import com.microsoft.azure.storage.CloudStorageAccount;
+import com.microsoft.azure.storage.OperationContext;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.BlobContainerPublicAccessType;
+import com.microsoft.azure.storage.blob.BlobRequestOptions;
+import com.microsoft.azure.storage.blob.CloudBlob;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+import com.microsoft.azure.storage.blob.ListBlobItem;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates Microsoft.Storage.BlobCreated and BlobDeleted events by creating and later deleting temporary blobs.
+ *  - One generator is kept per storage account and container, so the connection string is parsed and the
+ *    container reference resolved only once per process.
+ *  - The container is created on first use only; later calls remember that it exists until an upload gets a 404.
+ *  - Blobs are uploaded in parallel, and their deletion is scheduled on a timer instead of holding the caller.
+ *  - Scheduled deletions are lost when the instance is recycled, so each generator also sweeps the container
+ *    for temporary blobs older than {@link #STALE_BLOB_MILLIS} when it starts and then every hour.
+ */
+public final class StorageBlobEventGenerator {
+    private static final ConcurrentMap<String, StorageBlobEventGenerator> generators = new ConcurrentHashMap<>();
+    private static final int UPLOAD_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    private static final String BLOB_PREFIX = "eg_";
+
+    /**
+     * Age above which a temporary blob is considered leaked by an earlier process and deleted by the sweep.
+     */
+    static final long STALE_BLOB_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final CloudBlobContainer container;
+    private final ExecutorService uploadPool;
+    private final ScheduledExecutorService deleteTimer;
+    private volatile boolean containerExists;
+
+    private final AtomicLong blobsCreated = new AtomicLong();
+    private final AtomicLong blobsDeleted = new AtomicLong();
+    private final AtomicLong blobsFailed = new AtomicLong();
+
+    private StorageBlobEventGenerator(CloudBlobContainer container) {
+        this.container = container;
+        this.uploadPool = Executors.newFixedThreadPool(UPLOAD_THREADS, daemonThreads("eventgrid-blob-upload"));
+        this.deleteTimer = Executors.newSingleThreadScheduledExecutor(daemonThreads("eventgrid-blob-delete"));
+        this.deleteTimer.scheduleWithFixedDelay(() -> uploadPool.execute(this::sweepStaleBlobs), 0, 1, TimeUnit.HOURS);
+    }
+
+    /**
+     * Gets the shared generator for a storage container.
+     * @param connectionString the storage account connection string
+     * @param containerName the container receiving the temporary blobs
+     * @return the shared generator
+     */
+    public static StorageBlobEventGenerator forContainer(String connectionString, String containerName) {
+        if (connectionString == null || containerName == null) {
+            throw new IllegalArgumentException("Both the storage connection string and container name are required");
+        }
+        return generators.computeIfAbsent(connectionString + "\n" + containerName, key -> {
+            try {
+                return new StorageBlobEventGenerator(
+                    CloudStorageAccount.parse(connectionString).createCloudBlobClient().getContainerReference(containerName));
+            } catch (Exception e) {
+                throw new IllegalStateException("Cannot resolve storage container " + containerName, e);
+            }
+        });
+    }
+
+    /**
+     * Gets the generator for the container configured through the EVENTGRID_STORAGE_CONNECTION_STRING and
+     * EVENTGRID_STORAGE_CONTAINER_NAME settings.
+     * @return the shared generator
+     */
+    public static StorageBlobEventGenerator fromEnvironment() {
+        return forContainer(FunctionBootstrap.storageConnectionString, FunctionBootstrap.storageContainerName);
+    }
+
+    /**
+     * Creates the container ahead of the first upload, which also opens a connection to the storage account,
+     * and starts the upload threads.
+     * @throws Exception if the container cannot be created
+     */
+    public void warmUp() throws Exception {
+        ensureContainer();
+        ((ThreadPoolExecutor) uploadPool).prestartAllCoreThreads();
+    }
+
+    /**
+     * Uploads blobs in parallel and schedules their deletion.
+     * @param count the number of blobs to create
+     * @param deleteAfterMillis how long each blob is kept before it is deleted
+     * @return a future completed with the names of the uploaded blobs once all uploads are done
+     */
+    public CompletableFuture<List<String>> createBlobs(int count, final long deleteAfterMillis) {
+        final List<CompletableFuture<String>> uploads = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            uploads.add(CompletableFuture.supplyAsync(() -> upload(deleteAfterMillis), uploadPool));
+        }
+        return CompletableFuture.allOf(uploads.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            List<String> blobNames = new ArrayList<>(uploads.size());
+            for (CompletableFuture<String> upload : uploads) {
+                blobNames.add(upload.join());
+            }
+            return blobNames;
+        });
+    }
+
+    /**
+     * @return the number of blobs uploaded
+     */
+    public long blobsCreated() {
+        return blobsCreated.get();
+    }
+
+    /**
+     * @return the number of blobs deleted
+     */
+    public long blobsDeleted() {
+        return blobsDeleted.get();
+    }
+
+    /**
+     * @return the number of failed uploads and deletions
+     */
+    public long blobsFailed() {
+        return blobsFailed.get();
+    }
+
+    private String upload(long deleteAfterMillis) {
+        try {
+            ensureContainer();
+            String blobName = BLOB_PREFIX + UUID.randomUUID().toString().replaceAll("-", "") + ".txt";
+            final CloudBlockBlob blob = container.getBlockBlobReference(blobName);
+            blob.uploadText(blobName + " content\n");
+            blobsCreated.incrementAndGet();
+
+            // The timer only hands the deletion over to the upload pool, so a slow delete never delays the others.
+            deleteTimer.schedule(() -> uploadPool.execute(() -> delete(blob)), deleteAfterMillis, TimeUnit.MILLISECONDS);
+            return blobName;
+        } catch (Exception e) {
+            if (e instanceof StorageException && ((StorageException) e).getHttpStatusCode() == 404) {
+                // The container was deleted behind our back; create it again on the next upload
+                containerExists = false;
+            }
+            blobsFailed.incrementAndGet();
+            throw new CompletionException(e);
+        }
+    }
+
+    private void delete(CloudBlockBlob blob) {
+        try {
+            blob.deleteIfExists();
+            blobsDeleted.incrementAndGet();
+        } catch (Exception e) {
+            blobsFailed.incrementAndGet();
+            System.err.println("Failed to delete blob " + blob.getName() + ": " + e);
+        }
+    }
+
+    /**
+     * Deletes the temporary blobs whose scheduled deletion was lost, for example when an instance was recycled.
+     */
+    private void sweepStaleBlobs() {
+        long staleBefore = System.currentTimeMillis() - STALE_BLOB_MILLIS;
+        int swept = 0;
+        try {
+            for (ListBlobItem item : container.listBlobs(BLOB_PREFIX, true)) {
+                if (item instanceof CloudBlob) {
+                    CloudBlob blob = (CloudBlob) item;
+                    Date lastModified = blob.getProperties().getLastModified();
+                    if (lastModified != null && lastModified.getTime() < staleBefore && blob.deleteIfExists()) {
+                        swept++;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // The container may not exist yet; the next sweep retries
+            System.err.println("Failed to sweep stale blobs: " + e);
+        }
+        if (swept > 0) {
+            blobsDeleted.addAndGet(swept);
+            System.out.println(String.format("Deleted %d stale blobs left by earlier processes", swept));
+        }
+    }
+
+    private void ensureContainer() throws Exception {
+        if (!containerExists) {
+            synchronized (this) {
+                if (!containerExists) {
+                    // Create the container if it does not exist with public access.
+                    container.createIfNotExists(BlobContainerPublicAccessType.CONTAINER, new BlobRequestOptions(), new OperationContext());
+                    containerExists = true;
+                }
+            }
+        }
+    }
+
+    private static ThreadFactory daemonThreads(final String prefix) {
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,123 @@
+package com.microsoft.azure.eventgrid.samples;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.microsoft.azure.eventgrid.models.EventGridEvent;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.BlobProperties;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+/**
+ * Unit test for ClaimCheckCodec class.
+ */
+public class ClaimCheckCodecTest {
+    @Test
+    public void testCompressedDataIsResolvedByTheDecoder() throws Exception {
+        Gson gson = new Gson();
+        ClaimCheckCodec codec = new ClaimCheckCodec(gson, null, 64 * 1024, 64, 1024);
+        StringBuilder sku = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sku.append("SKU-").append(i);
+        }
+
+        EventGridEvent small = new EventGridEvent("1", "Door0", new EventGridConsumer.ContosoItemReceivedEventData("SKU-1"), "Contoso.Items.ItemReceived", null, "2.0");
+        EventGridEvent large = codec.encode(new EventGridEvent("2", "Door1", new EventGridConsumer.ContosoItemReceivedEventData(sku.toString()), "Contoso.Items.ItemReceived", null, "2.0"));
+        assertSame(small, codec.encode(small));
+        assertTrue(((Map<?, ?>) large.data()).containsKey(ClaimCheckCodec.GZIP_PROPERTY));
+
+        String payload = "[{\"id\":\"2\",\"eventType\":\"Contoso.Items.ItemReceived\",\"data\":" + gson.toJson(large.data()) + "}]";
+        EventGridEventDecoder decoder = new EventGridEventDecoder(gson,
+            eventType -> EventGridConsumer.ContosoItemReceivedEventData.class).withClaimCheckCodec(codec);
+        List<DecodedEvent> events = new ArrayList<>();
+        decoder.decode(payload, events::add);
+
+        assertEquals(sku.toString(), events.get(0).data(EventGridConsumer.ContosoItemReceivedEventData.class).itemSku);
+        assertEquals(1, codec.payloadsCompressed());
+    }
+
+    @Test
+    public void testFailedBlobDownloadOnlyFailsItsEvent() throws Exception {
+        CloudBlockBlob blob = mock(CloudBlockBlob.class);
+        doThrow(new StorageException("BlobNotFound", "The specified blob does not exist.", 404, null, null))
+            .when(blob).downloadAttributes();
+        CloudBlobContainer container = mock(CloudBlobContainer.class);
+        when(container.getBlockBlobReference("1.json")).thenReturn(blob);
+
+        Gson gson = new Gson();
+        ClaimCheckCodec codec = new ClaimCheckCodec(gson, container, 64 * 1024, 0, 1024);
+        EventGridEventDecoder decoder = new EventGridEventDecoder(gson,
+            eventType -> EventGridConsumer.ContosoItemReceivedEventData.class).withClaimCheckCodec(codec);
+        List<DecodedEvent> events = new ArrayList<>();
+        assertEquals(2, decoder.decode("["
+            + "{\"id\":\"1\",\"eventType\":\"Contoso.Items.ItemReceived\",\"data\":{\"" + ClaimCheckCodec.CLAIM_CHECK_PROPERTY
+            + "\":{\"blob\":\"1.json\",\"length\":100,\"contentEncoding\":\"identity\"}}},"
+            + "{\"id\":\"2\",\"eventType\":\"Contoso.Items.ItemReceived\",\"data\":{\"itemSku\":\"SKU-2\"}}"
+            + "]", events::add));
+
+        try {
+            events.get(0).data();
+            fail("The claim check cannot be resolved");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause().getMessage().contains("1.json"));
+        }
+        assertEquals("SKU-2", events.get(1).data(EventGridConsumer.ContosoItemReceivedEventData.class).itemSku);
+        assertEquals(0, codec.blobsDownloaded());
+    }
+
+    @Test
+    public void testPayloadsLargerThanTheLimitAreNotRead() throws Exception {
+        BlobProperties properties = mock(BlobProperties.class);
+        when(properties.getLength()).thenReturn(2048L);
+        CloudBlockBlob blob = mock(CloudBlockBlob.class);
+        when(blob.getProperties()).thenReturn(properties);
+        CloudBlobContainer container = mock(CloudBlobContainer.class);
+        when(container.getBlockBlobReference("1.json")).thenReturn(blob);
+
+        Gson gson = new Gson();
+        ClaimCheckCodec codec = new ClaimCheckCodec(gson, container, 64 * 1024, 64, 1024).withMaxPayloadBytes(1024);
+        // The reference understates the blob size, the limit applies to the blob properties
+        JsonElement reference = new JsonParser().parse("{\"" + ClaimCheckCodec.CLAIM_CHECK_PROPERTY
+            + "\":{\"blob\":\"1.json\",\"length\":10,\"contentEncoding\":\"identity\"}}");
+        try {
+            codec.resolve(reference);
+            fail("IOException was expected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("1.json"));
+        }
+        verify(blob, never()).downloadToByteArray(any(byte[].class), anyInt());
+
+        // Compressed data may not expand past the limit either
+        StringBuilder sku = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sku.append("SKU-").append(i);
+        }
+        EventGridEvent compressed = codec.encode(new EventGridEvent("2", "Door1", new EventGridConsumer.ContosoItemReceivedEventData(sku.toString()), "Contoso.Items.ItemReceived", null, "2.0"));
+        try {
+            codec.resolve(gson.toJsonTree(compressed.data()));
+            fail("IOException was expected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.microsoft.azure.eventgrid.samples;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+/**
+ * Unit test for EventGridConsumer class.
+ */
+public class EventGridConsumerTest {
+    @Test
+    public void testCloudEventsWithTheSameIdFromTwoSourcesAreNotDuplicates() {
+        DecodedEvent fromDoors = cloudEvent("1", "/contoso/doors");
+        DecodedEvent fromWindows = cloudEvent("1", "/contoso/windows");
+
+        assertEquals("/contoso/doors\n1", EventGridConsumer.deduplicationKey(fromDoors));
+        assertEquals("/contoso/windows\n1", EventGridConsumer.deduplicationKey(fromWindows));
+    }
+
+    @Test
+    public void testEventGridEventsAreKeyedByTheirId() {
+        DecodedEvent event = new DecodedEvent("1", "/subscriptions/s/topics/t", "Door1", "Contoso.Items.ItemReceived",
+            "2018-01-01T00:00:00Z", "2.0", null, (Object) null);
+
+        assertEquals("1", EventGridConsumer.deduplicationKey(event));
+        assertNull(EventGridConsumer.deduplicationKey(cloudEvent(null, "/contoso/doors")));
+    }
+
+    private static DecodedEvent cloudEvent(String id, String source) {
+        return new DecodedEvent(id, source, "Door1", "Contoso.Items.ItemReceived", "2018-01-01T00:00:00Z", null, "1.0", (Object) null);
+    }
+}
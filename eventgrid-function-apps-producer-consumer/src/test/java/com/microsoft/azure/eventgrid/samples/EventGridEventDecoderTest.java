@@ -0,0 +1,170 @@
+package com.microsoft.azure.eventgrid.samples;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.microsoft.azure.eventgrid.models.EventGridEvent;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Unit test for EventGridEventDecoder class.
+ */
+public class EventGridEventDecoderTest {
+    private final EventGridEventDecoder decoder = createDecoder();
+
+    private static EventGridEventDecoder createDecoder() {
+        Map<String, Class<?>> dataTypes = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        dataTypes.put("Contoso.Items.ItemReceived", EventGridConsumer.ContosoItemReceivedEventData.class);
+        return new EventGridEventDecoder(new Gson(), dataTypes::get);
+    }
+
+    @Test
+    public void testDecodeBatchWithDataBeforeAndAfterEventType() throws Exception {
+        String payload = "["
+            + "{\"id\":\"1\",\"subject\":\"Door0\",\"eventType\":\"Contoso.Items.ItemReceived\",\"data\":{\"itemSku\":\"SKU-1\"},\"dataVersion\":\"2.0\"},"
+            + "{\"id\":\"2\",\"data\":{\"itemSku\":\"SKU-2\"},\"eventType\":\"contoso.items.itemreceived\",\"extra\":[1,2]}"
+            + "]";
+        List<DecodedEvent> events = new ArrayList<>();
+
+        assertEquals(2, decoder.decode(payload, events::add));
+        assertEquals("Door0", events.get(0).subject());
+        assertEquals("SKU-1", events.get(0).data(EventGridConsumer.ContosoItemReceivedEventData.class).itemSku);
+        assertEquals("SKU-2", events.get(1).data(EventGridConsumer.ContosoItemReceivedEventData.class).itemSku);
+    }
+
+    @Test
+    public void testDecodeStringEncodedDataAndUnknownType() throws Exception {
+        List<DecodedEvent> events = new ArrayList<>();
+
+        decoder.decode("{\"id\":\"1\",\"eventType\":\"Contoso.Items.ItemReceived\",\"data\":\"{\\\"itemSku\\\":\\\"SKU-3\\\"}\"}", events::add);
+        decoder.decode("{\"id\":\"2\",\"eventType\":\"Unknown\",\"data\":{\"value\":1}}", events::add);
+
+        assertEquals("SKU-3", events.get(0).data(EventGridConsumer.ContosoItemReceivedEventData.class).itemSku);
+        assertTrue(events.get(1).data() instanceof JsonElement);
+    }
+
+    @Test
+    public void testDecodeCloudEventsStructuredAndBinary() throws Exception {
+        List<DecodedEvent> events = new ArrayList<>();
+        decoder.decode("[{\"specversion\":\"1.0\",\"id\":\"1\",\"source\":\"/contoso/items\",\"type\":\"Contoso.Items.ItemReceived\","
+            + "\"subject\":\"Door0\",\"datacontenttype\":\"application/json\",\"data\":{\"itemSku\":\"SKU-4\"}},"
+            + "{\"specversion\":\"1.0\",\"id\":\"2\",\"source\":\"/contoso/items\",\"type\":\"Contoso.Items.ItemReceived\","
+            + "\"data_base64\":\"eyJpdGVtU2t1IjoiU0tVLTUifQ==\"}]", events::add);
+
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.put("ce-specversion", "1.0");
+        headers.put("ce-id", "3");
+        headers.put("ce-type", "Contoso.Items.ItemReceived");
+        headers.put("Content-Type", "application/json; charset=utf-8");
+        events.add(decoder.decodeBinary(headers::get, "{\"itemSku\":\"SKU-6\"}".getBytes("UTF-8")));
+
+        assertEquals("1.0", events.get(0).specVersion());
+        assertEquals("/contoso/items", events.get(0).topic());
+        assertEquals("SKU-4", events.get(0).data(EventGridConsumer.ContosoItemReceivedEventData.class).itemSku);
+        assertEquals("SKU-5", events.get(1).data(EventGridConsumer.ContosoItemReceivedEventData.class).itemSku);
+        assertEquals("3", events.get(2).id());
+        assertEquals("SKU-6", events.get(2).data(EventGridConsumer.ContosoItemReceivedEventData.class).itemSku);
+    }
+
+    @Test
+    public void testBinaryHeadersArePercentEncoded() throws Exception {
+        String subject = "Door 1/\"caf\u00e9\" 100% \ud83d\udeaa";
+        String encoded = CloudEventsPublisher.encodeHeaderValue(subject);
+        assertEquals("Door%201/%22caf%C3%A9%22%20100%25%20%F0%9F%9A%AA", encoded);
+        assertEquals("Contoso.Items.ItemReceived", CloudEventsPublisher.encodeHeaderValue("Contoso.Items.ItemReceived"));
+
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.put("ce-specversion", "1.0");
+        headers.put("ce-id", "4");
+        headers.put("ce-type", "Contoso.Items.ItemReceived");
+        headers.put("ce-subject", encoded);
+        headers.put("ce-source", "/contoso/100%");
+        DecodedEvent event = decoder.decodeBinary(headers::get, new byte[0]);
+
+        assertEquals(subject, event.subject());
+        assertEquals("/contoso/100%", event.topic());
+    }
+
+    @Test
+    public void testBase64DataIsBoundByContentTypeAndFailsOnlyItsEvent() throws Exception {
+        List<DecodedEvent> events = new ArrayList<>();
+        // "SKU-7" as text/plain, then {"itemSku":"SKU-8"} as JSON
+        assertEquals(3, decoder.decode("[{\"specversion\":\"1.0\",\"id\":\"1\",\"type\":\"Contoso.Items.ItemReceived\","
+            + "\"datacontenttype\":\"text/plain\",\"data_base64\":\"U0tVLTc=\"},"
+            + "{\"specversion\":\"1.0\",\"id\":\"2\",\"type\":\"Contoso.Items.Other\","
+            + "\"datacontenttype\":\"text/plain\",\"data_base64\":\"U0tVLTc=\"},"
+            + "{\"specversion\":\"1.0\",\"id\":\"3\",\"type\":\"Contoso.Items.ItemReceived\","
+            + "\"datacontenttype\":\"application/json\",\"data_base64\":\"eyJpdGVtU2t1IjoiU0tVLTgifQ==\"}]", events::add));
+
+        try {
+            events.get(0).data();
+            fail("Text data cannot be bound to the registered data class");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("event 1"));
+        }
+        assertEquals("SKU-7", events.get(1).data());
+        assertEquals("SKU-8", events.get(2).data(EventGridConsumer.ContosoItemReceivedEventData.class).itemSku);
+    }
+
+    @Test
+    public void testWithACodecOnlyEncodedDataIsBuffered() throws Exception {
+        Gson gson = new Gson();
+        ClaimCheckCodec codec = new ClaimCheckCodec(gson, null, 64 * 1024, 64, 1024);
+        EventGridEventDecoder codecDecoder = createDecoder().withClaimCheckCodec(codec);
+        String wrongShape = "{\"id\":\"1\",\"eventType\":\"Contoso.Items.ItemReceived\",\"data\":{\"itemSku\":{\"value\":1}}}";
+
+        // Without codec properties in the payload the data is bound while decoding, so a wrong shape fails the payload
+        try {
+            codecDecoder.decode(wrongShape, event -> { });
+            fail("IOException was expected");
+        } catch (IOException e) {
+            // expected
+        }
+
+        StringBuilder sku = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sku.append("SKU-").append(i);
+        }
+        EventGridEvent compressed = codec.encode(new EventGridEvent("2", "Door2",
+            new EventGridConsumer.ContosoItemReceivedEventData(sku.toString()), "Contoso.Items.ItemReceived", null, "2.0"));
+        List<DecodedEvent> events = new ArrayList<>();
+        codecDecoder.decode("[{\"id\":\"2\",\"eventType\":\"Contoso.Items.ItemReceived\",\"data\":" + gson.toJson(compressed.data()) + "},"
+            + "{\"id\":\"3\",\"eventType\":\"Contoso.Items.ItemReceived\",\"data\":{\"itemSku\":\"SKU-3\"}}]", events::add);
+
+        assertEquals(sku.toString(), events.get(0).data(EventGridConsumer.ContosoItemReceivedEventData.class).itemSku);
+        assertEquals("SKU-3", events.get(1).data(EventGridConsumer.ContosoItemReceivedEventData.class).itemSku);
+    }
+
+    @Test
+    public void testMalformedPayloadsFailWithIOException() throws Exception {
+        String valid = "{\"id\":\"1\",\"eventType\":\"Contoso.Items.ItemReceived\",\"data\":{\"itemSku\":\"SKU-9\"}}";
+        String[] payloads = {
+            "[" + valid + ",{\"id\":\"2\",\"eventType\":",
+            "[" + valid + ",{\"id\" \"2\"}]",
+            "[" + valid + ",1]",
+            "[" + valid + ",{\"id\":\"2\",\"eventType\":\"Contoso.Items.ItemReceived\",\"data\":\"{not json\"}]",
+            "[" + valid + ",{\"id\":\"2\",\"eventType\":\"Contoso.Items.ItemReceived\",\"data\":[1,2]}]"
+        };
+        for (String payload : payloads) {
+            List<DecodedEvent> events = new ArrayList<>();
+            try {
+                decoder.decode(payload, events::add);
+                fail("IOException was expected for " + payload);
+            } catch (IOException e) {
+                // The events before the invalid one were still delivered
+                assertEquals(1, events.size());
+                assertEquals("SKU-9", events.get(0).data(EventGridConsumer.ContosoItemReceivedEventData.class).itemSku);
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.microsoft.azure.eventgrid.samples;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Unit test for EventHandlerRegistry class.
+ */
+public class EventHandlerRegistryTest {
+    @Test
+    public void testExactPrefixAndFallbackRouting() throws Exception {
+        EventHandlerRegistry<List<String>> registry = EventHandlerRegistry.<List<String>>builder()
+            .on("Contoso.Items.ItemReceived", String.class, (data, event, calls) -> calls.add("exact"))
+            .onPrefix("Contoso.", String.class, (data, event, calls) -> calls.add("short prefix"))
+            .onPrefix("Contoso.Orders.", String.class, (data, event, calls) -> calls.add("long prefix"))
+            .fallback((data, event, calls) -> calls.add("fallback"))
+            .build();
+        List<String> calls = new ArrayList<>();
+
+        registry.dispatch(event("CONTOSO.items.ITEMRECEIVED"), calls);
+        registry.dispatch(event("contoso.orders.Shipped"), calls);
+        registry.dispatch(event("Contoso.Other"), calls);
+        registry.dispatch(event("Fabrikam.Other"), calls);
+
+        assertEquals("exact", calls.get(0));
+        assertEquals("long prefix", calls.get(1));
+        assertEquals("short prefix", calls.get(2));
+        assertEquals("fallback", calls.get(3));
+        assertSame(String.class, registry.dataClassFor("contoso.items.itemreceived"));
+        assertNull(registry.dataClassFor("Fabrikam.Other"));
+    }
+
+    @Test
+    public void testDataClassesListsExactTypesBeforePrefixes() {
+        EventHandlerRegistry<Void> registry = EventHandlerRegistry.<Void>builder()
+            .onPrefix("Contoso.", String.class, (data, event, context) -> { })
+            .on("Contoso.Items.ItemReceived", Integer.class, (data, event, context) -> { })
+            .build();
+
+        Map<String, Class<?>> dataClasses = registry.dataClasses();
+
+        assertEquals(2, dataClasses.size());
+        assertEquals("Contoso.Items.ItemReceived", dataClasses.keySet().iterator().next());
+        assertSame(Integer.class, dataClasses.get("Contoso.Items.ItemReceived"));
+        assertSame(String.class, dataClasses.get("Contoso."));
+    }
+
+    @Test
+    public void testDuplicateRegistrationIsRejected() {
+        EventHandlerRegistry.Builder<Void> builder = EventHandlerRegistry.<Void>builder()
+            .on("Contoso.Items.ItemReceived", String.class, (data, event, context) -> { })
+            .on("contoso.items.itemreceived", String.class, (data, event, context) -> { });
+        try {
+            builder.build();
+            fail("IllegalArgumentException was expected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("contoso.items.itemreceived"));
+        }
+    }
+
+    @Test
+    public void testUnmatchedEventsFailWithoutAFallback() throws Exception {
+        EventHandlerRegistry<List<String>> registry = EventHandlerRegistry.<List<String>>builder()
+            .on("Contoso.Items.ItemReceived", String.class, (data, event, calls) -> calls.add("exact"))
+            .build();
+        List<String> calls = new ArrayList<>();
+
+        try {
+            registry.dispatch(event("Fabrikam.Other"), calls);
+            fail("IllegalStateException was expected");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("Fabrikam.Other"));
+        }
+        assertTrue(calls.isEmpty());
+    }
+
+    @Test
+    public void testNullTypeAndMismatchedDataGoToTheFallback() throws Exception {
+        EventHandlerRegistry<List<String>> registry = EventHandlerRegistry.<List<String>>builder()
+            .on("Contoso.Items.ItemReceived", Integer.class, (data, event, calls) -> calls.add("exact"))
+            .fallback((data, event, calls) -> calls.add("fallback " + data))
+            .build();
+        List<String> calls = new ArrayList<>();
+
+        registry.dispatch(event(null), calls);
+        // The data is a String, not the registered Integer
+        registry.dispatch(event("Contoso.Items.ItemReceived"), calls);
+
+        assertEquals(2, calls.size());
+        assertEquals("fallback data", calls.get(0));
+        assertEquals("fallback data", calls.get(1));
+        assertNull(registry.dataClassFor(null));
+    }
+
+    private static DecodedEvent event(String eventType) {
+        return new DecodedEvent("id", null, "subject", eventType, null, "1.0", null, "data");
+    }
+}
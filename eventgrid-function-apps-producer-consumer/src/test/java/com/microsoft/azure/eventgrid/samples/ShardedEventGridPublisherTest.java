@@ -0,0 +1,81 @@
+package com.microsoft.azure.eventgrid.samples;
+
+import com.microsoft.azure.eventgrid.models.EventGridEvent;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Unit test for ShardedEventGridPublisher class.
+ */
+public class ShardedEventGridPublisherTest {
+    @Test
+    public void testUnavailableTopicFailsOverToTheNextOne() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        try (ShardedEventGridPublisher publisher = publisher(503, requests)) {
+            assertFails(publisher.publishAsync(events()));
+
+            // Both topics were tried and both count the failure
+            assertEquals(2, requests.get());
+            assertFalse(publisher.healthReport().contains(" 0 failed"));
+        }
+    }
+
+    @Test
+    public void testRejectedRequestIsNeitherFailedOverNorCountedInTheHealth() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        Path directory = Files.createTempDirectory("sharded");
+        DeadLetterSpool spool = new DeadLetterSpool(directory.resolve("dead-letters.jsonl"));
+        try (ShardedEventGridPublisher publisher = publisher(400, requests).withDeadLetterSpool(spool)) {
+            assertFails(publisher.publishAsync(events()));
+
+            assertEquals(1, requests.get());
+            assertEquals(1, spool.eventsSpooled());
+            for (String topic : publisher.healthReport().split("\n")) {
+                assertTrue(topic, topic.contains("0 succeeded, 0 failed"));
+            }
+        } finally {
+            Files.deleteIfExists(directory.resolve("dead-letters.jsonl"));
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static ShardedEventGridPublisher publisher(final int status, final AtomicInteger requests) {
+        return new ShardedEventGridPublisher(
+            Arrays.asList("https://topic1.westus-1.eventgrid.azure.net/api/events", "https://topic2.eastus-1.eventgrid.azure.net/api/events"),
+            Arrays.asList("key1", "key2"),
+            (endpoint, key) -> new AsyncEventGridPublisher(events -> {
+                requests.incrementAndGet();
+                CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new TopicRequestException(endpoint + " failed", status, null));
+                return failed;
+            }, 4).withRetryPolicy(1, 1, 10));
+    }
+
+    private static void assertFails(CompletableFuture<Void> request) throws Exception {
+        try {
+            request.get(5, TimeUnit.SECONDS);
+            fail("ExecutionException was expected");
+        } catch (ExecutionException e) {
+            // expected
+        }
+    }
+
+    private static List<EventGridEvent> events() {
+        return Collections.singletonList(new EventGridEvent("event-1", "Door1", "Contoso Item SKU #1", "Contoso.Items.ItemReceived", null, "2.0"));
+    }
+}
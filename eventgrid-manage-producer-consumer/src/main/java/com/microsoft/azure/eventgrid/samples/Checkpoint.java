@@ -0,0 +1,49 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import com.microsoft.azure.eventhubs.EventPosition;
+
+/**
+ * Position of the last processed event of an EventHub partition.
+ */
+public final class Checkpoint {
+    private final String partitionId;
+    private final String offset;
+    private final long sequenceNumber;
+
+    public Checkpoint(String partitionId, String offset, long sequenceNumber) {
+        this.partitionId = partitionId;
+        this.offset = offset;
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    public String partitionId() {
+        return partitionId;
+    }
+
+    public String offset() {
+        return offset;
+    }
+
+    public long sequenceNumber() {
+        return sequenceNumber;
+    }
+
+    /**
+     * @return the position of the first event after this checkpoint
+     */
+    public EventPosition nextPosition() {
+        return offset != null
+            ? EventPosition.fromOffset(offset, false)
+            : EventPosition.fromSequenceNumber(sequenceNumber, false);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Checkpoint(partition: %s, offset: %s, sequenceNumber: %d)", partitionId, offset, sequenceNumber);
+    }
+}
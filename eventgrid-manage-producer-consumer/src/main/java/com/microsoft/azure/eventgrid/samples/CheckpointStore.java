@@ -0,0 +1,29 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Durable storage for the EventHub partition checkpoints of a consumer group.
+ */
+public interface CheckpointStore {
+    /**
+     * Loads the last saved checkpoints.
+     * @return the checkpoints keyed by partition id; partitions never checkpointed are absent
+     * @throws IOException if the checkpoints cannot be read
+     */
+    Map<String, Checkpoint> loadCheckpoints() throws IOException;
+
+    /**
+     * Saves a set of checkpoints in a single write, replacing earlier checkpoints of the same partitions.
+     * @param checkpoints the checkpoints to save
+     * @throws IOException if the checkpoints cannot be written
+     */
+    void saveCheckpoints(Collection<Checkpoint> checkpoints) throws IOException;
+}
@@ -0,0 +1,555 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.microsoft.azure.management.eventgrid.v2018_01_01.EventSubscriptionFilter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Client-side event filter with the semantics of EventGrid subscription filters, evaluated on the raw JSON of an
+ * event before it is deserialized.
+ *  - Subject prefixes and suffixes are matched through tries, case-insensitively unless configured otherwise; an
+ *    event matches when its subject starts with any prefix and ends with any suffix.
+ *  - Included event types are matched case-insensitively; without any, all event types match.
+ *  - Advanced filters compare a field of the event, such as "data.itemSku", with numeric, string (case-insensitive)
+ *    or bool operators. An event matches when all advanced filters match, and a filter matches when its field is
+ *    present and satisfies any of its values.
+ *  - The event is read with a streaming parser in one pass: objects without filtered fields are skipped, and
+ *    evaluation stops at the first failed subject or event type. {@link #evaluate(byte[])} also returns the
+ *    subject and id of the matching event, so the consumer does not parse it again to route or deduplicate it.
+ * {@link #toSubscriptionFilter()} pushes the subject and event type part to the subscription, so EventGrid drops
+ * most of the events before delivering them; the advanced filters stay client-side with the 2018-01-01 API.
+ */
+public final class EventFilter {
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private final List<String> prefixes;
+    private final List<String> suffixes;
+    private final boolean subjectCaseSensitive;
+    private final TrieNode prefixTrie;
+    private final TrieNode suffixTrie;
+    private final Set<String> includedEventTypes;
+    private final FieldNode fields;
+    private final long allConditions;
+
+    private static final Result NO_MATCH = new Result(false, null, null);
+
+    /**
+     * The outcome of a filter on a message body.
+     */
+    public static final class Result {
+        private final boolean matches;
+        private final String subject;
+        private final String id;
+
+        private Result(boolean matches, String subject, String id) {
+            this.matches = matches;
+            this.subject = subject;
+            this.id = id;
+        }
+
+        /**
+         * @return true when an event of the body matches
+         */
+        public boolean matches() {
+            return matches;
+        }
+
+        /**
+         * @return the subject of the matching event, or null when it has none or nothing matched
+         */
+        public String subject() {
+            return subject;
+        }
+
+        /**
+         * @return the id of the matching event, or null when it has none or nothing matched
+         */
+        public String id() {
+            return id;
+        }
+    }
+
+    /**
+     * Tests the current scalar value of the parser.
+     */
+    private interface Condition {
+        boolean test(JsonToken token, JsonParser parser) throws IOException;
+    }
+
+    /**
+     * A field path segment with the conditions on its value, or the fields nested in it.
+     */
+    private static final class FieldNode {
+        final Map<String, FieldNode> children = new HashMap<>();
+        final List<Condition> conditions = new ArrayList<>();
+        final List<Long> conditionBits = new ArrayList<>();
+    }
+
+    /**
+     * A node of a character trie; terminal when a whole prefix (or reversed suffix) ends here.
+     */
+    private static final class TrieNode {
+        char[] keys = new char[0];
+        TrieNode[] children = new TrieNode[0];
+        boolean terminal;
+
+        TrieNode child(char key) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == key) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        TrieNode addChild(char key) {
+            TrieNode child = child(key);
+            if (child == null) {
+                child = new TrieNode();
+                keys = Arrays.copyOf(keys, keys.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                keys[keys.length - 1] = key;
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+    }
+
+    private EventFilter(Builder builder) {
+        this.prefixes = new ArrayList<>(builder.prefixes);
+        this.suffixes = new ArrayList<>(builder.suffixes);
+        this.subjectCaseSensitive = builder.subjectCaseSensitive;
+        this.prefixTrie = prefixes.isEmpty() ? null : new TrieNode();
+        for (String prefix : prefixes) {
+            TrieNode node = prefixTrie;
+            for (int i = 0; i < prefix.length(); i++) {
+                node = node.addChild(fold(prefix.charAt(i)));
+            }
+            node.terminal = true;
+        }
+        this.suffixTrie = suffixes.isEmpty() ? null : new TrieNode();
+        for (String suffix : suffixes) {
+            TrieNode node = suffixTrie;
+            for (int i = suffix.length() - 1; i >= 0; i--) {
+                node = node.addChild(fold(suffix.charAt(i)));
+            }
+            node.terminal = true;
+        }
+        if (builder.includedEventTypes.isEmpty()) {
+            this.includedEventTypes = null;
+        } else {
+            this.includedEventTypes = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            this.includedEventTypes.addAll(builder.includedEventTypes);
+        }
+        this.fields = builder.fields;
+        this.allConditions = builder.conditionCount == 64 ? -1L : (1L << builder.conditionCount) - 1;
+    }
+
+    /**
+     * @return a builder for a new filter
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Evaluates the filter on an EventHub message body, a JSON array of EventGrid events or a single event.
+     * @param body the message body
+     * @return true when any event of the body matches; false as well for bodies which are not EventGrid events
+     */
+    public boolean matches(byte[] body) {
+        return evaluate(body).matches();
+    }
+
+    /**
+     * Evaluates the filter on an EventHub message body like {@link #matches(byte[])}, keeping the subject and id
+     * of the first matching event.
+     * @param body the message body
+     * @return the result; it does not match for bodies which are not EventGrid events
+     */
+    public Result evaluate(byte[] body) {
+        if (body == null) {
+            return NO_MATCH;
+        }
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT) {
+                return matchesEvent(parser);
+            }
+            if (token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    Result result = matchesEvent(parser);
+                    if (result.matches) {
+                        return result;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // not an EventGrid event
+        }
+        return NO_MATCH;
+    }
+
+    /**
+     * Converts the filter into a subscription filter. A subscription takes a single subject prefix and suffix, so
+     * several prefixes (suffixes) are pushed as their longest common prefix (suffix), which lets through a
+     * superset of the events; this filter still has to run on the consumer.
+     * @return the subscription filter
+     */
+    public EventSubscriptionFilter toSubscriptionFilter() {
+        return new EventSubscriptionFilter()
+            .withSubjectBeginsWith(commonAffix(prefixes, false))
+            .withSubjectEndsWith(commonAffix(suffixes, true))
+            .withIncludedEventTypes(includedEventTypes != null ? new ArrayList<>(includedEventTypes) : null)
+            .withIsSubjectCaseSensitive(subjectCaseSensitive);
+    }
+
+    /**
+     * Tells whether a subscription already applies the subscription filter of this filter, for example when an
+     * existing subscription is reused; an unset subject affix equals an empty one, and event types ignore case.
+     * @param subscriptionFilter the filter of the subscription, possibly null
+     * @return true when the subscription filter equals {@link #toSubscriptionFilter()}
+     */
+    public boolean isAppliedBy(EventSubscriptionFilter subscriptionFilter) {
+        if (subscriptionFilter == null) {
+            return prefixes.isEmpty() && suffixes.isEmpty() && includedEventTypes == null;
+        }
+        EventSubscriptionFilter wanted = toSubscriptionFilter();
+        if (!nullToEmpty(wanted.subjectBeginsWith()).equals(nullToEmpty(subscriptionFilter.subjectBeginsWith()))
+            || !nullToEmpty(wanted.subjectEndsWith()).equals(nullToEmpty(subscriptionFilter.subjectEndsWith()))
+            || subjectCaseSensitive != Boolean.TRUE.equals(subscriptionFilter.isSubjectCaseSensitive())) {
+            return false;
+        }
+        if (subscriptionFilter.includedEventTypes() == null) {
+            return includedEventTypes == null;
+        }
+        Set<String> appliedEventTypes = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        appliedEventTypes.addAll(subscriptionFilter.includedEventTypes());
+        return includedEventTypes != null && includedEventTypes.equals(appliedEventTypes);
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+
+    /**
+     * Reads one event, the parser being on its START_OBJECT; returns with the parser on its END_OBJECT.
+     */
+    private Result matchesEvent(JsonParser parser) throws IOException {
+        boolean subjectSeen = false;
+        boolean eventTypeSeen = false;
+        String subject = null;
+        String id = null;
+        long satisfied = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            token = parser.nextToken();
+            if ("subject".equals(name)) {
+                subject = token == JsonToken.VALUE_STRING ? parser.getText() : null;
+                if (prefixTrie != null || suffixTrie != null) {
+                    subjectSeen = true;
+                    if (subject == null || !matchesSubject(subject)) {
+                        skipRestOfObject(parser);
+                        return NO_MATCH;
+                    }
+                }
+            } else if ("id".equals(name)) {
+                id = token == JsonToken.VALUE_STRING ? parser.getText() : null;
+            } else if (("eventType".equals(name) || "type".equals(name)) && includedEventTypes != null) {
+                eventTypeSeen = true;
+                if (token != JsonToken.VALUE_STRING || !includedEventTypes.contains(parser.getText())) {
+                    skipRestOfObject(parser);
+                    return NO_MATCH;
+                }
+            }
+            satisfied |= evaluate(fields.children.get(name), token, parser);
+        }
+        boolean matches = (subjectSeen || (prefixTrie == null && suffixTrie == null))
+            && (eventTypeSeen || includedEventTypes == null)
+            && satisfied == allConditions;
+        return matches ? new Result(true, subject, id) : NO_MATCH;
+    }
+
+    /**
+     * Evaluates the conditions on a value, descending into the objects holding filtered fields; any other value
+     * is skipped without being read.
+     */
+    private static long evaluate(FieldNode node, JsonToken token, JsonParser parser) throws IOException {
+        if (node == null) {
+            parser.skipChildren();
+            return 0;
+        }
+        long satisfied = 0;
+        if (token == JsonToken.START_OBJECT && !node.children.isEmpty()) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                FieldNode child = node.children.get(parser.getCurrentName());
+                satisfied |= evaluate(child, parser.nextToken(), parser);
+            }
+            return satisfied;
+        }
+        if (token.isScalarValue()) {
+            for (int i = 0; i < node.conditions.size(); i++) {
+                if (node.conditions.get(i).test(token, parser)) {
+                    satisfied |= node.conditionBits.get(i);
+                }
+            }
+        } else {
+            parser.skipChildren();
+        }
+        return satisfied;
+    }
+
+    private boolean matchesSubject(String subject) {
+        if (prefixTrie != null) {
+            TrieNode node = prefixTrie;
+            for (int i = 0; !node.terminal; i++) {
+                node = i < subject.length() ? node.child(fold(subject.charAt(i))) : null;
+                if (node == null) {
+                    return false;
+                }
+            }
+        }
+        if (suffixTrie != null) {
+            TrieNode node = suffixTrie;
+            for (int i = subject.length() - 1; !node.terminal; i--) {
+                node = i >= 0 ? node.child(fold(subject.charAt(i))) : null;
+                if (node == null) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private char fold(char c) {
+        return subjectCaseSensitive ? c : Character.toLowerCase(c);
+    }
+
+    private String commonAffix(List<String> values, boolean suffix) {
+        if (values.isEmpty()) {
+            return "";
+        }
+        String common = values.get(0);
+        for (String value : values) {
+            int length = 0;
+            while (length < common.length() && length < value.length()
+                && fold(common.charAt(suffix ? common.length() - 1 - length : length))
+                    == fold(value.charAt(suffix ? value.length() - 1 - length : length))) {
+                length++;
+            }
+            common = suffix ? common.substring(common.length() - length) : common.substring(0, length);
+        }
+        return common;
+    }
+
+    private static void skipRestOfObject(JsonParser parser) throws IOException {
+        parser.skipChildren();
+        int depth = 1;
+        JsonToken token;
+        while (depth > 0 && (token = parser.nextToken()) != null) {
+            if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                depth++;
+            } else if (token == JsonToken.END_OBJECT || token == JsonToken.END_ARRAY) {
+                depth--;
+            }
+        }
+    }
+
+    private static boolean regionMatchesAny(String text, String[] values, boolean atStart, boolean atEnd) {
+        for (String value : values) {
+            if (atStart && text.regionMatches(true, 0, value, 0, value.length())) {
+                return true;
+            }
+            if (atEnd && text.regionMatches(true, text.length() - value.length(), value, 0, value.length())) {
+                return true;
+            }
+            if (!atStart && !atEnd) {
+                for (int i = 0; i + value.length() <= text.length(); i++) {
+                    if (text.regionMatches(true, i, value, 0, value.length())) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collects the rules of a filter; advanced filter keys are dotted paths such as "data.itemSku" or "subject".
+     */
+    public static final class Builder {
+        private final List<String> prefixes = new ArrayList<>();
+        private final List<String> suffixes = new ArrayList<>();
+        private boolean subjectCaseSensitive;
+        private final Set<String> includedEventTypes = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        private final FieldNode fields = new FieldNode();
+        private int conditionCount;
+
+        private Builder() {
+        }
+
+        /**
+         * @param prefixes the subject prefixes, for example "Door"; an event matches any of them
+         * @return this builder
+         */
+        public Builder subjectBeginsWith(String... prefixes) {
+            this.prefixes.addAll(Arrays.asList(prefixes));
+            return this;
+        }
+
+        /**
+         * @param suffixes the subject suffixes, for example ".jpg"; an event matches any of them
+         * @return this builder
+         */
+        public Builder subjectEndsWith(String... suffixes) {
+            this.suffixes.addAll(Arrays.asList(suffixes));
+            return this;
+        }
+
+        /**
+         * @param subjectCaseSensitive whether subject prefixes and suffixes are case-sensitive; false by default
+         * @return this builder
+         */
+        public Builder subjectCaseSensitive(boolean subjectCaseSensitive) {
+            this.subjectCaseSensitive = subjectCaseSensitive;
+            return this;
+        }
+
+        /**
+         * @param eventTypes the event types to include; all event types are included when none is given
+         * @return this builder
+         */
+        public Builder includedEventTypes(String... eventTypes) {
+            this.includedEventTypes.addAll(Arrays.asList(eventTypes));
+            return this;
+        }
+
+        /**
+         * The number at the key is greater than the value.
+         */
+        public Builder numberGreaterThan(String key, final double value) {
+            return condition(key, (token, parser) -> token.isNumeric() && parser.getDoubleValue() > value);
+        }
+
+        /**
+         * The number at the key is greater than or equal to the value.
+         */
+        public Builder numberGreaterThanOrEquals(String key, final double value) {
+            return condition(key, (token, parser) -> token.isNumeric() && parser.getDoubleValue() >= value);
+        }
+
+        /**
+         * The number at the key is less than the value.
+         */
+        public Builder numberLessThan(String key, final double value) {
+            return condition(key, (token, parser) -> token.isNumeric() && parser.getDoubleValue() < value);
+        }
+
+        /**
+         * The number at the key is less than or equal to the value.
+         */
+        public Builder numberLessThanOrEquals(String key, final double value) {
+            return condition(key, (token, parser) -> token.isNumeric() && parser.getDoubleValue() <= value);
+        }
+
+        /**
+         * The number at the key is one of the values.
+         */
+        public Builder numberIn(String key, double... values) {
+            final double[] sorted = values.clone();
+            Arrays.sort(sorted);
+            return condition(key, (token, parser) -> token.isNumeric() && Arrays.binarySearch(sorted, parser.getDoubleValue()) >= 0);
+        }
+
+        /**
+         * The number at the key is none of the values.
+         */
+        public Builder numberNotIn(String key, double... values) {
+            final double[] sorted = values.clone();
+            Arrays.sort(sorted);
+            return condition(key, (token, parser) -> token.isNumeric() && Arrays.binarySearch(sorted, parser.getDoubleValue()) < 0);
+        }
+
+        /**
+         * The string at the key contains any of the values.
+         */
+        public Builder stringContains(String key, final String... values) {
+            return condition(key, (token, parser) -> token == JsonToken.VALUE_STRING && regionMatchesAny(parser.getText(), values, false, false));
+        }
+
+        /**
+         * The string at the key begins with any of the values.
+         */
+        public Builder stringBeginsWith(String key, final String... values) {
+            return condition(key, (token, parser) -> token == JsonToken.VALUE_STRING && regionMatchesAny(parser.getText(), values, true, false));
+        }
+
+        /**
+         * The string at the key ends with any of the values.
+         */
+        public Builder stringEndsWith(String key, final String... values) {
+            return condition(key, (token, parser) -> token == JsonToken.VALUE_STRING && regionMatchesAny(parser.getText(), values, false, true));
+        }
+
+        /**
+         * The string at the key is one of the values.
+         */
+        public Builder stringIn(String key, String... values) {
+            final Set<String> set = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            set.addAll(Arrays.asList(values));
+            return condition(key, (token, parser) -> token == JsonToken.VALUE_STRING && set.contains(parser.getText()));
+        }
+
+        /**
+         * The string at the key is none of the values.
+         */
+        public Builder stringNotIn(String key, String... values) {
+            final Set<String> set = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            set.addAll(Arrays.asList(values));
+            return condition(key, (token, parser) -> token == JsonToken.VALUE_STRING && !set.contains(parser.getText()));
+        }
+
+        /**
+         * The bool at the key equals the value.
+         */
+        public Builder boolEquals(String key, final boolean value) {
+            return condition(key, (token, parser) -> token == (value ? JsonToken.VALUE_TRUE : JsonToken.VALUE_FALSE));
+        }
+
+        /**
+         * @return the filter with its tries and field tree built
+         */
+        public EventFilter build() {
+            return new EventFilter(this);
+        }
+
+        private Builder condition(String key, Condition condition) {
+            if (conditionCount == 64) {
+                throw new IllegalArgumentException("A filter supports up to 64 advanced filters");
+            }
+            FieldNode node = fields;
+            for (String segment : key.split("\\.")) {
+                node = node.children.computeIfAbsent(segment, name -> new FieldNode());
+            }
+            node.conditions.add(condition);
+            node.conditionBits.add(1L << conditionCount++);
+            return this;
+        }
+    }
+}
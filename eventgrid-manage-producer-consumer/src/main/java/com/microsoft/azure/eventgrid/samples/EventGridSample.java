@@ -13,31 +13,38 @@ import com.microsoft.azure.eventgrid.models.EventGridEvent;
 import com.microsoft.azure.eventhubs.EventData;
 import com.microsoft.azure.eventhubs.EventHubClient;
 import com.microsoft.azure.eventhubs.EventHubRuntimeInformation;
-import com.microsoft.azure.eventhubs.EventPosition;
-import com.microsoft.azure.eventhubs.PartitionReceiver;
 import com.microsoft.azure.management.eventgrid.v2018_01_01.EventHubEventSubscriptionDestination;
 import com.microsoft.azure.management.eventgrid.v2018_01_01.EventSubscription;
-import com.microsoft.azure.management.eventgrid.v2018_01_01.EventSubscriptionFilter;
 import com.microsoft.azure.management.eventgrid.v2018_01_01.Topic;
+import com.microsoft.azure.management.eventgrid.v2018_01_01.TopicSharedAccessKeys;
 import com.microsoft.azure.management.eventgrid.v2018_01_01.implementation.EventGridManager;
 import com.microsoft.azure.management.eventhub.EventHub;
 import com.microsoft.azure.management.eventhub.EventHubAuthorizationRule;
 import com.microsoft.azure.management.eventhub.EventHubNamespace;
 import com.microsoft.azure.management.eventhub.EventHubNamespaceSkuType;
 import com.microsoft.azure.management.eventhub.implementation.EventHubManager;
+import com.microsoft.azure.management.resources.ResourceGroup;
 import com.microsoft.azure.management.resources.fluentcore.arm.Region;
 import com.microsoft.azure.management.resources.fluentcore.utils.SdkContext;
 import com.microsoft.azure.management.resources.implementation.ResourceManager;
 import com.microsoft.rest.LogLevel;
 import org.joda.time.DateTime;
+import rx.Observable;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URI;
-import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
 /**
  * Azure Event Grid sample for publishing and consuming custom events
@@ -59,87 +66,119 @@ public class EventGridSample {
      * @return true if sample runs successfully
      */
     public static boolean runSample() {
-        final String rgName = SdkContext.randomResourceName("rgeventgrid", 24);
-        final String eventHubNamespaceName = SdkContext.randomResourceName("ehns", 24);
+        // Resources named through the environment are reused by later runs and kept; otherwise the sample
+        // creates uniquely named resources and deletes its resource group at the end
+        final boolean keepResources = setting("EVENTGRID_SAMPLE_RESOURCE_GROUP", null) != null;
+        final String rgName = setting("EVENTGRID_SAMPLE_RESOURCE_GROUP", SdkContext.randomResourceName("rgeventgrid", 24));
+        final String eventHubNamespaceName = setting("EVENTGRID_SAMPLE_EVENTHUB_NAMESPACE", SdkContext.randomResourceName("ehns", 24));
         final String eventHubRuleName = "ehRule1";
-        final String topicName = SdkContext.randomResourceName("topicsample", 24);
+        final String topicName = setting("EVENTGRID_SAMPLE_TOPIC_NAME", SdkContext.randomResourceName("topicsample", 24));
         final String eventSubscriptionName = "EventSubscription1";
         final String defaultRegion = Region.US_WEST.label();
 
-        try {
-
-            //============================================================
-            // Create a resource group.
-            //
-            System.out.println("Creating a resource group");
-            resourceManager.resourceGroups().define(rgName)
-                .withRegion(defaultRegion)
-                .create();
-
-            System.out.println("Resource group created with name " + rgName);
-
-            //============================================================
-            // Create an event hub.
-            //
-            System.out.println("Creating an Azure EventHub");
-
-            EventHubNamespace eventHubNamespace = eventHubManager.namespaces().define(eventHubNamespaceName)
-                .withRegion(defaultRegion)
-                .withExistingResourceGroup(rgName)
-                .withAutoScaling()
-                .withSku(EventHubNamespaceSkuType.STANDARD)
-                .withNewEventHub("eh1", 2, 1)
-                .withNewManageRule("rule1")
-                .withTag("key1", "value1")
-                .create();
-
-            System.out.println("EventHub namespace created with name " + eventHubNamespace.name());
+        // Events this consumer is interested in. The subject and event type rules are pushed to the subscription;
+        // the whole filter also runs on the consumer, on the raw message, before the events are dispatched.
+        final EventFilter consumerFilter = EventFilter.builder()
+            .subjectBeginsWith("Door")
+            .includedEventTypes("Contoso.Items.ItemReceived")
+            .stringBeginsWith("data.itemSku", "Contoso Item SKU")
+            .build();
 
-            EventHub eventHub = eventHubNamespace.listEventHubs().get(0);
-            System.out.println("EventHub created with name " + eventHub.name());
+        // The outbox of a topic lives in the same place whatever the working directory, so a run reusing the topic
+        // publishes the events a failed run left behind
+        final Path outboxDirectory = Paths.get(setting("EVENTGRID_OUTBOX_DIR",
+            Paths.get(System.getProperty("user.home"), ".eventgrid-samples", "outbox").toString()), topicName);
 
-            System.out.println("EventHub update with new managed rule");
-            eventHub.update()
-                .withNewManageRule(eventHubRuleName)
-                .apply();
+        Path checkpointFile = null;
+        try {
 
             //============================================================
-            // Create an event grid topic.
+            // Provision the resources. Steps start as soon as the steps they depend on are done,
+            // so the EventHub namespace and the EventGrid topic are created in parallel.
             //
-            System.out.println("Creating an Azure EventGrid topic");
-
-            Topic eventGridTopic = eventGridManager.topics().define(topicName)
-                .withRegion(defaultRegion)
-                .withExistingResourceGroup(rgName)
-                .withTag("key1", "value1")
-                .withTag("key2", "value2")
-                .create();
-
-            System.out.println("EventGrid topic created with name " + eventGridTopic.name());
-
-            //============================================================
-            // Create an event grid subscription.
+            //   resource group -> EventHub namespace -> EventHub managed rule --> EventGrid subscription
+            //                  -> EventGrid topic -------------------------------^
+            //                                     -> EventGrid topic keys
             //
-            System.out.println("Creating an Azure EventGrid Subscription");
-
-            EventSubscription eventSubscription = eventGridManager.eventSubscriptions().define(eventSubscriptionName)
-                .withScope(eventGridTopic.id())
-                .withDestination(new EventHubEventSubscriptionDestination()
-                    .withResourceId(eventHub.id()))
-                .withFilter(new EventSubscriptionFilter()
-                    .withIsSubjectCaseSensitive(false)
-                    .withSubjectBeginsWith("")
-                    .withSubjectEndsWith(""))
-                .create();
-
-            System.out.println("EventGrid event subscription created with name " + eventSubscription.name());
+            System.out.println("Provisioning the resource group, EventHub, EventGrid topic and subscription");
+
+            ResourceProvisioner.ProvisionedResources resources = new ResourceProvisioner()
+                .step("resourceGroup", ResourceGroup.class,
+                    existing -> resourceManager.resourceGroups().getByNameAsync(rgName),
+                    created -> resourceManager.resourceGroups().define(rgName)
+                        .withRegion(defaultRegion)
+                        .createAsync())
+                .step("eventHubNamespace", EventHubNamespace.class,
+                    existing -> eventHubManager.namespaces().getByResourceGroupAsync(rgName, eventHubNamespaceName),
+                    created -> eventHubManager.namespaces().define(eventHubNamespaceName)
+                        .withRegion(defaultRegion)
+                        .withExistingResourceGroup(rgName)
+                        .withAutoScaling()
+                        .withSku(EventHubNamespaceSkuType.STANDARD)
+                        .withNewEventHub("eh1", 2, 1)
+                        .withNewManageRule("rule1")
+                        .withTag("key1", "value1")
+                        .createAsync(),
+                    "resourceGroup")
+                .step("eventHub", EventHub.class,
+                    existing -> existing.get("eventHubNamespace", EventHubNamespace.class).listEventHubsAsync().take(1)
+                        .flatMap(hub -> hub.listAuthorizationRulesAsync()
+                            .filter(rule -> rule.name().equals(eventHubRuleName))
+                            .take(1)
+                            .map(rule -> hub)),
+                    created -> created.get("eventHubNamespace", EventHubNamespace.class).listEventHubsAsync().first()
+                        .flatMap(hub -> hub.update()
+                            .withNewManageRule(eventHubRuleName)
+                            .applyAsync()),
+                    "eventHubNamespace")
+                .step("topic", Topic.class,
+                    existing -> eventGridManager.topics().getByResourceGroupAsync(rgName, topicName),
+                    created -> eventGridManager.topics().define(topicName)
+                        .withRegion(defaultRegion)
+                        .withExistingResourceGroup(rgName)
+                        .withTag("key1", "value1")
+                        .withTag("key2", "value2")
+                        .createAsync(),
+                    "resourceGroup")
+                .step("eventSubscription", EventSubscription.class,
+                    // A reused subscription gets the filter of this run, otherwise it would keep delivering what an
+                    // earlier filter let through
+                    existing -> eventGridManager.eventSubscriptions().getAsync(existing.get("topic", Topic.class).id(), eventSubscriptionName)
+                        .flatMap(subscription -> consumerFilter.isAppliedBy(subscription.filter())
+                            ? Observable.just(subscription)
+                            : subscription.update()
+                                .withFilter(consumerFilter.toSubscriptionFilter())
+                                .applyAsync()),
+                    created -> eventGridManager.eventSubscriptions().define(eventSubscriptionName)
+                        .withScope(created.get("topic", Topic.class).id())
+                        .withDestination(new EventHubEventSubscriptionDestination()
+                            .withResourceId(created.get("eventHub", EventHub.class).id()))
+                        .withFilter(consumerFilter.toSubscriptionFilter())
+                        .createAsync(),
+                    "topic", "eventHub")
+                .step("topicKeys", TopicSharedAccessKeys.class,
+                    created -> eventGridManager.topics().listSharedAccessKeysAsync(rgName, topicName),
+                    "topic")
+                .provision(30, TimeUnit.MINUTES);
+
+            System.out.println("Resource group ready with name " + rgName);
+
+            EventHubNamespace eventHubNamespace = resources.get("eventHubNamespace", EventHubNamespace.class);
+            System.out.println("EventHub namespace ready with name " + eventHubNamespace.name());
+
+            EventHub eventHub = resources.get("eventHub", EventHub.class);
+            System.out.println("EventHub ready with name " + eventHub.name());
+
+            Topic eventGridTopic = resources.get("topic", Topic.class);
+            System.out.println("EventGrid topic ready with name " + eventGridTopic.name());
+
+            EventSubscription eventSubscription = resources.get("eventSubscription", EventSubscription.class);
+            System.out.println("EventGrid event subscription ready with name " + eventSubscription.name());
 
             //============================================================
             // Retrieve the event grid client connection key.
             //
-            System.out.println("Retrieve the event grid client connection key");
-
-            String eventGridClientKey = eventGridManager.topics().listSharedAccessKeysAsync(rgName, topicName).toBlocking().last().key1();
+            String eventGridClientKey = resources.get("topicKeys", TopicSharedAccessKeys.class).key1();
 
             System.out.format("Found EventGrid client connection key \"%s\" for endpoint \"%s\"\n", eventGridClientKey, eventGridTopic.endpoint());
 
@@ -158,21 +197,33 @@ public class EventGridSample {
             //
 
             System.out.println("Publish custom events to the EventGrid");
-            List<EventGridEvent> eventsList = new ArrayList<>();
-            for (int i = 0; i < 5; i++) {
-                eventsList.add(new EventGridEvent(
-                    SdkContext.randomUuid(),
-                    String.format("Door%d", i),
-                    new ContosoItemReceivedEventData("Contoso Item SKU #1"),
-                    "Contoso.Items.ItemReceived",
-                    DateTime.now(),
-                    "2.0"
-                ));
-            }
-
             String eventGridEndpoint = String.format("https://%s/", new URI(eventGridTopic.endpoint()).getHost());
 
-            client.publishEvents(eventGridEndpoint, eventsList);
+            // Events are appended to a local memory-mapped outbox and published in the background in large batches;
+            // when the topic is unreachable they stay in the outbox and are published once it is back, even after a restart;
+            // events the topic rejects are kept next to the outbox
+            DeadLetterSpool deadLetterSpool = new DeadLetterSpool(
+                outboxDirectory.resolveSibling(outboxDirectory.getFileName() + "-dead-letters.jsonl"));
+            try (AsyncEventGridPublisher asyncPublisher = new AsyncEventGridPublisher(client, eventGridEndpoint, EventGridBatchPublisher.DEFAULT_MAX_IN_FLIGHT_BATCHES);
+                 EventOutbox outbox = new EventOutbox(outboxDirectory, 16 * 1024 * 1024, 64, asyncPublisher::publishAsync)
+                     .withDeadLetterSpool(deadLetterSpool)
+                     .start()) {
+                List<EventGridEvent> events = new ArrayList<>();
+                for (int i = 0; i < 5; i++) {
+                    events.add(new EventGridEvent(
+                        SdkContext.randomUuid(),
+                        String.format("Door%d", i),
+                        new ContosoItemReceivedEventData("Contoso Item SKU #1"),
+                        "Contoso.Items.ItemReceived",
+                        DateTime.now(),
+                        "2.0"
+                    ));
+                }
+                outbox.append(events);
+                outbox.awaitDrained(2, TimeUnit.MINUTES);
+            }
+            // Everything was published and the outbox is closed, nothing is left to recover
+            deleteDirectory(outboxDirectory);
 
             System.out.println("Done publishing custom events to the EventGrid");
 
@@ -186,7 +237,7 @@ public class EventGridSample {
                 return false;
             }
             final String eventHubConnectionString = eventHubRule.getKeys().primaryConnectionString();
-            final ExecutorService executorService = Executors.newSingleThreadExecutor();
+            final ExecutorService executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
             final EventHubClient ehClient = EventHubClient.createSync(eventHubConnectionString, executorService);
             final EventHubRuntimeInformation eventHubInfo = ehClient.getRuntimeInformation().get();
             System.out.format("EventHub Runtime information\n\tpath: %s\n\tpartition count: %d\n\tcreated at: %s\n", eventHubInfo.getPath(), eventHubInfo.getPartitionCount(), eventHubInfo.getCreatedAt().toString());
@@ -199,69 +250,101 @@ public class EventGridSample {
 
             System.out.println("Receive custom events from the EventGrid");
 
-            try {
-                for (int idx = 0; idx < eventHubInfo.getPartitionCount(); idx++) {
-                    final String partitionId = eventHubInfo.getPartitionIds()[idx]; // get first partition's id
-
-                    final PartitionReceiver receiver = ehClient.createEpochReceiverSync(
-                        EventHubClient.DEFAULT_CONSUMER_GROUP_NAME,
-                        partitionId,
-                        EventPosition.fromStartOfStream(),
-                        2345);
-
-                    System.out.println("receiver created from sequenceNumber...");
-
-                    int receivedCount = 0;
-                    while (receivedCount++ < 1) {
-                        receiver.receive(10)
-                            .thenAcceptAsync(receivedEvents -> {
-                                int batchSize = 0;
-                                if (receivedEvents != null) {
-                                    for (EventData receivedEvent : receivedEvents) {
-                                        System.out.print(String.format("Offset: %s, SeqNo: %s, EnqueueTime: %s",
-                                            receivedEvent.getSystemProperties().getOffset(),
-                                            receivedEvent.getSystemProperties().getSequenceNumber(),
-                                            receivedEvent.getSystemProperties().getEnqueuedTime()));
-
-                                        if (receivedEvent.getBytes() != null)
-                                            System.out.println(String.format("| Message Payload: %s", new String(receivedEvent.getBytes(), Charset.defaultCharset())));
-                                        batchSize++;
-                                    }
-                                }
-
-                                System.out.println(String.format("ReceivedBatch Size: %s", batchSize));
-                            }, executorService).get();
+            // Checkpoints are batched in memory and written every 5 seconds or every 1000 events; the file is named
+            // after the EventHub, so a run reusing the resources named through the environment resumes from it
+            checkpointFile = Paths.get("checkpoints", String.format("%s-%s-%s.txt",
+                eventHubNamespaceName, eventHub.name(), EventHubClient.DEFAULT_CONSUMER_GROUP_NAME.replace("$", "")));
+            final PartitionCheckpointer checkpointer = new PartitionCheckpointer(
+                new FileCheckpointStore(checkpointFile),
+                5000,
+                1000);
+            final CountDownLatch eventsReceived = new CountDownLatch(5);
+            // Events are formatted and printed by a background writer; payloads are truncated to 1024 characters
+            // EventHubs redeliver events after a receiver restart; remember the EventGrid event ids handled in the last hour
+            final EventDeduplicator deduplicator = new EventDeduplicator(100000, TimeUnit.HOURS.toMillis(1));
+            final AsyncSampledLogger receiveLog = new AsyncSampledLogger(System.out, 8192)
+                .withMaxPayloadChars(1024);
+            // Events of the same subject (Door0..DoorN) are handled in order on one lane, different subjects in
+            // parallel on all cores; a partition checkpoint only passes events whose predecessors are all handled
+            // Each message is parsed once, by the filter on the partition loop; the subject and id of the events it
+            // lets through travel with them to their lane
+            final SubjectLaneProcessor<EventFilter.Result> lanes = new SubjectLaneProcessor<>(
+                Runtime.getRuntime().availableProcessors(),
+                1000,
+                receivedEvent -> {
+                    EventFilter.Result result = consumerFilter.evaluate(receivedEvent.getBytes());
+                    return result.matches() ? result : null;
+                },
+                EventFilter.Result::subject,
+                (partitionId, receivedEvent, result) -> {
+                    String eventId = result.id();
+                    if (eventId != null && !deduplicator.firstSeen(eventId)) {
+                        return;
                     }
-                    // cleaning up receivers is paramount;
-                    // Quota limitation on maximum number of concurrent receivers per consumergroup per partition is 5
-                    receiver.closeSync();
-//                        .thenComposeAsync(aVoid -> ehClient.close(), executorService)
-//                        .whenCompleteAsync((t, u) -> {
-//                            if (u != null) {
-//                                // wire-up this error to diagnostics infrastructure
-//                                System.out.println(String.format("closing failed with error: %s", u.toString()));
-//                            }
-//                        }, executorService).get();
+                    if (receiveLog.isLoggable(Level.INFO, partitionId)) {
+                        receiveLog.log(Level.INFO, "Partition: %s, Offset: %s, SeqNo: %s, EnqueueTime: %s| Message Payload: %s",
+                            partitionId,
+                            receivedEvent.getSystemProperties().getOffset(),
+                            receivedEvent.getSystemProperties().getSequenceNumber(),
+                            receivedEvent.getSystemProperties().getEnqueuedTime(),
+                            receivedEvent.getBytes());
+                    }
+                    eventsReceived.countDown();
+                })
+                .withCheckpointer(checkpointer);
+            final EventHubPartitionPump pump = new EventHubPartitionPump(
+                ehClient,
+                EventHubClient.DEFAULT_CONSUMER_GROUP_NAME,
+                lanes)
+                .withStartingPosition(checkpointer::startingPosition)
+                .withEpoch(2345)
+                .withMaxBatchSize(10);
+
+            try {
+                // One receive loop per partition, all running concurrently
+                pump.start(eventHubInfo.getPartitionIds());
+                if (!eventsReceived.await(2, TimeUnit.MINUTES)) {
+                    System.out.println("Timed out waiting for the custom events");
                 }
             } finally {
+                // cleaning up receivers is paramount;
+                // Quota limitation on maximum number of concurrent receivers per consumergroup per partition is 5
+                pump.close();
+                lanes.close();
+                checkpointer.close();
+                receiveLog.close();
                 ehClient.closeSync();
                 executorService.shutdown();
             }
             System.out.println("Done receive custom events from the EventGrid");
+            System.out.format("Skipped %d duplicate events\n", deduplicator.hits());
+            System.out.format("Filtered out %d events\n", SubjectLaneProcessor.eventsFiltered.sum());
+
+            // Publish latency, batch sizes, retries and partition lag; also available through JMX and,
+            // when EVENTGRID_METRICS_PORT is set, on http://localhost:<port>/metrics
+            System.out.print(EventGridMetrics.render());
 
             return true;
         } catch (Exception e) {
             System.err.println(e.getMessage());
             e.printStackTrace();
         } finally {
-            try {
-                System.out.println("Deleting Resource Group: " + rgName);
-                resourceManager.resourceGroups().beginDeleteByName(rgName);
-                System.out.println("Deleted Resource Group: " + rgName);
-            } catch (NullPointerException npe) {
-                System.out.println("Did not create any resources in Azure. No clean up is necessary");
-            } catch (Exception g) {
-                g.printStackTrace();
+            if (keepResources) {
+                System.out.println("Keeping Resource Group: " + rgName);
+            } else {
+                try {
+                    System.out.println("Deleting Resource Group: " + rgName);
+                    resourceManager.resourceGroups().beginDeleteByName(rgName);
+                    System.out.println("Deleted Resource Group: " + rgName);
+                    if (checkpointFile != null) {
+                        Files.deleteIfExists(checkpointFile);
+                    }
+                    deleteDirectory(outboxDirectory);
+                } catch (NullPointerException npe) {
+                    System.out.println("Did not create any resources in Azure. No clean up is necessary");
+                } catch (Exception g) {
+                    g.printStackTrace();
+                }
             }
         }
         return false;
@@ -280,6 +363,30 @@ public class EventGridSample {
     }
 
 
+    /**
+     * Reads a setting from the environment.
+     * @return the setting value, or the default value when the setting is not present or empty
+     */
+    private static String setting(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value != null && !value.trim().isEmpty() ? value.trim() : defaultValue;
+    }
+
+    /**
+     * Deletes a directory and its files, if it exists.
+     */
+    private static void deleteDirectory(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        List<Path> files = new ArrayList<>();
+        Files.walk(directory).forEach(files::add);
+        files.sort(Comparator.reverseOrder());
+        for (Path file : files) {
+            Files.deleteIfExists(file);
+        }
+    }
+
     /**
      * Main entry point.
      * @param args the parameters
@@ -0,0 +1,362 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import com.microsoft.azure.eventhubs.EventData;
+import com.microsoft.azure.eventhubs.EventHubClient;
+import com.microsoft.azure.eventhubs.EventHubException;
+import com.microsoft.azure.eventhubs.EventPosition;
+import com.microsoft.azure.eventhubs.PartitionReceiver;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Continuous EventHub consumer running one receive loop per partition concurrently.
+ *  - Each partition keeps a single epoch receiver open for the lifetime of the pump.
+ *  - Events of a partition are handed to the handler in order, on the partition's own loop.
+ *  - Back-pressure: a partition only asks for more events once the handler has finished the previous
+ *    batch, the receiver prefetch is bounded, and the number of handler calls running at once is capped.
+ *  - Loops run on virtual threads when the JVM supports them, otherwise on one platform thread per partition.
+ */
+public class EventHubPartitionPump implements AutoCloseable {
+    /**
+     * Receives the events of one partition, in partition order.
+     */
+    public interface PartitionEventHandler {
+        void onEvents(String partitionId, List<EventData> events) throws Exception;
+
+        /**
+         * @return true when the handler returns before the events are handled, and records the lag of each event
+         *         itself once it is, see {@link #recordLag(String, EventData, long)}
+         */
+        default boolean recordsLag() {
+            return false;
+        }
+    }
+
+    /**
+     * Notified when a partition loop hits an error; the loop reopens its receiver afterwards.
+     */
+    public interface PartitionErrorHandler {
+        void onError(String partitionId, Throwable error);
+    }
+
+    private static final long RETRY_BACKOFF_MILLIS = 1000;
+
+    private static final LongAdder eventsReceived = EventGridMetrics.counter("receive_events");
+    private static final Map<String, LatencyHistogram> partitionLags = new ConcurrentHashMap<>();
+
+    private final EventHubClient client;
+    private final String consumerGroup;
+    private final PartitionEventHandler handler;
+    private PartitionErrorHandler errorHandler = (partitionId, error) ->
+        System.err.println(String.format("Partition %s receive failed: %s", partitionId, error));
+    private Function<String, EventPosition> startingPosition = partitionId -> EventPosition.fromStartOfStream();
+    private int maxBatchSize = 100;
+    private int prefetchCount = 500;
+    private Duration receiveTimeout = Duration.ofSeconds(5);
+    private long epoch = 0;
+    private Semaphore handlerPermits = new Semaphore(Integer.MAX_VALUE);
+    private ExecutorService executor;
+    private boolean ownsExecutor;
+    private PartitionCheckpointer checkpointer;
+
+    private final Map<String, PartitionReceiver> receivers = new ConcurrentHashMap<>();
+    private final Map<String, String> lastOffsets = new ConcurrentHashMap<>();
+    private volatile boolean running;
+
+    /**
+     * Creates a pump; call {@link #start(String[])} to begin receiving.
+     * @param client the EventHub client
+     * @param consumerGroup the consumer group to read from
+     * @param handler the handler receiving the event batches
+     */
+    public EventHubPartitionPump(EventHubClient client, String consumerGroup, PartitionEventHandler handler) {
+        this.client = client;
+        this.consumerGroup = consumerGroup;
+        this.handler = handler;
+    }
+
+    /**
+     * @param maxBatchSize the maximum number of events passed to a single handler call
+     * @return this pump
+     */
+    public EventHubPartitionPump withMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * @param prefetchCount the number of events each receiver buffers ahead of the handler
+     * @return this pump
+     */
+    public EventHubPartitionPump withPrefetchCount(int prefetchCount) {
+        this.prefetchCount = prefetchCount;
+        return this;
+    }
+
+    /**
+     * @param receiveTimeout how long an idle receive call waits before the loop checks for shutdown
+     * @return this pump
+     */
+    public EventHubPartitionPump withReceiveTimeout(Duration receiveTimeout) {
+        this.receiveTimeout = receiveTimeout;
+        return this;
+    }
+
+    /**
+     * @param maxConcurrentHandlers the maximum number of partitions whose handler runs at the same time
+     * @return this pump
+     */
+    public EventHubPartitionPump withMaxConcurrentHandlers(int maxConcurrentHandlers) {
+        this.handlerPermits = new Semaphore(maxConcurrentHandlers);
+        return this;
+    }
+
+    /**
+     * @param epoch the epoch of the receivers; a higher epoch disconnects receivers with a lower one
+     * @return this pump
+     */
+    public EventHubPartitionPump withEpoch(long epoch) {
+        this.epoch = epoch;
+        return this;
+    }
+
+    /**
+     * @param startingPosition resolves where each partition starts reading when the pump starts
+     * @return this pump
+     */
+    public EventHubPartitionPump withStartingPosition(Function<String, EventPosition> startingPosition) {
+        this.startingPosition = startingPosition;
+        return this;
+    }
+
+    /**
+     * Resumes each partition from its last checkpoint and records a checkpoint after every handled batch.
+     * @param checkpointer the checkpointer persisting the partition positions
+     * @return this pump
+     */
+    public EventHubPartitionPump withCheckpointer(PartitionCheckpointer checkpointer) {
+        this.checkpointer = checkpointer;
+        this.startingPosition = checkpointer::startingPosition;
+        return this;
+    }
+
+    /**
+     * @param errorHandler the callback notified about receive and handler errors
+     * @return this pump
+     */
+    public EventHubPartitionPump withErrorHandler(PartitionErrorHandler errorHandler) {
+        this.errorHandler = errorHandler;
+        return this;
+    }
+
+    /**
+     * @param executor the pool running the partition loops; it must allow one running task per partition
+     * @return this pump
+     */
+    public EventHubPartitionPump withExecutor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Starts one receive loop per partition.
+     * @param partitionIds the partitions to receive from
+     */
+    public synchronized void start(String[] partitionIds) {
+        if (running) {
+            throw new IllegalStateException("The pump is already running");
+        }
+        if (executor == null) {
+            executor = newPartitionExecutor(partitionIds.length);
+            ownsExecutor = true;
+        }
+        running = true;
+        for (final String partitionId : partitionIds) {
+            executor.execute(() -> receiveLoop(partitionId));
+        }
+    }
+
+    /**
+     * Stops the receive loops and closes the receivers.
+     * @throws InterruptedException if interrupted while waiting for the loops to finish
+     */
+    @Override
+    public synchronized void close() throws InterruptedException {
+        running = false;
+        if (ownsExecutor && executor != null) {
+            executor.shutdown();
+            if (!executor.awaitTermination(receiveTimeout.toMillis() * 2, TimeUnit.MILLISECONDS)) {
+                executor.shutdownNow();
+            }
+        }
+        for (PartitionReceiver receiver : receivers.values()) {
+            closeQuietly(receiver);
+        }
+        receivers.clear();
+    }
+
+    private void receiveLoop(String partitionId) {
+        LatencyHistogram lagMillis = partitionLagMillis(partitionId);
+        PartitionReceiver receiver = null;
+        while (running) {
+            try {
+                if (receiver == null) {
+                    receiver = openReceiver(partitionId);
+                }
+
+                Iterable<EventData> received = receiver.receiveSync(maxBatchSize);
+                if (received == null) {
+                    continue;
+                }
+                List<EventData> batch = toList(received);
+                if (batch.isEmpty()) {
+                    continue;
+                }
+
+                handlerPermits.acquire();
+                try {
+                    handler.onEvents(partitionId, batch);
+                } finally {
+                    handlerPermits.release();
+                }
+                if (!handler.recordsLag()) {
+                    recordLag(lagMillis, batch);
+                }
+                eventsReceived.add(batch.size());
+                lastOffsets.put(partitionId, batch.get(batch.size() - 1).getSystemProperties().getOffset());
+                if (checkpointer != null) {
+                    checkpointer.processed(partitionId, batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                if (!running) {
+                    break;
+                }
+                errorHandler.onError(partitionId, e);
+                if (receiver != null) {
+                    receivers.remove(partitionId, receiver);
+                    closeQuietly(receiver);
+                    receiver = null;
+                }
+                try {
+                    Thread.sleep(RETRY_BACKOFF_MILLIS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        if (receiver != null && receivers.remove(partitionId, receiver)) {
+            closeQuietly(receiver);
+        }
+    }
+
+    private PartitionReceiver openReceiver(String partitionId) throws EventHubException {
+        // After an error, resume right after the last event handed to the handler instead of the initial position
+        String lastOffset = lastOffsets.get(partitionId);
+        EventPosition position = lastOffset != null
+            ? EventPosition.fromOffset(lastOffset, false)
+            : startingPosition.apply(partitionId);
+
+        PartitionReceiver receiver = client.createEpochReceiverSync(consumerGroup, partitionId, position, epoch);
+        receiver.setPrefetchCount(prefetchCount);
+        receiver.setReceiveTimeout(receiveTimeout);
+        receivers.put(partitionId, receiver);
+        return receiver;
+    }
+
+    /**
+     * Gets the histogram of the time between an event being enqueued in a partition and being processed.
+     * @param partitionId the partition id
+     * @return the lag histogram of the partition, in milliseconds
+     */
+    static LatencyHistogram partitionLagMillis(String partitionId) {
+        LatencyHistogram lag = partitionLags.get(partitionId);
+        return lag != null ? lag : partitionLags.computeIfAbsent(partitionId,
+            id -> EventGridMetrics.histogram("receive_partition_" + id + "_lag_millis"));
+    }
+
+    /**
+     * Records the time between each event being enqueued and its handler call returning.
+     */
+    private static void recordLag(LatencyHistogram lagMillis, List<EventData> batch) {
+        long now = System.currentTimeMillis();
+        for (EventData event : batch) {
+            recordLag(lagMillis, event, now);
+        }
+    }
+
+    /**
+     * Records the time between an event being enqueued and being handled, for handlers which record the lag
+     * of their events themselves.
+     * @param partitionId the partition id
+     * @param event the handled event
+     * @param nowMillis the current time
+     */
+    static void recordLag(String partitionId, EventData event, long nowMillis) {
+        recordLag(partitionLagMillis(partitionId), event, nowMillis);
+    }
+
+    private static void recordLag(LatencyHistogram lagMillis, EventData event, long nowMillis) {
+        Instant enqueuedTime = event.getSystemProperties() != null ? event.getSystemProperties().getEnqueuedTime() : null;
+        if (enqueuedTime != null) {
+            lagMillis.record(nowMillis - enqueuedTime.toEpochMilli());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<EventData> toList(Iterable<EventData> events) {
+        if (events instanceof List) {
+            return (List<EventData>) events;
+        }
+        List<EventData> list = new ArrayList<>();
+        for (EventData event : events) {
+            list.add(event);
+        }
+        return list;
+    }
+
+    private static void closeQuietly(PartitionReceiver receiver) {
+        try {
+            // Quota limitation on maximum number of concurrent receivers per consumergroup per partition is 5
+            receiver.closeSync();
+        } catch (Exception e) {
+            System.err.println(String.format("Closing receiver for partition %s failed: %s", receiver.getPartitionId(), e));
+        }
+    }
+
+    /**
+     * Uses a virtual thread per partition loop when running on a JVM that supports them.
+     */
+    static ExecutorService newPartitionExecutor(int partitionCount) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            final AtomicInteger count = new AtomicInteger();
+            return Executors.newFixedThreadPool(Math.max(1, partitionCount), runnable -> {
+                Thread thread = new Thread(runnable, "eventhub-partition-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Checkpoint store keeping one line per partition ("partitionId offset sequenceNumber") in a local file.
+ *  - Every save rewrites a temporary file and atomically moves it over the previous one,
+ *    so a crash during a save leaves the last complete set of checkpoints in place.
+ */
+public class FileCheckpointStore implements CheckpointStore {
+    private final Path file;
+    private final Map<String, Checkpoint> checkpoints = new TreeMap<>();
+
+    /**
+     * @param file the checkpoint file, for example "checkpoints/eh1-$Default.txt"
+     */
+    public FileCheckpointStore(Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public synchronized Map<String, Checkpoint> loadCheckpoints() throws IOException {
+        checkpoints.clear();
+        if (Files.exists(file)) {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                String[] fields = line.trim().split(" ");
+                if (fields.length != 3) {
+                    continue;
+                }
+                checkpoints.put(fields[0], new Checkpoint(fields[0], fields[1], Long.parseLong(fields[2])));
+            }
+        }
+        return new HashMap<>(checkpoints);
+    }
+
+    @Override
+    public synchronized void saveCheckpoints(Collection<Checkpoint> updates) throws IOException {
+        for (Checkpoint checkpoint : updates) {
+            checkpoints.put(checkpoint.partitionId(), checkpoint);
+        }
+
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Checkpoint checkpoint : checkpoints.values()) {
+                writer.write(checkpoint.partitionId());
+                writer.write(' ');
+                writer.write(checkpoint.offset());
+                writer.write(' ');
+                writer.write(Long.toString(checkpoint.sequenceNumber()));
+                writer.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
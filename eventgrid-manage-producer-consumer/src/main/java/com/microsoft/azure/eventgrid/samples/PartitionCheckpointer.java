@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import com.microsoft.azure.eventhubs.EventData;
+import com.microsoft.azure.eventhubs.EventPosition;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Batches partition checkpoints in memory and persists them to a {@link CheckpointStore}.
+ *  - Recording a processed event only updates an in-memory map.
+ *  - Dirty checkpoints of all partitions are written together every interval, or as soon as
+ *    the given number of events has been processed since the last write; at most one early write is queued at a time.
+ */
+public class PartitionCheckpointer implements AutoCloseable {
+    private final CheckpointStore store;
+    private final long eventsPerWrite;
+    private final Map<String, Checkpoint> committed;
+    private final Map<String, Checkpoint> pending = new ConcurrentHashMap<>();
+    private final AtomicLong eventsSinceWrite = new AtomicLong();
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService timer;
+    private final Object writeLock = new Object();
+
+    /**
+     * Loads the existing checkpoints and starts the periodic writer.
+     * @param store the checkpoint store
+     * @param interval the maximum time between two writes, in milliseconds
+     * @param eventsPerWrite the number of processed events which triggers an early write
+     * @throws IOException if the existing checkpoints cannot be loaded
+     */
+    public PartitionCheckpointer(CheckpointStore store, long interval, long eventsPerWrite) throws IOException {
+        this.store = store;
+        this.eventsPerWrite = eventsPerWrite;
+        this.committed = new ConcurrentHashMap<>(store.loadCheckpoints());
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "eventhub-checkpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.scheduleWithFixedDelay(this::writeQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Resolves where a partition resumes: right after its last committed checkpoint, or the start of the stream.
+     * @param partitionId the partition id
+     * @return the starting position
+     */
+    public EventPosition startingPosition(String partitionId) {
+        Checkpoint checkpoint = committed.get(partitionId);
+        return checkpoint != null ? checkpoint.nextPosition() : EventPosition.fromStartOfStream();
+    }
+
+    /**
+     * Records that a batch of events of a partition has been processed.
+     * @param partitionId the partition id
+     * @param events the processed events, in partition order
+     */
+    public void processed(String partitionId, List<EventData> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        EventData.SystemProperties last = events.get(events.size() - 1).getSystemProperties();
+        pending.put(partitionId, new Checkpoint(partitionId, last.getOffset(), last.getSequenceNumber()));
+        if (eventsSinceWrite.addAndGet(events.size()) >= eventsPerWrite && writeScheduled.compareAndSet(false, true)) {
+            try {
+                timer.execute(this::writeQuietly);
+            } catch (RejectedExecutionException e) {
+                // Closing; the final flush writes the pending checkpoints
+            }
+        }
+    }
+
+    /**
+     * Writes the pending checkpoints now.
+     * @throws IOException if the checkpoints cannot be written
+     */
+    public void flush() throws IOException {
+        synchronized (writeLock) {
+            // Events processed from now on are not part of this write and may schedule the next one
+            writeScheduled.set(false);
+            if (pending.isEmpty()) {
+                return;
+            }
+            eventsSinceWrite.set(0);
+            List<Checkpoint> batch = new ArrayList<>(pending.size());
+            for (String partitionId : pending.keySet()) {
+                Checkpoint checkpoint = pending.remove(partitionId);
+                if (checkpoint != null) {
+                    batch.add(checkpoint);
+                }
+            }
+            try {
+                store.saveCheckpoints(batch);
+            } catch (IOException e) {
+                // Put the checkpoints back unless a newer one was recorded meanwhile
+                for (Checkpoint checkpoint : batch) {
+                    pending.putIfAbsent(checkpoint.partitionId(), checkpoint);
+                }
+                throw e;
+            }
+            for (Checkpoint checkpoint : batch) {
+                committed.put(checkpoint.partitionId(), checkpoint);
+            }
+        }
+    }
+
+    /**
+     * Stops the periodic writer and writes the pending checkpoints.
+     * @throws IOException if the checkpoints cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        timer.shutdown();
+        flush();
+    }
+
+    private void writeQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            System.err.println("Writing EventHub checkpoints failed: " + e);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import com.microsoft.rest.RestException;
+import rx.Observable;
+import rx.Subscription;
+import rx.functions.Func1;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Provisions Azure resources as a dependency graph.
+ *  - Each step declares the steps it depends on and starts as soon as they have all completed,
+ *    so independent steps (for example the EventHub namespace and the EventGrid topic) run in parallel.
+ *  - Steps use the SDK's asynchronous (Observable) operations; no thread is blocked while a resource is created.
+ *  - A step may first look up an existing resource, which is reused instead of being created again; only a
+ *    404 response means the resource is missing, any other lookup error fails the step.
+ *  - When a step fails or the timeout expires, the steps still running are unsubscribed and the pending ones
+ *    never start.
+ *  - The duration of every step is reported when it completes.
+ */
+public class ResourceProvisioner {
+    /**
+     * Resources provisioned by the completed steps, keyed by step name.
+     */
+    public static final class ProvisionedResources {
+        private final Map<String, Object> resources = new ConcurrentHashMap<>();
+
+        /**
+         * @param step the step name
+         * @param type the resource type
+         * @return the resource provisioned by the step
+         */
+        public <T> T get(String step, Class<T> type) {
+            Object resource = resources.get(step);
+            if (resource == null) {
+                throw new IllegalStateException("Step " + step + " has not provisioned a resource");
+            }
+            return type.cast(resource);
+        }
+    }
+
+    private static final class Step<T> {
+        final String name;
+        final Class<T> type;
+        final Func1<ProvisionedResources, Observable<?>> findExisting;
+        final Func1<ProvisionedResources, Observable<?>> create;
+        final String[] dependsOn;
+
+        Step(String name, Class<T> type, Func1<ProvisionedResources, Observable<?>> findExisting,
+             Func1<ProvisionedResources, Observable<?>> create, String[] dependsOn) {
+            this.name = name;
+            this.type = type;
+            this.findExisting = findExisting;
+            this.create = create;
+            this.dependsOn = dependsOn;
+        }
+    }
+
+    private final Map<String, Step<?>> steps = new LinkedHashMap<>();
+    private final Map<String, Long> stepDurations = new ConcurrentHashMap<>();
+    private final ProvisionedResources resources = new ProvisionedResources();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile boolean cancelled;
+
+    /**
+     * Adds a step which always creates its resource.
+     * @param name the step name
+     * @param type the type of the provisioned resource
+     * @param create creates the resource; the last item emitted is the resource
+     * @param dependsOn the steps which must complete first; they must already be added
+     * @return this provisioner
+     */
+    public <T> ResourceProvisioner step(String name, Class<T> type, Func1<ProvisionedResources, Observable<?>> create, String... dependsOn) {
+        return step(name, type, null, create, dependsOn);
+    }
+
+    /**
+     * Adds a step which reuses an existing resource when there is one.
+     * @param name the step name
+     * @param type the type of the provisioned resource
+     * @param findExisting looks up the existing resource; emitting nothing, null or a 404 error means it does not exist
+     * @param create creates the resource; the last item emitted is the resource
+     * @param dependsOn the steps which must complete first; they must already be added
+     * @return this provisioner
+     */
+    public <T> ResourceProvisioner step(String name, Class<T> type, Func1<ProvisionedResources, Observable<?>> findExisting,
+                                        Func1<ProvisionedResources, Observable<?>> create, String... dependsOn) {
+        if (steps.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate provisioning step " + name);
+        }
+        for (String dependency : dependsOn) {
+            if (!steps.containsKey(dependency)) {
+                throw new IllegalArgumentException(String.format("Step %s depends on unknown step %s", name, dependency));
+            }
+        }
+        steps.put(name, new Step<>(name, type, findExisting, create, dependsOn));
+        return this;
+    }
+
+    /**
+     * Runs all steps, each as soon as its dependencies have completed, and waits for the whole graph.
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return the provisioned resources
+     * @throws Exception the failure of the first failed step, or a timeout
+     */
+    public ProvisionedResources provision(long timeout, TimeUnit unit) throws Exception {
+        final long start = System.nanoTime();
+        Map<String, CompletableFuture<Object>> futures = new LinkedHashMap<>();
+        for (final Step<?> step : steps.values()) {
+            List<CompletableFuture<Object>> dependencies = new ArrayList<>();
+            for (String dependency : step.dependsOn) {
+                dependencies.add(futures.get(dependency));
+            }
+            futures.put(step.name, CompletableFuture.allOf(dependencies.toArray(new CompletableFuture[0]))
+                .thenCompose(ignored -> run(step)));
+        }
+
+        try {
+            CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0])).get(timeout, unit);
+        } catch (Exception e) {
+            cancel();
+            if (e instanceof ExecutionException && e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+        System.out.println(String.format("Provisioned %d resources in %d ms", steps.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        return resources;
+    }
+
+    /**
+     * @return the duration of each completed step in milliseconds, keyed by step name
+     */
+    public Map<String, Long> stepDurations() {
+        return stepDurations;
+    }
+
+    /**
+     * Stops waiting on the steps still running and keeps the pending ones from starting; the operations
+     * already sent to Azure are not rolled back.
+     */
+    private void cancel() {
+        cancelled = true;
+        for (Subscription subscription : subscriptions) {
+            subscription.unsubscribe();
+        }
+    }
+
+    /**
+     * @return true when the error is a response with the 404 status, which the lookups return for missing resources
+     */
+    static boolean isNotFound(Throwable error) {
+        return error instanceof RestException
+            && ((RestException) error).response() != null
+            && ((RestException) error).response().code() == 404;
+    }
+
+    private CompletableFuture<Object> run(final Step<?> step) {
+        final CompletableFuture<Object> future = new CompletableFuture<>();
+        if (cancelled) {
+            future.completeExceptionally(new CancellationException("Provisioning was cancelled before step " + step.name));
+            return future;
+        }
+        final long start = System.nanoTime();
+        final AtomicBoolean reused = new AtomicBoolean();
+        System.out.println("Provisioning step " + step.name + " started");
+
+        Observable<Object> resource;
+        if (step.findExisting == null) {
+            resource = step.create.call(resources).cast(Object.class).last();
+        } else {
+            resource = step.findExisting.call(resources).cast(Object.class)
+                .onErrorResumeNext(error -> isNotFound(error) ? Observable.empty() : Observable.error(error))
+                .lastOrDefault(null)
+                .flatMap(existing -> {
+                    if (existing == null) {
+                        return step.create.call(resources).cast(Object.class).last();
+                    }
+                    reused.set(true);
+                    return Observable.just(existing);
+                });
+        }
+
+        Subscription subscription = resource.subscribe(
+            provisioned -> {
+                long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                stepDurations.put(step.name, elapsed);
+                System.out.println(String.format("Provisioning step %s %s in %d ms",
+                    step.name, reused.get() ? "reused an existing resource" : "created its resource", elapsed));
+                resources.resources.put(step.name, step.type.cast(provisioned));
+                future.complete(provisioned);
+            },
+            future::completeExceptionally);
+        subscriptions.add(subscription);
+        if (cancelled) {
+            subscription.unsubscribe();
+        }
+        return future;
+    }
+}
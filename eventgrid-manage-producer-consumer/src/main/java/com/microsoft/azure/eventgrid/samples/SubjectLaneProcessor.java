@@ -0,0 +1,228 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import com.microsoft.azure.eventhubs.EventData;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Partition handler spreading the events of each batch over worker lanes keyed by subject, for example "Door0".
+ *  - Each event is decoded once on the partition loop, for example by an {@link EventFilter}; the decoded form
+ *    travels with the event to its handler, and an event decoded to null is filtered out.
+ *  - All events of a key run on the same lane, in partition order; different keys run in parallel.
+ *  - Events without a key are keyed by their partition, so they stay in partition order.
+ *  - A partition checkpoint only moves past an event once that event and all the events before it are handled.
+ *  - Back-pressure: the partition loop blocks once the given number of events is waiting or running.
+ *  - Events rejected by the filter or the decoder are not dispatched; they only count as handled for the checkpoints.
+ *  - The partition lag of an event is recorded once its handler returns, not when it is dispatched.
+ * Use it with a pump started from the checkpoints (withStartingPosition) but without a checkpointer of its own,
+ * since the pump would record batches as processed as soon as they are dispatched.
+ * @param <T> the decoded form of the events
+ */
+public class SubjectLaneProcessor<T> implements EventHubPartitionPump.PartitionEventHandler, AutoCloseable {
+    /**
+     * Handles a single event on its lane.
+     * @param <T> the decoded form of the events
+     */
+    public interface EventHandler<T> {
+        void onEvent(String partitionId, EventData event, T decoded) throws Exception;
+    }
+
+    /**
+     * Events rejected by the filters of all processors.
+     */
+    static final LongAdder eventsFiltered = EventGridMetrics.counter("receive_events_filtered");
+
+    private final ExecutorService[] lanes;
+    private final Function<EventData, T> decoder;
+    private final Function<T, String> keyOf;
+    private final EventHandler<T> handler;
+    private final Semaphore inFlightPermits;
+    private final Map<String, PartitionProgress> progress = new ConcurrentHashMap<>();
+    private PartitionCheckpointer checkpointer;
+    private Predicate<EventData> filter = event -> true;
+    private EventHubPartitionPump.PartitionErrorHandler errorHandler = (partitionId, error) ->
+        System.err.println(String.format("Partition %s event handler failed: %s", partitionId, error));
+
+    /**
+     * A dispatched event with its decoded form, and whether its handler has returned.
+     */
+    private static final class PendingEvent<T> {
+        final EventData event;
+        T decoded;
+        boolean done;
+
+        PendingEvent(EventData event) {
+            this.event = event;
+        }
+    }
+
+    /**
+     * The events of a partition not yet checkpointed, in partition order.
+     */
+    private static final class PartitionProgress {
+        final ArrayDeque<PendingEvent<?>> pending = new ArrayDeque<>();
+    }
+
+    /**
+     * @param laneCount the number of worker lanes, typically the number of cores
+     * @param maxInFlightEvents the number of dispatched events not yet handled above which the partition loops block
+     * @param decoder decodes an event, or returns null to filter it out
+     * @param keyOf extracts the ordering key of a decoded event, usually its subject; null when the event has none
+     * @param handler the handler receiving the events
+     */
+    public SubjectLaneProcessor(int laneCount, int maxInFlightEvents, Function<EventData, T> decoder,
+                                Function<T, String> keyOf, EventHandler<T> handler) {
+        this.lanes = new ExecutorService[laneCount];
+        ThreadFactory threads = daemonThreads("eventhub-lane");
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = Executors.newSingleThreadExecutor(threads);
+        }
+        this.inFlightPermits = new Semaphore(maxInFlightEvents);
+        this.decoder = decoder;
+        this.keyOf = keyOf;
+        this.handler = handler;
+    }
+
+    /**
+     * @param checkpointer the checkpointer receiving the handled prefix of every partition
+     * @return this processor
+     */
+    public SubjectLaneProcessor<T> withCheckpointer(PartitionCheckpointer checkpointer) {
+        this.checkpointer = checkpointer;
+        return this;
+    }
+
+    /**
+     * @param filter selects the events to handle before they are decoded; it runs on the partition loop
+     * @return this processor
+     */
+    public SubjectLaneProcessor<T> withFilter(Predicate<EventData> filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    /**
+     * @param errorHandler the callback notified when the handler fails; the failed event still counts as handled,
+     *                     so handlers needing redelivery must retry on their own
+     * @return this processor
+     */
+    public SubjectLaneProcessor<T> withErrorHandler(EventHubPartitionPump.PartitionErrorHandler errorHandler) {
+        this.errorHandler = errorHandler;
+        return this;
+    }
+
+    @Override
+    public boolean recordsLag() {
+        return true;
+    }
+
+    @Override
+    public void onEvents(final String partitionId, List<EventData> events) throws InterruptedException {
+        final PartitionProgress partition = progress.computeIfAbsent(partitionId, id -> new PartitionProgress());
+        for (EventData event : events) {
+            final PendingEvent<T> pending = new PendingEvent<>(event);
+            if (filter.test(event)) {
+                pending.decoded = decoder.apply(event);
+            }
+            if (pending.decoded == null) {
+                eventsFiltered.increment();
+                synchronized (partition) {
+                    partition.pending.addLast(pending);
+                }
+                completed(partitionId, partition, pending);
+                continue;
+            }
+            String key = keyOf.apply(pending.decoded);
+            int lane = (int) ((EventDeduplicator.hash(key != null ? key : partitionId) >>> 1) % lanes.length);
+
+            inFlightPermits.acquire();
+            synchronized (partition) {
+                partition.pending.addLast(pending);
+            }
+            try {
+                lanes[lane].execute(() -> {
+                    try {
+                        handler.onEvent(partitionId, pending.event, pending.decoded);
+                    } catch (Exception e) {
+                        errorHandler.onError(partitionId, e);
+                    } finally {
+                        inFlightPermits.release();
+                        completed(partitionId, partition, pending);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Closed: the event was not dispatched, so it must neither hold a permit nor the checkpoints back
+                inFlightPermits.release();
+                synchronized (partition) {
+                    partition.pending.removeLastOccurrence(pending);
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Stops accepting events and waits for the lanes to handle the dispatched ones; close the pump first.
+     * @throws InterruptedException if interrupted while waiting for the lanes
+     */
+    @Override
+    public void close() throws InterruptedException {
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+        for (ExecutorService lane : lanes) {
+            if (!lane.awaitTermination(30, TimeUnit.SECONDS)) {
+                lane.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Marks an event handled and checkpoints the handled events at the head of its partition. The checkpoint is
+     * recorded under the partition lock, so two lanes never record prefixes out of order.
+     */
+    private void completed(String partitionId, PartitionProgress partition, PendingEvent<?> event) {
+        EventHubPartitionPump.recordLag(partitionId, event.event, System.currentTimeMillis());
+        synchronized (partition) {
+            event.done = true;
+            if (partition.pending.peekFirst() != event) {
+                return;
+            }
+            List<EventData> prefix = new ArrayList<>();
+            while (!partition.pending.isEmpty() && partition.pending.peekFirst().done) {
+                prefix.add(partition.pending.pollFirst().event);
+            }
+            if (checkpointer != null) {
+                checkpointer.processed(partitionId, prefix);
+            }
+        }
+    }
+
+    private static ThreadFactory daemonThreads(final String prefix) {
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,190 @@
+package com.microsoft.azure.eventgrid.samples;
+
+import com.microsoft.azure.management.eventgrid.v2018_01_01.EventSubscriptionFilter;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Unit test for EventFilter class.
+ */
+public class EventFilterTest {
+    @Test
+    public void testSubjectMatchesAnyPrefixAndAnySuffix() {
+        EventFilter filter = EventFilter.builder()
+            .subjectBeginsWith("Door", "Window")
+            .subjectEndsWith("/open", "/ajar")
+            .build();
+
+        assertTrue(filter.matches(event("1", "Door1/open", "Contoso.Items.ItemReceived", "{}")));
+        assertTrue(filter.matches(event("2", "Window7/ajar", "Contoso.Items.ItemReceived", "{}")));
+        assertFalse(filter.matches(event("3", "Roof1/open", "Contoso.Items.ItemReceived", "{}")));
+        assertFalse(filter.matches(event("4", "Door1/closed", "Contoso.Items.ItemReceived", "{}")));
+        assertFalse(filter.matches(event("5", "Door", "Contoso.Items.ItemReceived", "{}")));
+        assertFalse(filter.matches(event("6", null, "Contoso.Items.ItemReceived", "{}")));
+    }
+
+    @Test
+    public void testSubjectsAreCaseInsensitiveUnlessConfigured() {
+        EventFilter insensitive = EventFilter.builder().subjectBeginsWith("Door").subjectEndsWith(".JPG").build();
+        EventFilter sensitive = EventFilter.builder().subjectBeginsWith("Door").subjectEndsWith(".JPG").subjectCaseSensitive(true).build();
+
+        assertTrue(insensitive.matches(event("1", "DOOR1.jpg", "Contoso.Items.ItemReceived", "{}")));
+        assertFalse(sensitive.matches(event("1", "DOOR1.jpg", "Contoso.Items.ItemReceived", "{}")));
+        assertTrue(sensitive.matches(event("1", "Door1.JPG", "Contoso.Items.ItemReceived", "{}")));
+    }
+
+    @Test
+    public void testEventTypesAreMatchedCaseInsensitivelyInBothSchemas() {
+        EventFilter filter = EventFilter.builder().includedEventTypes("Contoso.Items.ItemReceived").build();
+
+        assertTrue(filter.matches(event("1", "Door1", "contoso.items.itemreceived", "{}")));
+        assertFalse(filter.matches(event("2", "Door1", "Contoso.Items.ItemSold", "{}")));
+        assertTrue(filter.matches(bytes("{\"specversion\":\"1.0\",\"id\":\"3\",\"type\":\"Contoso.Items.ItemReceived\",\"data\":{}}")));
+        assertFalse(filter.matches(bytes("{\"id\":\"4\",\"subject\":\"Door1\",\"data\":{}}")));
+        assertTrue(EventFilter.builder().build().matches(event("5", "Door1", "Contoso.Items.ItemSold", "{}")));
+    }
+
+    @Test
+    public void testNumberOperators() {
+        String data = "{\"count\":5,\"nested\":{\"price\":9.5}}";
+
+        assertTrue(EventFilter.builder().numberGreaterThan("data.count", 4).build().matches(event("1", "Door1", "T", data)));
+        assertFalse(EventFilter.builder().numberGreaterThan("data.count", 5).build().matches(event("1", "Door1", "T", data)));
+        assertTrue(EventFilter.builder().numberGreaterThanOrEquals("data.count", 5).build().matches(event("1", "Door1", "T", data)));
+        assertTrue(EventFilter.builder().numberLessThan("data.nested.price", 10).build().matches(event("1", "Door1", "T", data)));
+        assertFalse(EventFilter.builder().numberLessThanOrEquals("data.nested.price", 9).build().matches(event("1", "Door1", "T", data)));
+        assertTrue(EventFilter.builder().numberIn("data.count", 1, 5, 7).build().matches(event("1", "Door1", "T", data)));
+        assertFalse(EventFilter.builder().numberNotIn("data.count", 1, 5, 7).build().matches(event("1", "Door1", "T", data)));
+        // A missing field or a value of another type never matches
+        assertFalse(EventFilter.builder().numberNotIn("data.missing", 1).build().matches(event("1", "Door1", "T", data)));
+        assertFalse(EventFilter.builder().numberGreaterThan("data.count", 4).build().matches(event("1", "Door1", "T", "{\"count\":\"5\"}")));
+    }
+
+    @Test
+    public void testStringOperatorsIgnoreCase() {
+        String data = "{\"itemSku\":\"Contoso Item SKU #1\"}";
+
+        assertTrue(EventFilter.builder().stringBeginsWith("data.itemSku", "contoso item").build().matches(event("1", "Door1", "T", data)));
+        assertTrue(EventFilter.builder().stringEndsWith("data.itemSku", "#2", "SKU #1").build().matches(event("1", "Door1", "T", data)));
+        assertTrue(EventFilter.builder().stringContains("data.itemSku", "ITEM").build().matches(event("1", "Door1", "T", data)));
+        assertFalse(EventFilter.builder().stringContains("data.itemSku", "Fabrikam").build().matches(event("1", "Door1", "T", data)));
+        assertTrue(EventFilter.builder().stringIn("data.itemSku", "contoso item sku #1").build().matches(event("1", "Door1", "T", data)));
+        assertFalse(EventFilter.builder().stringNotIn("data.itemSku", "contoso item sku #1").build().matches(event("1", "Door1", "T", data)));
+        assertTrue(EventFilter.builder().stringIn("subject", "door1").build().matches(event("1", "Door1", "T", data)));
+    }
+
+    @Test
+    public void testAllAdvancedFiltersMustMatch() {
+        String data = "{\"itemSku\":\"Contoso Item SKU #1\",\"inStock\":true,\"count\":5}";
+        EventFilter matching = EventFilter.builder()
+            .stringBeginsWith("data.itemSku", "Contoso")
+            .boolEquals("data.inStock", true)
+            .build();
+        EventFilter failing = EventFilter.builder()
+            .stringBeginsWith("data.itemSku", "Contoso")
+            .boolEquals("data.inStock", true)
+            .numberLessThan("data.count", 5)
+            .build();
+
+        assertTrue(matching.matches(event("1", "Door1", "T", data)));
+        assertFalse(failing.matches(event("1", "Door1", "T", data)));
+        assertFalse(EventFilter.builder().boolEquals("data.inStock", false).build().matches(event("1", "Door1", "T", data)));
+    }
+
+    @Test
+    public void testEvaluateKeepsTheSubjectAndIdOfTheMatchingEvent() {
+        EventFilter filter = EventFilter.builder().subjectBeginsWith("Door").build();
+        byte[] body = bytes("[{\"id\":\"1\",\"subject\":\"Roof1\",\"data\":{}},{\"data\":{},\"subject\":\"Door2\",\"id\":\"2\"}]");
+
+        EventFilter.Result result = filter.evaluate(body);
+        assertTrue(result.matches());
+        assertEquals("Door2", result.subject());
+        assertEquals("2", result.id());
+
+        result = EventFilter.builder().build().evaluate(event("3", "Door3", "T", "{\"id\":\"nested\"}"));
+        assertEquals("3", result.id());
+
+        result = filter.evaluate(event("4", "Roof4", "T", "{}"));
+        assertFalse(result.matches());
+        assertNull(result.id());
+    }
+
+    @Test
+    public void testBodiesWhichAreNotEventsDoNotMatch() {
+        EventFilter filter = EventFilter.builder().build();
+
+        assertFalse(filter.matches(null));
+        assertFalse(filter.matches(bytes("not json")));
+        assertFalse(filter.matches(bytes("\"text\"")));
+        assertFalse(filter.matches(bytes("[]")));
+    }
+
+    @Test
+    public void testSubscriptionFilterUsesTheCommonPrefixAndSuffix() {
+        EventSubscriptionFilter subscriptionFilter = EventFilter.builder()
+            .subjectBeginsWith("Door1", "door2", "Door3")
+            .subjectEndsWith(".jpg", ".png")
+            .includedEventTypes("Contoso.Items.ItemReceived")
+            .build()
+            .toSubscriptionFilter();
+
+        assertEquals("Door", subscriptionFilter.subjectBeginsWith());
+        assertEquals("g", subscriptionFilter.subjectEndsWith());
+        assertEquals(Arrays.asList("Contoso.Items.ItemReceived"), subscriptionFilter.includedEventTypes());
+        assertFalse(subscriptionFilter.isSubjectCaseSensitive());
+
+        subscriptionFilter = EventFilter.builder().subjectBeginsWith("Door1", "door2").subjectCaseSensitive(true).build().toSubscriptionFilter();
+        assertEquals("", subscriptionFilter.subjectBeginsWith());
+        assertNull(subscriptionFilter.includedEventTypes());
+    }
+
+    @Test
+    public void testIsAppliedByComparesTheSubscriptionFilter() {
+        EventFilter filter = EventFilter.builder()
+            .subjectBeginsWith("Door")
+            .includedEventTypes("Contoso.Items.ItemReceived")
+            .build();
+
+        assertTrue(filter.isAppliedBy(filter.toSubscriptionFilter()));
+        assertTrue(filter.isAppliedBy(new EventSubscriptionFilter()
+            .withSubjectBeginsWith("Door")
+            .withIncludedEventTypes(Arrays.asList("contoso.items.itemreceived"))));
+        assertFalse(filter.isAppliedBy(EventFilter.builder().subjectBeginsWith("Window").build().toSubscriptionFilter()));
+        assertFalse(filter.isAppliedBy(new EventSubscriptionFilter().withSubjectBeginsWith("Door")));
+        assertFalse(filter.isAppliedBy(null));
+        assertTrue(EventFilter.builder().build().isAppliedBy(null));
+        assertTrue(EventFilter.builder().build().isAppliedBy(new EventSubscriptionFilter().withSubjectBeginsWith("")));
+    }
+
+    @Test
+    public void testRejectsMoreThan64AdvancedFilters() {
+        EventFilter.Builder builder = EventFilter.builder();
+        for (int i = 0; i < 64; i++) {
+            builder.boolEquals("data.flag" + i, true);
+        }
+        try {
+            builder.boolEquals("data.flag64", true);
+            fail("IllegalArgumentException was expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static byte[] event(String id, String subject, String eventType, String data) {
+        return bytes(String.format("[{\"id\":\"%s\",\"subject\":%s,\"eventType\":\"%s\",\"eventTime\":\"2018-01-01T00:00:00Z\",\"data\":%s,\"dataVersion\":\"2.0\"}]",
+            id, subject == null ? "null" : "\"" + subject + "\"", eventType, data));
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}
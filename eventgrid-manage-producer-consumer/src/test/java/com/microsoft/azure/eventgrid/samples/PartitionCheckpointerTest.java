@@ -0,0 +1,139 @@
+package com.microsoft.azure.eventgrid.samples;
+
+import com.microsoft.azure.eventhubs.EventData;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+/**
+ * Unit test for PartitionCheckpointer class.
+ */
+public class PartitionCheckpointerTest {
+    @Test
+    public void testCloseWritesTheLatestCheckpointOfEachPartition() throws Exception {
+        RecordingStore store = new RecordingStore();
+        PartitionCheckpointer checkpointer = new PartitionCheckpointer(store, TimeUnit.HOURS.toMillis(1), 1000);
+
+        checkpointer.processed("0", Arrays.asList(event("10", 1), event("20", 2)));
+        checkpointer.processed("0", Collections.singletonList(event("30", 3)));
+        checkpointer.processed("1", Collections.singletonList(event("5", 1)));
+        checkpointer.processed("1", Collections.<EventData>emptyList());
+        assertEquals(0, store.writes.get());
+
+        checkpointer.close();
+
+        assertEquals(1, store.writes.get());
+        assertEquals("30", store.saved.get("0").offset());
+        assertEquals(3, store.saved.get("0").sequenceNumber());
+        assertEquals("5", store.saved.get("1").offset());
+    }
+
+    @Test
+    public void testWritesEarlyOnceEventsPerWriteIsReached() throws Exception {
+        RecordingStore store = new RecordingStore();
+        PartitionCheckpointer checkpointer = new PartitionCheckpointer(store, TimeUnit.HOURS.toMillis(1), 3);
+
+        checkpointer.processed("0", Arrays.asList(event("10", 1), event("20", 2)));
+        checkpointer.processed("0", Collections.singletonList(event("30", 3)));
+
+        assertTrue(store.firstWrite.await(5, TimeUnit.SECONDS));
+        assertEquals("30", store.saved.get("0").offset());
+        checkpointer.close();
+    }
+
+    @Test
+    public void testQueuesOneEarlyWriteWhileAWriteIsRunning() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        RecordingStore store = new RecordingStore() {
+            @Override
+            public void saveCheckpoints(Collection<Checkpoint> checkpoints) throws IOException {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                super.saveCheckpoints(checkpoints);
+            }
+        };
+        PartitionCheckpointer checkpointer = new PartitionCheckpointer(store, TimeUnit.HOURS.toMillis(1), 1);
+
+        for (int i = 0; i < 1000; i++) {
+            checkpointer.processed("0", Collections.singletonList(event(Integer.toString(i), i)));
+        }
+        release.countDown();
+        checkpointer.close();
+
+        // The write blocked in the store, at most one early write queued behind it, and the final flush
+        assertTrue("writes: " + store.writes.get(), store.writes.get() <= 3);
+        assertEquals("999", store.saved.get("0").offset());
+    }
+
+    @Test
+    public void testFailedWriteKeepsTheCheckpointsForTheNextWrite() throws Exception {
+        RecordingStore store = new RecordingStore();
+        store.failures.set(1);
+        PartitionCheckpointer checkpointer = new PartitionCheckpointer(store, TimeUnit.HOURS.toMillis(1), 1000);
+
+        checkpointer.processed("0", Collections.singletonList(event("10", 1)));
+        try {
+            checkpointer.flush();
+            fail("The store failure should be reported");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(0, store.writes.get());
+
+        checkpointer.close();
+        assertEquals(1, store.writes.get());
+        assertEquals("10", store.saved.get("0").offset());
+    }
+
+    private static EventData event(String offset, long sequenceNumber) {
+        EventData.SystemProperties properties = mock(EventData.SystemProperties.class);
+        when(properties.getOffset()).thenReturn(offset);
+        when(properties.getSequenceNumber()).thenReturn(sequenceNumber);
+        EventData event = mock(EventData.class);
+        when(event.getSystemProperties()).thenReturn(properties);
+        return event;
+    }
+
+    private static class RecordingStore implements CheckpointStore {
+        final Map<String, Checkpoint> saved = new HashMap<>();
+        final AtomicInteger writes = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch firstWrite = new CountDownLatch(1);
+
+        @Override
+        public Map<String, Checkpoint> loadCheckpoints() {
+            return new HashMap<>();
+        }
+
+        @Override
+        public synchronized void saveCheckpoints(Collection<Checkpoint> checkpoints) throws IOException {
+            if (failures.getAndDecrement() > 0) {
+                throw new IOException("store unavailable");
+            }
+            for (Checkpoint checkpoint : new ArrayList<>(checkpoints)) {
+                saved.put(checkpoint.partitionId(), checkpoint);
+            }
+            writes.incrementAndGet();
+            firstWrite.countDown();
+        }
+    }
+}
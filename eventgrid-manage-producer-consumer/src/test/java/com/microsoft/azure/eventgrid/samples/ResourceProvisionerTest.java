@@ -0,0 +1,97 @@
+package com.microsoft.azure.eventgrid.samples;
+
+import com.microsoft.rest.RestException;
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import org.junit.Test;
+import retrofit2.Response;
+import rx.Observable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Unit test for ResourceProvisioner class.
+ */
+public class ResourceProvisionerTest {
+    @Test
+    public void testReusesExistingResourcesAndCreatesMissingOnes() throws Exception {
+        final AtomicInteger creates = new AtomicInteger();
+        ResourceProvisioner provisioner = new ResourceProvisioner()
+            .step("group", String.class,
+                existing -> Observable.just("existing group"),
+                created -> Observable.just("new group").doOnSubscribe(creates::incrementAndGet))
+            .step("namespace", String.class,
+                existing -> Observable.error(error(404)),
+                created -> Observable.just("new namespace in " + created.get("group", String.class)),
+                "group")
+            .step("topic", String.class,
+                existing -> Observable.empty(),
+                created -> Observable.just("new topic"),
+                "group")
+            .step("subscription", String.class,
+                created -> Observable.just(created.get("namespace", String.class) + " -> " + created.get("topic", String.class)),
+                "namespace", "topic");
+
+        ResourceProvisioner.ProvisionedResources resources = provisioner.provision(10, TimeUnit.SECONDS);
+
+        assertEquals("existing group", resources.get("group", String.class));
+        assertEquals(0, creates.get());
+        assertEquals("new namespace in existing group", resources.get("namespace", String.class));
+        assertEquals("new namespace in existing group -> new topic", resources.get("subscription", String.class));
+        assertEquals(4, provisioner.stepDurations().size());
+    }
+
+    @Test
+    public void testLookupErrorOtherThanNotFoundFailsTheStep() throws Exception {
+        final RestException forbidden = error(403);
+        final AtomicBoolean created = new AtomicBoolean();
+        ResourceProvisioner provisioner = new ResourceProvisioner()
+            .step("group", String.class,
+                existing -> Observable.error(forbidden),
+                create -> Observable.just("new group").doOnSubscribe(() -> created.set(true)));
+
+        try {
+            provisioner.provision(10, TimeUnit.SECONDS);
+            fail("The lookup error should fail the step");
+        } catch (RestException e) {
+            assertSame(forbidden, e);
+        }
+        assertFalse(created.get());
+    }
+
+    @Test
+    public void testTimeoutUnsubscribesRunningStepsAndSkipsPendingOnes() throws Exception {
+        final AtomicBoolean unsubscribed = new AtomicBoolean();
+        final AtomicBoolean dependentStarted = new AtomicBoolean();
+        ResourceProvisioner provisioner = new ResourceProvisioner()
+            .step("group", String.class,
+                created -> Observable.<String>never().doOnUnsubscribe(() -> unsubscribed.set(true)))
+            .step("topic", String.class,
+                created -> Observable.just("new topic").doOnSubscribe(() -> dependentStarted.set(true)),
+                "group");
+
+        try {
+            provisioner.provision(100, TimeUnit.MILLISECONDS);
+            fail("Provisioning should time out");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        assertTrue(unsubscribed.get());
+        assertFalse(dependentStarted.get());
+    }
+
+    private static RestException error(int statusCode) {
+        return new RestException("status " + statusCode,
+            Response.<ResponseBody>error(statusCode, ResponseBody.create(MediaType.parse("application/json"), "{}")));
+    }
+}
@@ -0,0 +1,230 @@
+package com.microsoft.azure.eventgrid.samples;
+
+import com.microsoft.azure.eventhubs.EventData;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+/**
+ * Unit test for SubjectLaneProcessor class.
+ */
+public class SubjectLaneProcessorTest {
+    private final Map<EventData, String> subjects = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    @Test
+    public void testEventsOfASubjectAreHandledInPartitionOrder() throws Exception {
+        final Map<String, List<Long>> handled = new ConcurrentHashMap<>();
+        SubjectLaneProcessor<EventData> processor = new SubjectLaneProcessor<>(4, 100, event -> event, subjects::get, (partitionId, event, decoded) -> {
+            handled.computeIfAbsent(subjects.get(event), subject -> Collections.synchronizedList(new ArrayList<>()))
+                .add(event.getSystemProperties().getSequenceNumber());
+        });
+
+        List<EventData> events = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            events.add(event("Door" + (i % 7), i));
+        }
+        processor.onEvents("0", events);
+        processor.close();
+
+        assertEquals(7, handled.size());
+        for (List<Long> sequenceNumbers : handled.values()) {
+            for (int i = 1; i < sequenceNumbers.size(); i++) {
+                assertTrue(sequenceNumbers.get(i - 1) < sequenceNumbers.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testCheckpointWaitsForTheSlowestEarlierEvent() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        RecordingStore store = new RecordingStore();
+        PartitionCheckpointer checkpointer = new PartitionCheckpointer(store, TimeUnit.HOURS.toMillis(1), 1000000);
+        final AtomicInteger fastHandled = new AtomicInteger();
+        SubjectLaneProcessor<EventData> processor = new SubjectLaneProcessor<>(4, 100, event -> event, subjects::get, (partitionId, event, decoded) -> {
+            if ("Slow".equals(subjects.get(event))) {
+                release.await(5, TimeUnit.SECONDS);
+            } else {
+                fastHandled.incrementAndGet();
+            }
+        }).withCheckpointer(checkpointer);
+
+        List<EventData> events = new ArrayList<>();
+        events.add(event("Slow", 0));
+        for (int i = 1; i < 10; i++) {
+            events.add(event("Fast" + i, i));
+        }
+        processor.onEvents("0", events);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (fastHandled.get() < 9 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+
+        // The later events are handled, but the first one is not, so the checkpoint cannot move
+        checkpointer.flush();
+        assertFalse(store.saved.containsKey("0"));
+
+        release.countDown();
+        processor.close();
+        checkpointer.close();
+        assertEquals(9, store.saved.get("0").sequenceNumber());
+    }
+
+    @Test
+    public void testFilteredAndFailedEventsStillMoveTheCheckpoint() throws Exception {
+        RecordingStore store = new RecordingStore();
+        PartitionCheckpointer checkpointer = new PartitionCheckpointer(store, TimeUnit.HOURS.toMillis(1), 1000000);
+        final List<String> handled = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger errors = new AtomicInteger();
+        SubjectLaneProcessor<EventData> processor = new SubjectLaneProcessor<>(2, 100, event -> event, subjects::get, (partitionId, event, decoded) -> {
+            handled.add(subjects.get(event));
+            if ("Fail".equals(subjects.get(event))) {
+                throw new IllegalStateException("handler failed");
+            }
+        }).withCheckpointer(checkpointer)
+            .withFilter(event -> !"Skip".equals(subjects.get(event)))
+            .withErrorHandler((partitionId, error) -> errors.incrementAndGet());
+
+        List<EventData> events = new ArrayList<>();
+        events.add(event("Door0", 0));
+        events.add(event("Fail", 1));
+        events.add(event("Skip", 2));
+        processor.onEvents("0", events);
+        processor.close();
+        checkpointer.close();
+
+        assertEquals(2, handled.size());
+        assertFalse(handled.contains("Skip"));
+        assertEquals(1, errors.get());
+        assertEquals(2, store.saved.get("0").sequenceNumber());
+    }
+
+    @Test
+    public void testDecodedEventsReachTheirHandlerAndUndecodedOnesAreFiltered() throws Exception {
+        RecordingStore store = new RecordingStore();
+        PartitionCheckpointer checkpointer = new PartitionCheckpointer(store, TimeUnit.HOURS.toMillis(1), 1000000);
+        final List<String> handled = Collections.synchronizedList(new ArrayList<>());
+        SubjectLaneProcessor<String> processor = new SubjectLaneProcessor<>(2, 100,
+            event -> "Skip".equals(subjects.get(event)) ? null : subjects.get(event) + "/decoded",
+            decoded -> decoded,
+            (partitionId, event, decoded) -> handled.add(decoded))
+            .withCheckpointer(checkpointer);
+
+        List<EventData> events = new ArrayList<>();
+        events.add(event("Door0", 0));
+        events.add(event("Skip", 1));
+        events.add(event("Door1", 2));
+        processor.onEvents("0", events);
+        processor.close();
+        checkpointer.close();
+
+        assertEquals(2, handled.size());
+        assertTrue(handled.contains("Door0/decoded"));
+        assertTrue(handled.contains("Door1/decoded"));
+        assertEquals(2, store.saved.get("0").sequenceNumber());
+    }
+
+    @Test
+    public void testPartitionLoopBlocksOnceMaxInFlightEventsAreRunning() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final SubjectLaneProcessor<EventData> processor = new SubjectLaneProcessor<>(4, 2, event -> event, subjects::get,
+            (partitionId, event, decoded) -> release.await(5, TimeUnit.SECONDS));
+        final List<EventData> events = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            events.add(event("Door" + i, i));
+        }
+        final CountDownLatch dispatched = new CountDownLatch(1);
+        Thread partitionLoop = new Thread(() -> {
+            try {
+                processor.onEvents("0", events);
+                dispatched.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        partitionLoop.start();
+
+        assertFalse(dispatched.await(200, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(dispatched.await(5, TimeUnit.SECONDS));
+        processor.close();
+    }
+
+    @Test(timeout = 10000)
+    public void testEventsRejectedOnceClosedReleaseTheirPermits() throws Exception {
+        SubjectLaneProcessor<EventData> processor = new SubjectLaneProcessor<>(1, 1, event -> event, subjects::get, (partitionId, event, decoded) -> { });
+        processor.onEvents("0", Collections.singletonList(event("Door0", 0)));
+        processor.close();
+
+        // With a leaked permit the second call would block forever
+        for (int i = 1; i <= 2; i++) {
+            try {
+                processor.onEvents("0", Collections.singletonList(event("Door0", i)));
+                fail("RejectedExecutionException was expected");
+            } catch (RejectedExecutionException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testLagIsRecordedOnceTheHandlerReturns() throws Exception {
+        SubjectLaneProcessor<EventData> processor = new SubjectLaneProcessor<>(2, 100, event -> event, subjects::get, (partitionId, event, decoded) -> Thread.sleep(300));
+        assertTrue(processor.recordsLag());
+        EventData event = event("Door0", 0);
+        when(event.getSystemProperties().getEnqueuedTime()).thenReturn(Instant.now());
+
+        LatencyHistogram lagMillis = EventHubPartitionPump.partitionLagMillis("lag");
+        processor.onEvents("lag", Collections.singletonList(event));
+        assertEquals(0, lagMillis.count());
+        processor.close();
+
+        assertEquals(1, lagMillis.count());
+        assertTrue(lagMillis.percentile(100) >= 300);
+    }
+
+    private EventData event(String subject, long sequenceNumber) {
+        EventData.SystemProperties properties = mock(EventData.SystemProperties.class);
+        when(properties.getOffset()).thenReturn(Long.toString(sequenceNumber * 100));
+        when(properties.getSequenceNumber()).thenReturn(sequenceNumber);
+        EventData event = mock(EventData.class);
+        when(event.getSystemProperties()).thenReturn(properties);
+        subjects.put(event, subject);
+        return event;
+    }
+
+    private static class RecordingStore implements CheckpointStore {
+        final Map<String, Checkpoint> saved = new ConcurrentHashMap<>();
+
+        @Override
+        public Map<String, Checkpoint> loadCheckpoints() {
+            return new HashMap<>();
+        }
+
+        @Override
+        public void saveCheckpoints(Collection<Checkpoint> checkpoints) {
+            for (Checkpoint checkpoint : new ArrayList<>(checkpoints)) {
+                saved.put(checkpoint.partitionId(), checkpoint);
+            }
+        }
+    }
+}
@@ -0,0 +1,334 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import com.microsoft.azure.eventgrid.EventGridClient;
+import com.microsoft.azure.eventgrid.models.EventGridEvent;
+import com.microsoft.rest.RestException;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Non-blocking EventGrid publisher.
+ *  - publishAsync returns immediately; requests go out through the SDK's asynchronous publishEventsAsync, or
+ *    through another transport, for example one sending the events as CloudEvents.
+ *  - At most a fixed number of requests are in flight; further requests wait in a queue, not on a thread.
+ *  - Throttled (429) and server error (5xx) responses, and network errors, are retried with jittered
+ *    exponential backoff, honoring Retry-After, as long as the shared {@link RetryBudget} allows it; see
+ *    {@link #isRetryable(Throwable)}.
+ *  - When a transport reports that only some events failed, with a {@link PartialPublishException}, only those
+ *    are sent again or dead-lettered.
+ *  - Events which still cannot be published are written to the {@link DeadLetterSpool} when one is configured.
+ *  - The outcome and latency of every attempt, without the retry backoff, can be observed with an {@link AttemptListener}.
+ */
+public class AsyncEventGridPublisher implements AutoCloseable {
+    private final Function<List<EventGridEvent>, CompletableFuture<Void>> transport;
+    private final Semaphore inFlight;
+    private final Queue<Attempt> pending = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService retryTimer;
+
+    private RetryBudget retryBudget = new RetryBudget(100, 0.1);
+    private DeadLetterSpool deadLetterSpool;
+    private AttemptListener attemptListener = (error, latencyMicros) -> { };
+    private int maxAttempts = 6;
+    private long baseBackoffMillis = 100;
+    private long maxBackoffMillis = 30000;
+
+    private final AtomicLong requestsSucceeded = new AtomicLong();
+    private final AtomicLong requestsRetried = new AtomicLong();
+    private final AtomicLong requestsThrottled = new AtomicLong();
+    private final AtomicLong requestsFailed = new AtomicLong();
+
+    /**
+     * Observes the requests sent to the topic, including each retry.
+     */
+    @FunctionalInterface
+    public interface AttemptListener {
+        /**
+         * @param error the error of the attempt, or null when it succeeded
+         * @param latencyMicros the time from sending the request to its response
+         */
+        void attempted(Throwable error, long latencyMicros);
+    }
+
+    /**
+     * A publish request, the events of it which are not published yet, and the number of times it was sent.
+     */
+    private static final class Attempt {
+        final List<EventGridEvent> events;
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        List<EventGridEvent> remainingEvents;
+        int attempts;
+        long sentNanos;
+
+        Attempt(List<EventGridEvent> events) {
+            this.events = events;
+            this.remainingEvents = events;
+        }
+    }
+
+    /**
+     * @param client the EventGrid client
+     * @param topicHostname the topic hostname, for example "https://mytopic.westus-1.eventgrid.azure.net/"
+     * @param maxInFlightRequests the maximum number of requests sent at the same time
+     */
+    public AsyncEventGridPublisher(EventGridClient client, String topicHostname, int maxInFlightRequests) {
+        this(events -> {
+            final CompletableFuture<Void> result = new CompletableFuture<>();
+            client.publishEventsAsync(topicHostname, events).subscribe(
+                ignored -> { },
+                result::completeExceptionally,
+                () -> result.complete(null));
+            return result;
+        }, maxInFlightRequests);
+    }
+
+    /**
+     * @param transport sends the events of one request, failing the returned future with a
+     *                  {@link TopicRequestException} when the topic answers with an error status
+     * @param maxInFlightRequests the maximum number of requests sent at the same time
+     */
+    public AsyncEventGridPublisher(Function<List<EventGridEvent>, CompletableFuture<Void>> transport, int maxInFlightRequests) {
+        this.transport = transport;
+        this.inFlight = new Semaphore(maxInFlightRequests);
+        this.retryTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "eventgrid-publish-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param retryBudget the retry budget, which may be shared by several publishers
+     * @return this publisher
+     */
+    public AsyncEventGridPublisher withRetryBudget(RetryBudget retryBudget) {
+        this.retryBudget = retryBudget;
+        return this;
+    }
+
+    /**
+     * @param deadLetterSpool the spool receiving the events which could not be published
+     * @return this publisher
+     */
+    public AsyncEventGridPublisher withDeadLetterSpool(DeadLetterSpool deadLetterSpool) {
+        this.deadLetterSpool = deadLetterSpool;
+        return this;
+    }
+
+    /**
+     * @param attemptListener called after every attempt, on the thread completing the request
+     * @return this publisher
+     */
+    public AsyncEventGridPublisher withAttemptListener(AttemptListener attemptListener) {
+        this.attemptListener = attemptListener;
+        return this;
+    }
+
+    /**
+     * @param maxAttempts the maximum number of times a request is sent, including the first attempt
+     * @param baseBackoffMillis the backoff before the first retry, doubled for every further retry
+     * @param maxBackoffMillis the maximum backoff
+     * @return this publisher
+     */
+    public AsyncEventGridPublisher withRetryPolicy(int maxAttempts, long baseBackoffMillis, long maxBackoffMillis) {
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        return this;
+    }
+
+    /**
+     * Publishes events without blocking the calling thread.
+     * @param events the events to publish in a single request
+     * @return a future completed when the events are published, or failed once they are given up on
+     */
+    public CompletableFuture<Void> publishAsync(List<EventGridEvent> events) {
+        Attempt attempt = new Attempt(events);
+        pending.add(attempt);
+        drain();
+        return attempt.result;
+    }
+
+    /**
+     * Stops scheduling retries; requests already sent still complete.
+     */
+    @Override
+    public void close() {
+        retryTimer.shutdown();
+    }
+
+    public long requestsSucceeded() {
+        return requestsSucceeded.get();
+    }
+
+    public long requestsRetried() {
+        return requestsRetried.get();
+    }
+
+    public long requestsThrottled() {
+        return requestsThrottled.get();
+    }
+
+    public long requestsFailed() {
+        return requestsFailed.get();
+    }
+
+    private void drain() {
+        while (!pending.isEmpty() && inFlight.tryAcquire()) {
+            Attempt attempt = pending.poll();
+            if (attempt == null) {
+                inFlight.release();
+                return;
+            }
+            send(attempt);
+        }
+    }
+
+    private void send(final Attempt attempt) {
+        attempt.attempts++;
+        attempt.sentNanos = System.nanoTime();
+        try {
+            transport.apply(attempt.remainingEvents).whenComplete((ignored, error) -> {
+                if (error == null) {
+                    onSuccess(attempt);
+                } else {
+                    onFailure(attempt, error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                }
+            });
+        } catch (RuntimeException e) {
+            onFailure(attempt, e);
+        }
+    }
+
+    private void onSuccess(Attempt attempt) {
+        inFlight.release();
+        recordAttempt(attempt, null);
+        requestsSucceeded.incrementAndGet();
+        retryBudget.onSuccess();
+        attempt.result.complete(null);
+        drain();
+    }
+
+    private void onFailure(final Attempt attempt, Throwable error) {
+        inFlight.release();
+        recordAttempt(attempt, error);
+        if (error instanceof PartialPublishException && error.getCause() != null) {
+            attempt.remainingEvents = ((PartialPublishException) error).failedEvents();
+            error = error.getCause();
+        }
+        int status = statusCode(error);
+        if (status == 429) {
+            requestsThrottled.incrementAndGet();
+            EventGridMetrics.requestsThrottled.increment();
+        }
+
+        if (isRetryable(error) && attempt.attempts < maxAttempts && !retryTimer.isShutdown() && retryBudget.tryAcquireRetry()) {
+            try {
+                retryTimer.schedule(() -> {
+                    pending.add(attempt);
+                    drain();
+                }, backoffMillis(attempt.attempts, error), TimeUnit.MILLISECONDS);
+                requestsRetried.incrementAndGet();
+                EventGridMetrics.requestsRetried.increment();
+            } catch (RejectedExecutionException e) {
+                // closed since the check above
+                giveUp(attempt, error);
+            }
+        } else {
+            giveUp(attempt, error);
+        }
+        drain();
+    }
+
+    private void giveUp(Attempt attempt, Throwable error) {
+        requestsFailed.incrementAndGet();
+        EventGridMetrics.requestsFailed.increment();
+        if (attempt.remainingEvents != attempt.events) {
+            error = new PartialPublishException(attempt.remainingEvents, error);
+        }
+        if (deadLetterSpool != null) {
+            try {
+                deadLetterSpool.write(attempt.remainingEvents, error);
+            } catch (IOException e) {
+                error.addSuppressed(e);
+            }
+        }
+        attempt.result.completeExceptionally(error);
+    }
+
+    private void recordAttempt(Attempt attempt, Throwable error) {
+        long latencyMicros = (System.nanoTime() - attempt.sentNanos) / 1000;
+        EventGridMetrics.publishLatencyMicros.record(latencyMicros);
+        try {
+            attemptListener.attempted(error, latencyMicros);
+        } catch (RuntimeException e) {
+            System.err.println("Publish attempt listener threw: " + e);
+        }
+    }
+
+    /**
+     * Exponential backoff with jitter, at least as long as the Retry-After the service asked for.
+     */
+    private long backoffMillis(int attempts, Throwable error) {
+        long exponential = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(20, attempts - 1));
+        long backoff = ThreadLocalRandom.current().nextLong(exponential / 2, exponential + 1);
+        String retryAfter = null;
+        if (error instanceof RestException && ((RestException) error).response() != null) {
+            retryAfter = ((RestException) error).response().headers().get("Retry-After");
+        } else if (error instanceof TopicRequestException) {
+            retryAfter = ((TopicRequestException) error).retryAfter();
+        }
+        if (retryAfter != null) {
+            try {
+                backoff = Math.max(backoff, Math.min(maxBackoffMillis, TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()))));
+            } catch (NumberFormatException e) {
+                // Retry-After given as an HTTP date; keep the computed backoff
+            }
+        }
+        return backoff;
+    }
+
+    /**
+     * Tells errors worth retrying, throttling (429), server errors (5xx) and network errors, apart from rejected
+     * requests, which fail the same way on every attempt.
+     * @param error the error of a publish request, possibly wrapped in a CompletionException, ExecutionException
+     *              or {@link PartialPublishException}
+     * @return true if the request may succeed when sent again
+     */
+    public static boolean isRetryable(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException
+                || error instanceof PartialPublishException) && error.getCause() != null) {
+            error = error.getCause();
+        }
+        int status = statusCode(error);
+        return status == 429 || status >= 500 || (status == 0 && error instanceof IOException);
+    }
+
+    private static int statusCode(Throwable error) {
+        if (error instanceof RestException && ((RestException) error).response() != null) {
+            return ((RestException) error).response().code();
+        }
+        if (error instanceof TopicRequestException) {
+            return ((TopicRequestException) error).statusCode();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,283 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+/**
+ * Logger for the per-event paths, taking formatting and I/O off the calling thread.
+ *  - Entries go into a bounded, lock-free ring buffer drained by a single background writer; when the buffer is
+ *    full entries are dropped and counted instead of blocking the caller.
+ *  - The writer parks while the buffer is empty and is unparked by the next entry, so an idle logger uses no CPU.
+ *  - The format string and arguments are stored as they are and only formatted by the writer; byte[] payloads
+ *    are decoded there too, and long payloads are truncated.
+ *  - Each entry has a sampling key, typically the event type, logged with a configurable probability.
+ *  - Callers guard with {@link #isLoggable(Level, String)}, so nothing is formatted or allocated when the level is off.
+ */
+public final class AsyncSampledLogger implements AutoCloseable {
+    /**
+     * A ring buffer slot; the sequence tells whether it is free for the producer or ready for the writer.
+     */
+    private static final class Slot {
+        volatile long sequence;
+        Level level;
+        long timeMillis;
+        String format;
+        Object[] args;
+    }
+
+    private final PrintStream out;
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+    private final Thread writer;
+    private volatile boolean running = true;
+    private volatile boolean writerParked;
+
+    private volatile int levelValue = Level.INFO.intValue();
+    private volatile int maxPayloadChars = 1024;
+    private volatile double defaultSampleRate = 1.0;
+    private volatile Map<String, Double> sampleRates = Collections.emptyMap();
+
+    private final LongAdder entriesWritten = new LongAdder();
+    private final LongAdder entriesSampledOut = new LongAdder();
+    private final LongAdder entriesDropped = new LongAdder();
+
+    /**
+     * @param out the stream the background writer prints to
+     * @param capacity the number of entries the ring buffer holds, rounded up to a power of two
+     */
+    public AsyncSampledLogger(PrintStream out, int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.out = out;
+        this.slots = new Slot[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+            slots[i].sequence = i;
+        }
+        this.writer = new Thread(this::writeLoop, "eventgrid-async-logger");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * @param level the minimum level logged; Level.OFF disables the logger
+     * @return this logger
+     */
+    public AsyncSampledLogger withLevel(Level level) {
+        this.levelValue = level.intValue();
+        return this;
+    }
+
+    /**
+     * @param maxPayloadChars the length beyond which String and byte[] arguments are truncated
+     * @return this logger
+     */
+    public AsyncSampledLogger withMaxPayloadChars(int maxPayloadChars) {
+        this.maxPayloadChars = maxPayloadChars;
+        return this;
+    }
+
+    /**
+     * @param sampleRate the probability, between 0 and 1, of logging an entry whose key has no rate of its own
+     * @return this logger
+     */
+    public AsyncSampledLogger withDefaultSampleRate(double sampleRate) {
+        this.defaultSampleRate = sampleRate;
+        return this;
+    }
+
+    /**
+     * @param samplingKey the sampling key, matched exactly, for example "Contoso.Items.ItemReceived"
+     * @param sampleRate the probability, between 0 and 1, of logging an entry with this key
+     * @return this logger
+     */
+    public synchronized AsyncSampledLogger withSampleRate(String samplingKey, double sampleRate) {
+        Map<String, Double> rates = new HashMap<>(sampleRates);
+        rates.put(samplingKey, sampleRate);
+        this.sampleRates = rates;
+        return this;
+    }
+
+    /**
+     * Applies sample rates given as "key=rate" pairs separated by commas, for example
+     * "Contoso.Items.ItemReceived=0.01,Microsoft.Storage.BlobCreated=1"; "*" sets the default rate.
+     * @param spec the sample rates, may be null
+     * @return this logger
+     */
+    public AsyncSampledLogger withSampleRates(String spec) {
+        if (spec != null) {
+            for (String pair : spec.split(",")) {
+                int separator = pair.lastIndexOf('=');
+                if (separator > 0) {
+                    String key = pair.substring(0, separator).trim();
+                    double rate = Double.parseDouble(pair.substring(separator + 1).trim());
+                    if (key.equals("*")) {
+                        withDefaultSampleRate(rate);
+                    } else {
+                        withSampleRate(key, rate);
+                    }
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Tells whether an entry is to be logged: its level is enabled and it is picked by the sampling of its key.
+     * Each call makes a new sampling decision, so call it once per entry.
+     * @param level the entry level
+     * @param samplingKey the sampling key, for example the event type; may be null for the default rate
+     * @return true if the entry should be passed to {@link #log(Level, String, Object...)}
+     */
+    public boolean isLoggable(Level level, String samplingKey) {
+        if (level.intValue() < levelValue || levelValue == Level.OFF.intValue()) {
+            return false;
+        }
+        Double keyRate = samplingKey != null ? sampleRates.get(samplingKey) : null;
+        double rate = keyRate != null ? keyRate : defaultSampleRate;
+        if (rate >= 1.0 || (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate)) {
+            return true;
+        }
+        entriesSampledOut.increment();
+        return false;
+    }
+
+    /**
+     * Queues an entry; it is formatted with String.format by the background writer.
+     * @param level the entry level
+     * @param format the format string
+     * @param args the arguments, which must not be modified afterwards; byte[] arguments are printed as UTF-8 text
+     */
+    public void log(Level level, String format, Object... args) {
+        Slot slot;
+        long position;
+        while (true) {
+            position = tail.get();
+            slot = slots[(int) position & mask];
+            long available = slot.sequence - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (available < 0) {
+                entriesDropped.increment();
+                return;
+            }
+        }
+        slot.level = level;
+        slot.timeMillis = System.currentTimeMillis();
+        slot.format = format;
+        slot.args = args;
+        slot.sequence = position + 1;
+        if (writerParked) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Writes the queued entries and stops the background writer.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the number of entries written
+     */
+    public long entriesWritten() {
+        return entriesWritten.sum();
+    }
+
+    /**
+     * @return the number of entries skipped by sampling
+     */
+    public long entriesSampledOut() {
+        return entriesSampledOut.sum();
+    }
+
+    /**
+     * @return the number of entries dropped because the ring buffer was full
+     */
+    public long entriesDropped() {
+        return entriesDropped.sum();
+    }
+
+    private void writeLoop() {
+        StringBuilder line = new StringBuilder(256);
+        while (true) {
+            boolean stopping = !running;
+            int written = 0;
+            Slot slot;
+            while ((slot = slots[(int) head & mask]).sequence == head + 1) {
+                try {
+                    line.setLength(0);
+                    line.append(slot.timeMillis).append(' ').append(slot.level.getName()).append(' ');
+                    line.append(String.format(slot.format, render(slot.args)));
+                    out.println(line);
+                    entriesWritten.increment();
+                } catch (RuntimeException e) {
+                    out.println("Cannot format log entry \"" + slot.format + "\": " + e);
+                }
+                slot.format = null;
+                slot.args = null;
+                slot.sequence = head + slots.length;
+                head++;
+                written++;
+            }
+            if (written > 0) {
+                out.flush();
+            } else if (stopping) {
+                return;
+            } else {
+                // Announce the park before checking the buffer again: an entry published in between either is seen
+                // here or sees the flag and unparks the writer
+                writerParked = true;
+                if (running && slots[(int) head & mask].sequence != head + 1) {
+                    LockSupport.park(this);
+                }
+                writerParked = false;
+            }
+        }
+    }
+
+    private Object[] render(Object[] args) {
+        if (args == null) {
+            return null;
+        }
+        int max = maxPayloadChars;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] instanceof byte[]) {
+                byte[] bytes = (byte[]) args[i];
+                args[i] = bytes.length > max
+                    ? new String(bytes, 0, max, StandardCharsets.UTF_8) + "...(" + bytes.length + " bytes)"
+                    : new String(bytes, StandardCharsets.UTF_8);
+            } else if (args[i] instanceof String && ((String) args[i]).length() > max) {
+                String text = (String) args[i];
+                args[i] = text.substring(0, max) + "...(" + text.length() + " chars)";
+            }
+        }
+        return args;
+    }
+}
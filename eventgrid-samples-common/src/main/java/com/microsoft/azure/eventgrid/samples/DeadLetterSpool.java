@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import com.microsoft.azure.eventgrid.models.EventGridEvent;
+import com.microsoft.azure.serializer.AzureJacksonAdapter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local file keeping the events which could not be published, one JSON serialized event per line,
+ * so they can be inspected and published again with {@link #readEvents()}.
+ */
+public class DeadLetterSpool {
+    private final Path file;
+    private final AzureJacksonAdapter serializer = new AzureJacksonAdapter();
+    private final AtomicLong eventsSpooled = new AtomicLong();
+
+    /**
+     * @param file the spool file; it is created on the first write and appended to afterwards
+     */
+    public DeadLetterSpool(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Appends events to the spool.
+     * @param events the events which could not be published
+     * @param error the reason the events could not be published
+     * @throws IOException if the spool cannot be written
+     */
+    public synchronized void write(List<EventGridEvent> events, Throwable error) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (EventGridEvent event : events) {
+                writer.write(serializer.serialize(event));
+                writer.newLine();
+            }
+        }
+        eventsSpooled.addAndGet(events.size());
+        System.err.println(String.format("Spooled %d events to %s after publish failure: %s", events.size(), file, error));
+    }
+
+    /**
+     * @return the events in the spool, in the order they were written
+     * @throws IOException if the spool cannot be read
+     */
+    public synchronized List<EventGridEvent> readEvents() throws IOException {
+        List<EventGridEvent> events = new ArrayList<>();
+        if (Files.exists(file)) {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                if (!line.isEmpty()) {
+                    events.add(serializer.<EventGridEvent>deserialize(line, EventGridEvent.class));
+                }
+            }
+        }
+        return events;
+    }
+
+    /**
+     * @return the number of events written to the spool by this instance
+     */
+    public long eventsSpooled() {
+        return eventsSpooled.get();
+    }
+
+    public Path file() {
+        return file;
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, time-windowed set of recently processed event ids, to drop redelivered events.
+ *  - Ids are stored as 64-bit hashes in open-addressing long arrays: no object per id and no garbage. The arrays
+ *    start small and grow with the number of ids, up to the configured capacity.
+ *  - Each segment keeps two generations; the older one is dropped when the current one is a window old, so an
+ *    id is remembered for at least the window (and at most twice the window) unless the capacity runs out first.
+ *    Both are dropped when two windows passed since the last rotation.
+ *  - A generation that fills up is rotated early; ids dropped that way before the end of their window are counted.
+ *  - Segments are locked independently, so concurrent callers rarely contend.
+ */
+public final class EventDeduplicator {
+    private static final int SEGMENTS = 16;
+    private static final int INITIAL_TABLE_SIZE = 64;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final long windowMillis;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder earlyEvictions = new LongAdder();
+
+    /**
+     * One lock stripe with its current and previous generation of id hashes.
+     */
+    private final class Segment {
+        long[] current;
+        long[] previous;
+        int currentSize;
+        final int maxSize;
+        final int maxTableSize;
+        long currentStartedMillis;
+
+        Segment(int maxSize) {
+            this.maxSize = maxSize;
+            this.maxTableSize = Integer.highestOneBit(Math.max(4, maxSize * 4 / 3 + 1) - 1) << 1;
+            this.current = new long[Math.min(INITIAL_TABLE_SIZE, maxTableSize)];
+            this.previous = new long[current.length];
+        }
+
+        synchronized boolean add(long hash, long nowMillis) {
+            long elapsedMillis = nowMillis - currentStartedMillis;
+            if (elapsedMillis >= 2 * windowMillis) {
+                // Both generations are older than the window
+                Arrays.fill(previous, 0);
+                Arrays.fill(current, 0);
+                currentSize = 0;
+                currentStartedMillis = nowMillis;
+            } else if (elapsedMillis >= windowMillis) {
+                rotate(nowMillis, false);
+            }
+            if (contains(current, hash) || contains(previous, hash)) {
+                return false;
+            }
+            if (currentSize >= maxSize) {
+                rotate(nowMillis, true);
+            }
+            if ((currentSize + 1) * 4 > current.length * 3 && current.length < maxTableSize) {
+                current = grow(current);
+            }
+            insert(current, hash);
+            currentSize++;
+            return true;
+        }
+
+        synchronized void remove(long hash) {
+            if (delete(current, hash)) {
+                currentSize--;
+            } else {
+                delete(previous, hash);
+            }
+        }
+
+        private void rotate(long nowMillis, boolean early) {
+            if (early && nowMillis - currentStartedMillis < windowMillis) {
+                earlyEvictions.add(count(previous));
+            }
+            long[] recycled = previous;
+            Arrays.fill(recycled, 0);
+            previous = current;
+            current = recycled;
+            currentSize = 0;
+            currentStartedMillis = nowMillis;
+        }
+    }
+
+    /**
+     * @param maxIds the number of ids remembered per generation; memory grows with the ids, up to about 22 bytes
+     *               per id and generation
+     * @param windowMillis how long an id is remembered, typically the retry window of the delivering service
+     */
+    public EventDeduplicator(int maxIds, long windowMillis) {
+        this.windowMillis = windowMillis;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(Math.max(1, maxIds / SEGMENTS));
+        }
+    }
+
+    /**
+     * Records an id and tells whether it was not seen within the window. Concurrent calls for the same id return
+     * true for exactly one of them.
+     * @param id the event id
+     * @return true for the first delivery of the event, false for a duplicate
+     */
+    public boolean firstSeen(String id) {
+        long hash = hash(id);
+        boolean first = segments[(int) (hash >>> 60)].add(hash, System.currentTimeMillis());
+        if (first) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return first;
+    }
+
+    /**
+     * Forgets an id, so that a redelivery of an event whose processing failed is processed again.
+     * @param id the event id
+     */
+    public void forget(String id) {
+        long hash = hash(id);
+        segments[(int) (hash >>> 60)].remove(hash);
+    }
+
+    /**
+     * @return the number of duplicates detected
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of ids seen for the first time
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of ids forgotten before the end of their window because the capacity was reached
+     */
+    public long earlyEvictions() {
+        return earlyEvictions.sum();
+    }
+
+    /**
+     * 64-bit FNV-1a over the characters, followed by the MurmurHash3 finalizer; never 0, which marks empty slots.
+     */
+    static long hash(String id) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash = (hash ^ id.charAt(i)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash != 0 ? hash : 1;
+    }
+
+    private static long[] grow(long[] table) {
+        long[] grown = new long[table.length * 2];
+        for (long hash : table) {
+            if (hash != 0) {
+                insert(grown, hash);
+            }
+        }
+        return grown;
+    }
+
+    private static boolean contains(long[] table, long hash) {
+        int mask = table.length - 1;
+        for (int slot = (int) hash & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            if (table[slot] == hash) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void insert(long[] table, long hash) {
+        int mask = table.length - 1;
+        int slot = (int) hash & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = hash;
+    }
+
+    /**
+     * Removes a hash, shifting back the following entries of its probe sequence so lookups keep working.
+     */
+    private static boolean delete(long[] table, long hash) {
+        int mask = table.length - 1;
+        int slot = (int) hash & mask;
+        while (table[slot] != hash) {
+            if (table[slot] == 0) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int hole = slot;
+        for (int next = (hole + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+            int home = (int) table[next] & mask;
+            // Move the entry into the hole when its home slot is not between the hole and its current slot
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                table[hole] = table[next];
+                hole = next;
+            }
+        }
+        table[hole] = 0;
+        return true;
+    }
+
+    private static int count(long[] table) {
+        int count = 0;
+        for (long hash : table) {
+            if (hash != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
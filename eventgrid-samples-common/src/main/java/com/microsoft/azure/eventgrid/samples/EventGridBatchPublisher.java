@@ -0,0 +1,350 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import com.microsoft.azure.eventgrid.EventGridClient;
+import com.microsoft.azure.eventgrid.models.EventGridEvent;
+import com.microsoft.azure.serializer.AzureJacksonAdapter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Thread-safe publisher packing EventGrid events from many producer threads into batches.
+ *  - A batch is sent when it reaches the maximum event count, when the next event would push its
+ *    serialized size over the maximum request size, or when the linger timeout expires.
+ *  - Up to a fixed number of batches are in flight at once; producers block when all are busy.
+ *  - Batches are sent through an {@link AsyncEventGridPublisher}, which retries throttled requests
+ *    and can spool the events it gives up on.
+ */
+public class EventGridBatchPublisher implements AutoCloseable {
+    /**
+     * EventGrid rejects requests whose payload is larger than 1MB.
+     */
+    public static final int DEFAULT_MAX_BATCH_BYTES = 1024 * 1024;
+    public static final int DEFAULT_MAX_BATCH_EVENTS = 1000;
+    public static final long DEFAULT_LINGER_MILLIS = 50;
+    public static final int DEFAULT_MAX_IN_FLIGHT_BATCHES = 4;
+
+    private final AsyncEventGridPublisher publisher;
+    private final boolean ownsPublisher;
+    private final int maxBatchEvents;
+    private final int maxBatchBytes;
+    private final long lingerMillis;
+    private final int maxInFlightBatches;
+    private static final AzureJacksonAdapter serializer = new AzureJacksonAdapter();
+    private final Semaphore inFlight;
+    private final ScheduledExecutorService lingerTimer;
+
+    private final Object lock = new Object();
+    private List<EventGridEvent> currentBatch = new ArrayList<>();
+    private int currentBatchBytes = 2; // the enclosing "[" and "]"
+    private long currentBatchGeneration;
+    private boolean closed;
+
+    private volatile BiConsumer<List<EventGridEvent>, Throwable> failureHandler = (events, error) ->
+        System.err.println(String.format("Failed to publish a batch of %d events: %s", events.size(), error));
+
+    private final AtomicLong eventsPublished = new AtomicLong();
+    private final AtomicLong batchesPublished = new AtomicLong();
+    private final AtomicLong eventsFailed = new AtomicLong();
+
+    /**
+     * Creates a batch publisher using the default limits.
+     * @param client the EventGrid client used to send the batches
+     * @param topicHostname the topic hostname, for example "https://mytopic.westus-1.eventgrid.azure.net/"
+     */
+    public EventGridBatchPublisher(EventGridClient client, String topicHostname) {
+        this(client, topicHostname, DEFAULT_MAX_BATCH_EVENTS, DEFAULT_MAX_BATCH_BYTES, DEFAULT_LINGER_MILLIS, DEFAULT_MAX_IN_FLIGHT_BATCHES);
+    }
+
+    /**
+     * Creates a batch publisher.
+     * @param client the EventGrid client used to send the batches
+     * @param topicHostname the topic hostname, for example "https://mytopic.westus-1.eventgrid.azure.net/"
+     * @param maxBatchEvents the maximum number of events in a batch
+     * @param maxBatchBytes the maximum serialized size of a batch in bytes
+     * @param lingerMillis how long a partially filled batch waits for more events before it is sent
+     * @param maxInFlightBatches the maximum number of batches being sent at the same time
+     */
+    public EventGridBatchPublisher(EventGridClient client, String topicHostname, int maxBatchEvents, int maxBatchBytes,
+                                   long lingerMillis, int maxInFlightBatches) {
+        this(new AsyncEventGridPublisher(client, topicHostname, maxInFlightBatches), true, maxBatchEvents, maxBatchBytes, lingerMillis, maxInFlightBatches);
+    }
+
+    /**
+     * Creates a batch publisher sending its batches through an existing asynchronous publisher.
+     * @param publisher the asynchronous publisher sending the batches
+     * @param maxBatchEvents the maximum number of events in a batch
+     * @param maxBatchBytes the maximum serialized size of a batch in bytes
+     * @param lingerMillis how long a partially filled batch waits for more events before it is sent
+     * @param maxInFlightBatches the maximum number of batches being sent at the same time
+     */
+    public EventGridBatchPublisher(AsyncEventGridPublisher publisher, int maxBatchEvents, int maxBatchBytes,
+                                   long lingerMillis, int maxInFlightBatches) {
+        this(publisher, false, maxBatchEvents, maxBatchBytes, lingerMillis, maxInFlightBatches);
+    }
+
+    private EventGridBatchPublisher(AsyncEventGridPublisher publisher, boolean ownsPublisher, int maxBatchEvents,
+                                    int maxBatchBytes, long lingerMillis, int maxInFlightBatches) {
+        if (maxBatchEvents < 1 || maxBatchBytes < 3 || lingerMillis < 0 || maxInFlightBatches < 1) {
+            throw new IllegalArgumentException("Invalid batch publisher limits");
+        }
+        this.publisher = publisher;
+        this.ownsPublisher = ownsPublisher;
+        this.maxBatchEvents = maxBatchEvents;
+        this.maxBatchBytes = maxBatchBytes;
+        this.lingerMillis = lingerMillis;
+        this.maxInFlightBatches = maxInFlightBatches;
+        this.inFlight = new Semaphore(maxInFlightBatches);
+        this.lingerTimer = Executors.newSingleThreadScheduledExecutor(daemonThreads("eventgrid-batch-linger"));
+    }
+
+    /**
+     * Sets the callback invoked with the events of a batch that could not be published.
+     * @param failureHandler the failure callback
+     * @return this publisher
+     */
+    public EventGridBatchPublisher withFailureHandler(BiConsumer<List<EventGridEvent>, Throwable> failureHandler) {
+        this.failureHandler = failureHandler;
+        return this;
+    }
+
+    /**
+     * Adds an event to the current batch, sending the batch when one of the limits is reached.
+     * @param event the event to publish
+     * @throws IOException if the event cannot be serialized
+     * @throws InterruptedException if interrupted while waiting for an in-flight batch slot
+     */
+    public void publish(EventGridEvent event) throws IOException, InterruptedException {
+        final int eventBytes = utf8Length(serializer.serialize(event));
+        if (eventBytes + 2 > maxBatchBytes) {
+            throw new IllegalArgumentException(String.format("Event %s is %d bytes which exceeds the %d bytes batch limit", event.id(), eventBytes, maxBatchBytes));
+        }
+
+        List<EventGridEvent> sealed = null;
+        List<EventGridEvent> sealedByCount = null;
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("The batch publisher is closed");
+            }
+            if (!currentBatch.isEmpty() && currentBatchBytes + 1 + eventBytes > maxBatchBytes) {
+                sealed = sealCurrentBatch();
+            }
+            if (currentBatch.isEmpty()) {
+                scheduleLinger(currentBatchGeneration);
+            } else {
+                currentBatchBytes++; // the "," separator
+            }
+            currentBatch.add(event);
+            currentBatchBytes += eventBytes;
+            if (currentBatch.size() >= maxBatchEvents) {
+                sealedByCount = sealCurrentBatch();
+            }
+        }
+
+        if (sealed != null) {
+            send(sealed);
+        }
+        if (sealedByCount != null) {
+            send(sealedByCount);
+        }
+    }
+
+    /**
+     * Splits events into requests within the given limits, keeping their order; meant for publishers which send
+     * their requests directly instead of through a batch publisher.
+     * @param events the events to split
+     * @param maxBatchEvents the maximum number of events in a request
+     * @param maxBatchBytes the maximum serialized size of a request in bytes
+     * @return the requests
+     * @throws IOException if an event cannot be serialized
+     */
+    public static List<List<EventGridEvent>> split(List<EventGridEvent> events, int maxBatchEvents, int maxBatchBytes) throws IOException {
+        List<List<EventGridEvent>> batches = new ArrayList<>();
+        List<EventGridEvent> batch = new ArrayList<>();
+        int batchBytes = 2;
+        for (EventGridEvent event : events) {
+            int eventBytes = utf8Length(serializer.serialize(event));
+            if (eventBytes + 2 > maxBatchBytes) {
+                throw new IllegalArgumentException(String.format("Event %s is %d bytes which exceeds the %d bytes batch limit", event.id(), eventBytes, maxBatchBytes));
+            }
+            if (!batch.isEmpty() && (batch.size() >= maxBatchEvents || batchBytes + 1 + eventBytes > maxBatchBytes)) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                batchBytes = 2;
+            }
+            batchBytes += batch.isEmpty() ? eventBytes : eventBytes + 1;
+            batch.add(event);
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    /**
+     * Adds several events, see {@link #publish(EventGridEvent)}.
+     * @param events the events to publish
+     * @throws IOException if an event cannot be serialized
+     * @throws InterruptedException if interrupted while waiting for an in-flight batch slot
+     */
+    public void publishAll(Iterable<EventGridEvent> events) throws IOException, InterruptedException {
+        for (EventGridEvent event : events) {
+            publish(event);
+        }
+    }
+
+    /**
+     * Sends the current batch and waits for all in-flight batches to complete.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void flush() throws InterruptedException {
+        List<EventGridEvent> sealed;
+        synchronized (lock) {
+            sealed = currentBatch.isEmpty() ? null : sealCurrentBatch();
+        }
+        if (sealed != null) {
+            send(sealed);
+        }
+        inFlight.acquire(maxInFlightBatches);
+        inFlight.release(maxInFlightBatches);
+    }
+
+    /**
+     * Rejects new events, flushes the pending ones and stops the background threads.
+     * @throws InterruptedException if interrupted while flushing
+     */
+    @Override
+    public void close() throws InterruptedException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            // Closed before flushing, so no event can be added after the final flush and then be dropped
+            closed = true;
+        }
+        try {
+            flush();
+        } finally {
+            lingerTimer.shutdownNow();
+            if (ownsPublisher) {
+                publisher.close();
+            }
+        }
+    }
+
+    /**
+     * @return the number of events successfully published
+     */
+    public long eventsPublished() {
+        return eventsPublished.get();
+    }
+
+    /**
+     * @return the number of batches successfully published
+     */
+    public long batchesPublished() {
+        return batchesPublished.get();
+    }
+
+    /**
+     * @return the number of events in batches that failed to publish
+     */
+    public long eventsFailed() {
+        return eventsFailed.get();
+    }
+
+    private List<EventGridEvent> sealCurrentBatch() {
+        List<EventGridEvent> sealed = currentBatch;
+        EventGridMetrics.batchEvents.record(sealed.size());
+        EventGridMetrics.batchBytes.record(currentBatchBytes);
+        currentBatch = new ArrayList<>(Math.min(maxBatchEvents, 64));
+        currentBatchBytes = 2;
+        currentBatchGeneration++;
+        return sealed;
+    }
+
+    private void scheduleLinger(final long generation) {
+        lingerTimer.schedule(() -> {
+            List<EventGridEvent> sealed = null;
+            synchronized (lock) {
+                if (generation == currentBatchGeneration && !currentBatch.isEmpty()) {
+                    sealed = sealCurrentBatch();
+                }
+            }
+            if (sealed != null) {
+                try {
+                    send(sealed);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    reportFailure(sealed, e);
+                }
+            }
+        }, lingerMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void send(final List<EventGridEvent> batch) throws InterruptedException {
+        inFlight.acquire();
+        publisher.publishAsync(batch).whenComplete((ignored, error) -> {
+            inFlight.release();
+            if (error == null) {
+                eventsPublished.addAndGet(batch.size());
+                batchesPublished.incrementAndGet();
+            } else {
+                reportFailure(batch, error);
+            }
+        });
+    }
+
+    private void reportFailure(List<EventGridEvent> batch, Throwable error) {
+        eventsFailed.addAndGet(batch.size());
+        try {
+            failureHandler.accept(batch, error);
+        } catch (RuntimeException e) {
+            System.err.println("Batch failure handler threw: " + e);
+        }
+    }
+
+    /**
+     * Counts the UTF-8 encoded length of a string without encoding it.
+     */
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static ThreadFactory daemonThreads(final String prefix) {
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
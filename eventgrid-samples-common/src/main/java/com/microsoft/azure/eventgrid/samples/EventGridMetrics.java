@@ -0,0 +1,246 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters and histograms for the publish and consume paths.
+ *  - The publish metrics are defined here; the consume and function metrics are registered by the classes
+ *    recording them, through {@link #counter(String)} and {@link #histogram(String)}.
+ *  - Recording is lock-free and allocation-free: counters are LongAdders and histograms are {@link LatencyHistogram}s.
+ *  - All metrics are exposed as attributes of the "com.microsoft.azure.eventgrid.samples:type=EventGridMetrics" MBean.
+ *  - {@link #startHttpEndpoint(int)} serves them in the Prometheus text format on GET /metrics; when the
+ *    EVENTGRID_METRICS_PORT setting is present the endpoint is started on that port automatically.
+ */
+public final class EventGridMetrics {
+    public static final String OBJECT_NAME = "com.microsoft.azure.eventgrid.samples:type=EventGridMetrics";
+
+    private static final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<>();
+
+    /**
+     * Time from sending a publish request to its response, per attempt.
+     */
+    public static final LatencyHistogram publishLatencyMicros = histogram("publish_latency_micros");
+    public static final LatencyHistogram batchEvents = histogram("publish_batch_events");
+    public static final LatencyHistogram batchBytes = histogram("publish_batch_bytes");
+    public static final LongAdder requestsRetried = counter("publish_requests_retried");
+    public static final LongAdder requestsThrottled = counter("publish_requests_throttled");
+    public static final LongAdder requestsFailed = counter("publish_requests_failed");
+
+    private static HttpServer httpServer;
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), new ObjectName(OBJECT_NAME));
+        } catch (Exception e) {
+            System.err.println("Cannot register the EventGrid metrics MBean: " + e);
+        }
+
+        String port = System.getenv("EVENTGRID_METRICS_PORT");
+        if (port != null && !port.trim().isEmpty()) {
+            try {
+                startHttpEndpoint(Integer.parseInt(port.trim()));
+            } catch (Exception e) {
+                System.err.println("Cannot start the EventGrid metrics endpoint: " + e);
+            }
+        }
+    }
+
+    private EventGridMetrics() {
+    }
+
+    /**
+     * Gets or creates a counter; callers on a hot path should keep the returned instance.
+     * @param name the counter name, in snake case
+     * @return the counter
+     */
+    public static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * Gets or creates a histogram; callers on a hot path should keep the returned instance.
+     * @param name the histogram name, in snake case with the unit as suffix
+     * @return the histogram
+     */
+    public static LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Starts serving the metrics on GET /metrics; does nothing when the endpoint is already running.
+     * @param port the port to listen on, 0 for any free port
+     * @return the port the endpoint listens on
+     * @throws IOException when the port cannot be bound
+     */
+    public static synchronized int startHttpEndpoint(int port) throws IOException {
+        if (httpServer == null) {
+            HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+            server.createContext("/metrics", exchange -> {
+                try {
+                    byte[] body = render().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                } finally {
+                    exchange.close();
+                }
+            });
+            server.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "eventgrid-metrics-endpoint");
+                thread.setDaemon(true);
+                return thread;
+            }));
+            // The dispatcher thread inherits the daemon flag of the thread starting the server, so that the
+            // endpoint never keeps the process alive
+            Thread starter = new Thread(server::start);
+            starter.setDaemon(true);
+            starter.start();
+            try {
+                starter.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            httpServer = server;
+        }
+        return httpServer.getAddress().getPort();
+    }
+
+    /**
+     * Stops the metrics endpoint if it is running.
+     */
+    public static synchronized void stopHttpEndpoint() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpServer = null;
+        }
+    }
+
+    /**
+     * Renders all metrics in the Prometheus text format; histograms are rendered as summaries.
+     * @return the metrics text
+     */
+    public static String render() {
+        StringBuilder text = new StringBuilder(4096);
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            String name = "eventgrid_" + counter.getKey();
+            text.append("# TYPE ").append(name).append(" counter\n")
+                .append(name).append(' ').append(counter.getValue().sum()).append('\n');
+        }
+        for (Map.Entry<String, LatencyHistogram> histogram : histograms.entrySet()) {
+            String name = "eventgrid_" + histogram.getKey();
+            LatencyHistogram values = histogram.getValue();
+            text.append("# TYPE ").append(name).append(" summary\n");
+            for (String quantile : new String[] {"0.5", "0.9", "0.99", "0.999", "1"}) {
+                text.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(values.percentile(Double.parseDouble(quantile) * 100)).append('\n');
+            }
+            text.append(name).append("_count ").append(values.count()).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Exposes every counter, and the count and percentiles of every histogram, as a read-only attribute.
+     */
+    private static final class MetricsMBean implements DynamicMBean {
+        private static final String[] PERCENTILE_SUFFIXES = {"_p50", "_p90", "_p99", "_p999", "_max"};
+        private static final double[] PERCENTILES = {50, 90, 99, 99.9, 100};
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            LongAdder counter = counters.get(attribute);
+            if (counter != null) {
+                return counter.sum();
+            }
+            if (attribute.endsWith("_count")) {
+                LatencyHistogram histogram = histograms.get(attribute.substring(0, attribute.length() - "_count".length()));
+                if (histogram != null) {
+                    return histogram.count();
+                }
+            }
+            for (int i = 0; i < PERCENTILE_SUFFIXES.length; i++) {
+                if (attribute.endsWith(PERCENTILE_SUFFIXES[i])) {
+                    LatencyHistogram histogram = histograms.get(attribute.substring(0, attribute.length() - PERCENTILE_SUFFIXES[i].length()));
+                    if (histogram != null) {
+                        return histogram.percentile(PERCENTILES[i]);
+                    }
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // JMX expects unknown attributes to be left out
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("EventGrid metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        /**
+         * Built on every call, since counters and histograms are created on first use.
+         */
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String name : counters.keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+            }
+            for (String name : histograms.keySet()) {
+                attributes.add(new MBeanAttributeInfo(name + "_count", "long", name + " count", true, false, false));
+                for (String suffix : PERCENTILE_SUFFIXES) {
+                    attributes.add(new MBeanAttributeInfo(name + suffix, "long", name + suffix.replace('_', ' '), true, false, false));
+                }
+            }
+            return new MBeanInfo(EventGridMetrics.class.getName(), "EventGrid publish and consume metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
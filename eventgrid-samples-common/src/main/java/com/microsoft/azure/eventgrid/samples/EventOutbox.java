@@ -0,0 +1,631 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import com.microsoft.azure.eventgrid.models.EventGridEvent;
+import com.microsoft.azure.serializer.AzureJacksonAdapter;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * Durable local queue of events to publish: producers append to a log on disk and return immediately, while a
+ * background drainer publishes the log in large batches.
+ *  - The log is a sequence of memory-mapped segment files; an append is a copy into the mapped segment, so events
+ *    survive a crash of the process as soon as the append returns (call {@link #flush()} to also survive an OS crash).
+ *  - Each record carries its length and a CRC32, so a torn record at the end of a segment is detected on recovery.
+ *  - The drainer sends several batches at once and moves its cursor, also kept on disk, past the batches the topic
+ *    acknowledged. Fully acknowledged segments are unmapped and deleted; {@link #close()} unmaps the others, so
+ *    the directory can be reopened or removed right away instead of after a garbage collection.
+ *  - Batches failing with a retryable error (see {@link AsyncEventGridPublisher#isRetryable(Throwable)}) are
+ *    retried with a backoff until they succeed, across endpoint outages and restarts; events may be published more
+ *    than once, so consumers should deduplicate by event id.
+ *  - Batches the topic rejects, for example with 400 or 413, would fail the same way forever and hold back every
+ *    later event: they are written to the {@link DeadLetterSpool}, when one is configured, and skipped, like
+ *    records which cannot be read back.
+ * A directory must be used by a single outbox at a time.
+ */
+public class EventOutbox implements AutoCloseable {
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final long IDLE_MILLIS = 20;
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+
+    /**
+     * Events skipped by the drainers of all outboxes, because the topic rejected them or they could not be read.
+     */
+    static final LongAdder eventsRejectedTotal = EventGridMetrics.counter("outbox_events_rejected");
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final Function<List<EventGridEvent>, CompletableFuture<Void>> publisher;
+    private DeadLetterSpool deadLetterSpool;
+    private final AzureJacksonAdapter serializer = new AzureJacksonAdapter();
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final List<Path> pendingDeletes = new ArrayList<>();
+    private final MappedByteBuffer cursorBuffer;
+    private final Object appendLock = new Object();
+    private Segment current;
+
+    private int maxBatchEvents = EventGridBatchPublisher.DEFAULT_MAX_BATCH_EVENTS;
+    private int maxBatchBytes = EventGridBatchPublisher.DEFAULT_MAX_BATCH_BYTES;
+    private int maxInFlightBatches = EventGridBatchPublisher.DEFAULT_MAX_IN_FLIGHT_BATCHES;
+
+    private Thread drainer;
+    private volatile boolean running;
+    private boolean closed;
+
+    private final AtomicLong eventsAppended = new AtomicLong();
+    private final AtomicLong eventsDrained = new AtomicLong();
+    private final AtomicLong eventsPending = new AtomicLong();
+    private final AtomicLong drainFailures = new AtomicLong();
+    private final AtomicLong eventsRejected = new AtomicLong();
+
+    /**
+     * One mapped log file. Only the appender writes to it; the drainer reads up to the published write position.
+     */
+    private static final class Segment {
+        final long id;
+        final Path file;
+        final MappedByteBuffer buffer;
+        final ByteBuffer writeView;
+        final ByteBuffer readView;
+        volatile int writePosition;
+        volatile boolean sealed;
+
+        Segment(long id, Path file, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+            this.writeView = buffer.duplicate();
+            this.readView = buffer.duplicate();
+        }
+    }
+
+    /**
+     * A batch read from the log, with the position right after its last record. Records which cannot be read back
+     * are not in the events, only counted, and skipped with the batch.
+     */
+    private static final class Batch {
+        final List<EventGridEvent> events = new ArrayList<>();
+        int unreadableRecords;
+        int bytes = 2; // the enclosing "[" and "]"
+        long endSegment;
+        int endPosition;
+    }
+
+    /**
+     * Opens the outbox, recovering the events left in the directory by a previous run; call {@link #start()} to
+     * begin draining.
+     * @param directory the directory holding the segments and the drain cursor
+     * @param segmentBytes the size of each segment file; an event must fit in one segment
+     * @param maxSegments the number of segments after which appends are rejected until the drainer catches up
+     * @param publisher publishes one batch, for example {@link AsyncEventGridPublisher#publishAsync}; it should not
+     *                  dead-letter events itself, since batches failing with a retryable error stay in the outbox
+     * @throws IOException if the directory cannot be created or read
+     */
+    public EventOutbox(Path directory, int segmentBytes, int maxSegments,
+                       Function<List<EventGridEvent>, CompletableFuture<Void>> publisher) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+        this.publisher = publisher;
+        Files.createDirectories(directory);
+
+        try (FileChannel channel = FileChannel.open(directory.resolve("cursor"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            this.cursorBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, 8);
+        }
+        recover();
+        synchronized (appendLock) {
+            long lastId = segments.isEmpty() ? 0 : segments.lastKey();
+            current = openSegment(Math.max(lastId, cursorSegment()) + 1);
+        }
+    }
+
+    /**
+     * @param maxBatchEvents the maximum number of events per published batch
+     * @param maxBatchBytes the maximum serialized size of a published batch
+     * @param maxInFlightBatches the number of batches published at the same time
+     * @return this outbox
+     */
+    public EventOutbox withBatching(int maxBatchEvents, int maxBatchBytes, int maxInFlightBatches) {
+        this.maxBatchEvents = maxBatchEvents;
+        this.maxBatchBytes = maxBatchBytes;
+        this.maxInFlightBatches = maxInFlightBatches;
+        return this;
+    }
+
+    /**
+     * @param deadLetterSpool the spool receiving the batches the topic rejects; without one they are only logged
+     * @return this outbox
+     */
+    public EventOutbox withDeadLetterSpool(DeadLetterSpool deadLetterSpool) {
+        this.deadLetterSpool = deadLetterSpool;
+        return this;
+    }
+
+    /**
+     * Starts the background drainer.
+     * @return this outbox
+     */
+    public synchronized EventOutbox start() {
+        if (closed) {
+            throw new IllegalStateException("The outbox in " + directory + " is closed");
+        }
+        if (drainer == null) {
+            running = true;
+            drainer = new Thread(this::drainLoop, "eventgrid-outbox-drainer");
+            drainer.setDaemon(true);
+            drainer.start();
+        }
+        return this;
+    }
+
+    /**
+     * Appends events to the log; they are published by the drainer.
+     * @param events the events to publish
+     * @throws IOException if an event cannot be serialized, is larger than a batch or a segment, or the outbox is full
+     */
+    public void append(List<EventGridEvent> events) throws IOException {
+        List<byte[]> records = new ArrayList<>(events.size());
+        for (EventGridEvent event : events) {
+            byte[] record = serializer.serialize(event).getBytes(StandardCharsets.UTF_8);
+            if (record.length + 2 > maxBatchBytes) {
+                throw new IOException(String.format("Event %s is %d bytes which exceeds the %d bytes batch limit", event.id(), record.length, maxBatchBytes));
+            }
+            if (record.length + RECORD_HEADER_BYTES > segmentBytes) {
+                throw new IOException(String.format("Event %s of %d bytes does not fit in an outbox segment", event.id(), record.length));
+            }
+            records.add(record);
+        }
+
+        CRC32 crc = new CRC32();
+        synchronized (appendLock) {
+            if (closed) {
+                throw new IOException("The outbox in " + directory + " is closed");
+            }
+            for (byte[] record : records) {
+                if (current.writePosition + RECORD_HEADER_BYTES + record.length > segmentBytes) {
+                    rotate();
+                }
+                crc.reset();
+                crc.update(record, 0, record.length);
+                int position = current.writePosition;
+                ByteBuffer view = current.writeView;
+                view.position(position + RECORD_HEADER_BYTES);
+                view.put(record);
+                view.putInt(position + 4, (int) crc.getValue());
+                // The length goes in last: a record is only visible once it is complete
+                view.putInt(position, record.length);
+                current.writePosition = position + RECORD_HEADER_BYTES + record.length;
+                eventsPending.incrementAndGet();
+            }
+        }
+        eventsAppended.addAndGet(events.size());
+    }
+
+    /**
+     * Forces the appended events to disk.
+     */
+    public void flush() {
+        synchronized (appendLock) {
+            if (!closed) {
+                current.buffer.force();
+            }
+        }
+    }
+
+    /**
+     * Waits until every appended event has been published.
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @throws InterruptedException if interrupted while waiting
+     * @throws TimeoutException if events are still pending after the timeout
+     */
+    public void awaitDrained(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (eventsPending.get() > 0) {
+            if (System.nanoTime() >= deadline) {
+                throw new TimeoutException(String.format("%d events are still waiting in the outbox", eventsPending.get()));
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * @return the number of events appended by this instance
+     */
+    public long eventsAppended() {
+        return eventsAppended.get();
+    }
+
+    /**
+     * @return the number of events published by this instance
+     */
+    public long eventsDrained() {
+        return eventsDrained.get();
+    }
+
+    /**
+     * @return the number of events waiting to be published, including the ones recovered from a previous run
+     */
+    public long eventsPending() {
+        return eventsPending.get();
+    }
+
+    /**
+     * @return the number of events skipped by this instance, because the topic rejected them or they could not be read
+     */
+    public long eventsRejected() {
+        return eventsRejected.get();
+    }
+
+    /**
+     * @return the number of failed drain attempts
+     */
+    public long drainFailures() {
+        return drainFailures.get();
+    }
+
+    /**
+     * Stops the drainer, forces the log to disk and unmaps it; the events not yet published are drained by the
+     * next run. Appends fail once the outbox is closed.
+     * @throws InterruptedException if interrupted while waiting for the drainer
+     */
+    @Override
+    public void close() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            running = false;
+            thread = drainer;
+            drainer = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+        }
+        synchronized (this) {
+            synchronized (appendLock) {
+                if (closed) {
+                    return;
+                }
+                current.buffer.force();
+                cursorBuffer.force();
+                closed = true;
+                // A drainer which did not stop in time may still read the segments; leave them to the garbage collector
+                if (thread == null || !thread.isAlive()) {
+                    for (Segment segment : segments.values()) {
+                        unmap(segment.buffer);
+                    }
+                    segments.clear();
+                    unmap(cursorBuffer);
+                }
+            }
+        }
+    }
+
+    private void drainLoop() {
+        long backoffMillis = 0;
+        while (running) {
+            try {
+                if (backoffMillis > 0) {
+                    Thread.sleep(backoffMillis);
+                }
+                deleteAcknowledgedSegments();
+
+                List<Batch> batches = readBatches();
+                if (batches.isEmpty()) {
+                    Thread.sleep(IDLE_MILLIS);
+                    continue;
+                }
+                List<CompletableFuture<Void>> requests = new ArrayList<>(batches.size());
+                for (Batch batch : batches) {
+                    requests.add(batch.events.isEmpty() ? CompletableFuture.completedFuture(null) : publisher.apply(batch.events));
+                }
+
+                // Acknowledge the batches in order, up to the first one failing with a retryable error
+                boolean failed = false;
+                for (int i = 0; i < batches.size(); i++) {
+                    Batch batch = batches.get(i);
+                    Throwable error = null;
+                    try {
+                        requests.get(i).get();
+                    } catch (ExecutionException e) {
+                        error = e.getCause();
+                    }
+                    if (failed) {
+                        continue;
+                    }
+                    int rejected = 0;
+                    if (error != null) {
+                        rejected = AsyncEventGridPublisher.isRetryable(error) ? -1 : reject(batch, error);
+                        if (rejected < 0) {
+                            System.err.println("Draining the EventGrid outbox failed: " + error);
+                            failed = true;
+                            continue;
+                        }
+                    }
+                    saveCursor(batch.endSegment, batch.endPosition);
+                    if (error == null) {
+                        EventGridMetrics.batchEvents.record(batch.events.size());
+                        EventGridMetrics.batchBytes.record(batch.bytes);
+                    }
+                    eventsDrained.addAndGet(batch.events.size() - rejected);
+                    if (batch.unreadableRecords > 0) {
+                        eventsRejected.addAndGet(batch.unreadableRecords);
+                        eventsRejectedTotal.add(batch.unreadableRecords);
+                    }
+                    eventsPending.addAndGet(-(batch.events.size() + batch.unreadableRecords));
+                }
+                if (failed) {
+                    drainFailures.incrementAndGet();
+                    backoffMillis = Math.min(MAX_BACKOFF_MILLIS, Math.max(100, backoffMillis * 2));
+                } else {
+                    backoffMillis = 0;
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                System.err.println("UNEXPECTED Exception caught in the EventGrid outbox drainer: " + e);
+                drainFailures.incrementAndGet();
+                backoffMillis = Math.min(MAX_BACKOFF_MILLIS, Math.max(100, backoffMillis * 2));
+            }
+        }
+    }
+
+    /**
+     * Writes the events of a batch the topic rejected to the dead letter spool, so that the cursor can move past it;
+     * when the publisher reports a {@link PartialPublishException}, the other events of the batch were published.
+     * @return the number of rejected events, or -1 if the spool cannot be written; the batch then stays in the outbox
+     */
+    private int reject(Batch batch, Throwable error) {
+        List<EventGridEvent> rejected = PartialPublishException.failedEvents(error, batch.events);
+        if (deadLetterSpool != null) {
+            try {
+                deadLetterSpool.write(rejected, error);
+            } catch (IOException e) {
+                error.addSuppressed(e);
+                return -1;
+            }
+        } else {
+            System.err.println(String.format("Dropping %d events the topic rejected: %s", rejected.size(), error));
+        }
+        eventsRejected.addAndGet(rejected.size());
+        eventsRejectedTotal.add(rejected.size());
+        return rejected.size();
+    }
+
+    /**
+     * Reads up to the maximum number of in-flight batches from the cursor, moving on to the next segment once a
+     * sealed segment is read to its end.
+     */
+    private List<Batch> readBatches() throws IOException {
+        List<Batch> batches = new ArrayList<>();
+        long segmentId = cursorSegment();
+        int position = cursorPosition();
+        Batch batch = new Batch();
+
+        Map.Entry<Long, Segment> entry = segments.ceilingEntry(segmentId);
+        while (entry != null && batches.size() < maxInFlightBatches) {
+            Segment segment = entry.getValue();
+            if (segment.id != segmentId) {
+                segmentId = segment.id;
+                position = 0;
+            }
+            boolean sealed = segment.sealed;
+            int end = segment.writePosition;
+            if (position >= end) {
+                if (!sealed) {
+                    break;
+                }
+                entry = segments.higherEntry(segment.id);
+                continue;
+            }
+
+            int length = segment.readView.getInt(position);
+            byte[] record = new byte[length];
+            segment.readView.position(position + RECORD_HEADER_BYTES);
+            segment.readView.get(record);
+            EventGridEvent event;
+            try {
+                event = serializer.deserialize(new String(record, StandardCharsets.UTF_8), EventGridEvent.class);
+            } catch (IOException | RuntimeException e) {
+                System.err.println(String.format("Skipping the unreadable outbox record at %d of %s: %s", position, segment.file, e));
+                event = null;
+            }
+
+            // Like the request body, a batch counts its "[", "]" and "," separators
+            if (event != null && !batch.events.isEmpty()
+                && (batch.events.size() >= maxBatchEvents || batch.bytes + 1 + length > maxBatchBytes)) {
+                batches.add(batch);
+                batch = new Batch();
+                if (batches.size() >= maxInFlightBatches) {
+                    break;
+                }
+            }
+            if (event == null) {
+                batch.unreadableRecords++;
+            } else {
+                batch.bytes += batch.events.isEmpty() ? length : length + 1;
+                batch.events.add(event);
+            }
+            position += RECORD_HEADER_BYTES + length;
+            batch.endSegment = segmentId;
+            batch.endPosition = position;
+        }
+        if ((!batch.events.isEmpty() || batch.unreadableRecords > 0) && batches.size() < maxInFlightBatches) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    /**
+     * Unmaps and deletes the sealed segments before the cursor, moving the cursor past a sealed segment drained to
+     * its end first. Only the drainer reads sealed segments, so they can be unmapped here. A failed deletion is
+     * retried on the next round.
+     */
+    private void deleteAcknowledgedSegments() {
+        long cursorSegment = cursorSegment();
+        Segment drained = segments.get(cursorSegment);
+        if (drained != null && drained.sealed && cursorPosition() >= drained.writePosition) {
+            Long next = segments.higherKey(cursorSegment);
+            if (next != null) {
+                saveCursor(next, 0);
+                cursorSegment = next;
+            }
+        }
+        for (Iterator<Segment> it = segments.headMap(cursorSegment).values().iterator(); it.hasNext(); ) {
+            Segment segment = it.next();
+            if (segment.sealed) {
+                it.remove();
+                unmap(segment.buffer);
+                pendingDeletes.add(segment.file);
+            }
+        }
+        for (Iterator<Path> it = pendingDeletes.iterator(); it.hasNext(); ) {
+            try {
+                Files.deleteIfExists(it.next());
+                it.remove();
+            } catch (IOException e) {
+                // retried later
+            }
+        }
+    }
+
+    private void rotate() throws IOException {
+        if (segments.size() >= maxSegments) {
+            throw new IOException(String.format("The outbox in %s is full: %d segments are waiting to be drained", directory, segments.size()));
+        }
+        Segment next = openSegment(current.id + 1);
+        current.buffer.force();
+        current.sealed = true;
+        current = next;
+    }
+
+    private Segment openSegment(long id) throws IOException {
+        Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            Segment segment = new Segment(id, file, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+            segments.put(id, segment);
+            return segment;
+        }
+    }
+
+    /**
+     * Maps the segments left by a previous run as sealed segments, up to their last complete record, and counts
+     * the events after the cursor.
+     */
+    private void recover() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long id = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                if (id < cursorSegment()) {
+                    pendingDeletes.add(file);
+                    continue;
+                }
+                Segment segment;
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    segment = new Segment(id, file, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+                }
+                int start = id == cursorSegment() ? cursorPosition() : 0;
+                int position = 0;
+                CRC32 crc = new CRC32();
+                ByteBuffer view = segment.readView.duplicate();
+                while (position + RECORD_HEADER_BYTES <= view.capacity()) {
+                    int length = view.getInt(position);
+                    if (length <= 0 || position + RECORD_HEADER_BYTES + length > view.capacity()) {
+                        break;
+                    }
+                    byte[] record = new byte[length];
+                    view.position(position + RECORD_HEADER_BYTES);
+                    view.get(record);
+                    crc.reset();
+                    crc.update(record, 0, record.length);
+                    if ((int) crc.getValue() != view.getInt(position + 4)) {
+                        System.err.println(String.format("Dropping the torn tail of outbox segment %s at %d", file, position));
+                        break;
+                    }
+                    if (position >= start) {
+                        eventsPending.incrementAndGet();
+                    }
+                    position += RECORD_HEADER_BYTES + length;
+                }
+                segment.writePosition = position;
+                segment.sealed = true;
+                segments.put(id, segment);
+            }
+        }
+    }
+
+    /**
+     * Releases the mapping of a buffer now instead of when it is garbage collected, which also lets its file be
+     * deleted on Windows. The buffer must not be used afterwards. Falls back to the garbage collector when the
+     * JVM does not expose the cleaner.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner;
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException e) {
+                // Java 8: DirectByteBuffer.cleaner().clean()
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+                return;
+            }
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        } catch (Exception e) {
+            // unmapped when garbage collected
+        }
+    }
+
+    /**
+     * The cursor is a single long, the segment id in the high half and the position in the low half, so that it
+     * is never torn.
+     */
+    private long cursorSegment() {
+        return cursorBuffer.getLong(0) >>> 32;
+    }
+
+    private int cursorPosition() {
+        return (int) cursorBuffer.getLong(0);
+    }
+
+    private void saveCursor(long segmentId, int position) {
+        cursorBuffer.putLong(0, segmentId << 32 | position);
+    }
+}
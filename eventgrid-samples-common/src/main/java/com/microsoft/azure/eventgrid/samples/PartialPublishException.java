@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import com.microsoft.azure.eventgrid.models.EventGridEvent;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A publish request which failed for some of its events only, raised by transports sending the events of a request
+ * separately, so that {@link AsyncEventGridPublisher} retries or dead-letters the failed events and does not publish
+ * the accepted ones again. The cause is the error of the failed events.
+ */
+public class PartialPublishException extends IOException {
+    private final List<EventGridEvent> failedEvents;
+
+    /**
+     * @param failedEvents the events which were not published
+     * @param cause the error of the failed events
+     */
+    public PartialPublishException(List<EventGridEvent> failedEvents, Throwable cause) {
+        super(String.format("%d events were not published: %s", failedEvents.size(), cause), cause);
+        this.failedEvents = failedEvents;
+    }
+
+    /**
+     * @return the events which were not published
+     */
+    public List<EventGridEvent> failedEvents() {
+        return failedEvents;
+    }
+
+    /**
+     * Tells which events of a failed request were not published.
+     * @param error the error of the request, possibly wrapped in a CompletionException or ExecutionException
+     * @param events the events of the request
+     * @return the failed events of a PartialPublishException, otherwise all the events
+     */
+    public static List<EventGridEvent> failedEvents(Throwable error, List<EventGridEvent> events) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error instanceof PartialPublishException ? ((PartialPublishException) error).failedEvents() : events;
+    }
+}
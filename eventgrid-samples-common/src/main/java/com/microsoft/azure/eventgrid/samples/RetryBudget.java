@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket shared by all publish requests, capping retries to a fraction of the successful requests.
+ *  - Every retry withdraws one token; a retry without an available token is not attempted.
+ *  - Every successful request deposits a fraction of a token, up to the bucket capacity.
+ * Under sustained throttling this keeps retries from multiplying the load on the topic.
+ */
+public final class RetryBudget {
+    private static final long SCALE = 1000;
+
+    private final long capacity;
+    private final long depositPerSuccess;
+    private final AtomicLong tokens;
+
+    /**
+     * @param maxRetryTokens the number of retries available in a burst
+     * @param retryRatio the number of retries earned by each successful request, for example 0.1
+     */
+    public RetryBudget(int maxRetryTokens, double retryRatio) {
+        this.capacity = maxRetryTokens * SCALE;
+        this.depositPerSuccess = (long) (retryRatio * SCALE);
+        this.tokens = new AtomicLong(capacity);
+    }
+
+    /**
+     * @return true if a retry may be attempted
+     */
+    public boolean tryAcquireRetry() {
+        while (true) {
+            long current = tokens.get();
+            if (current < SCALE) {
+                return false;
+            }
+            if (tokens.compareAndSet(current, current - SCALE)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Records a successful request.
+     */
+    public void onSuccess() {
+        while (true) {
+            long current = tokens.get();
+            if (current >= capacity) {
+                return;
+            }
+            if (tokens.compareAndSet(current, Math.min(capacity, current + depositPerSuccess))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the number of retries currently available
+     */
+    public double availableRetries() {
+        return tokens.get() / (double) SCALE;
+    }
+}
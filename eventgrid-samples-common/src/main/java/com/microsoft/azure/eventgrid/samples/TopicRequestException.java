@@ -0,0 +1,42 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.azure.eventgrid.samples;
+
+import java.io.IOException;
+
+/**
+ * A publish request the topic answered with an error status, raised by transports which do not go through the
+ * EventGrid SDK, so that {@link AsyncEventGridPublisher} can tell throttling apart from rejected requests.
+ */
+public class TopicRequestException extends IOException {
+    private final int statusCode;
+    private final String retryAfter;
+
+    /**
+     * @param message the error message
+     * @param statusCode the HTTP status of the response
+     * @param retryAfter the Retry-After header of the response, or null
+     */
+    public TopicRequestException(String message, int statusCode, String retryAfter) {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return the HTTP status of the response
+     */
+    public int statusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return the Retry-After header of the response, or null
+     */
+    public String retryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,146 @@
+package com.microsoft.azure.eventgrid.samples;
+
+import com.microsoft.azure.eventgrid.models.EventGridEvent;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Unit test for AsyncEventGridPublisher class.
+ */
+public class AsyncEventGridPublisherTest {
+    @Test
+    public void testThrottledRequestIsRetried() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        try (AsyncEventGridPublisher publisher = new AsyncEventGridPublisher(events -> {
+                if (attempts.incrementAndGet() == 1) {
+                    return failed(new TopicRequestException("throttled", 429, "0"));
+                }
+                return CompletableFuture.completedFuture(null);
+            }, 4).withRetryPolicy(3, 1, 10)) {
+            publisher.publishAsync(events()).get(5, TimeUnit.SECONDS);
+
+            assertEquals(2, attempts.get());
+            assertEquals(1, publisher.requestsThrottled());
+            assertEquals(1, publisher.requestsRetried());
+            assertEquals(1, publisher.requestsSucceeded());
+            assertEquals(0, publisher.requestsFailed());
+        }
+    }
+
+    @Test
+    public void testRejectedRequestIsNotRetried() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        try (AsyncEventGridPublisher publisher = new AsyncEventGridPublisher(events -> {
+                attempts.incrementAndGet();
+                return failed(new TopicRequestException("bad request", 400, null));
+            }, 4).withRetryPolicy(3, 1, 10)) {
+            assertFailsWithStatus(publisher.publishAsync(events()), 400);
+
+            assertEquals(1, attempts.get());
+            assertEquals(0, publisher.requestsRetried());
+            assertEquals(1, publisher.requestsFailed());
+        }
+    }
+
+    @Test
+    public void testRetriesStopWhenAttemptsOrBudgetAreExhausted() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        try (AsyncEventGridPublisher publisher = new AsyncEventGridPublisher(events -> {
+                attempts.incrementAndGet();
+                return failed(new TopicRequestException("unavailable", 503, null));
+            }, 4).withRetryPolicy(3, 1, 10)) {
+            assertFailsWithStatus(publisher.publishAsync(events()), 503);
+            assertEquals(3, attempts.get());
+        }
+
+        attempts.set(0);
+        try (AsyncEventGridPublisher publisher = new AsyncEventGridPublisher(events -> {
+                attempts.incrementAndGet();
+                return failed(new TopicRequestException("unavailable", 503, null));
+            }, 4).withRetryPolicy(3, 1, 10).withRetryBudget(new RetryBudget(0, 0.1))) {
+            assertFailsWithStatus(publisher.publishAsync(events()), 503);
+            assertEquals(1, attempts.get());
+        }
+    }
+
+    @Test
+    public void testPendingRetryFailsOnceClosed() throws Exception {
+        final CompletableFuture<Void> response = new CompletableFuture<>();
+        CompletableFuture<Void> result;
+        try (AsyncEventGridPublisher publisher = new AsyncEventGridPublisher(events -> response, 4).withRetryPolicy(3, 1, 10)) {
+            result = publisher.publishAsync(events());
+        }
+        // The retry of the throttled request can no longer be scheduled, so the publish gives up instead of hanging
+        response.completeExceptionally(new TopicRequestException("throttled", 429, null));
+        assertFailsWithStatus(result, 429);
+    }
+
+    @Test
+    public void testOnlyTheFailedEventsOfAPartialFailureAreRetried() throws Exception {
+        final List<List<EventGridEvent>> requests = Collections.synchronizedList(new ArrayList<>());
+        final List<EventGridEvent> events = Arrays.asList(event(0), event(1), event(2));
+        try (AsyncEventGridPublisher publisher = new AsyncEventGridPublisher(request -> {
+                requests.add(request);
+                if (requests.size() == 1) {
+                    return failed(new PartialPublishException(Collections.singletonList(request.get(1)),
+                        new TopicRequestException("unavailable", 503, null)));
+                }
+                return CompletableFuture.completedFuture(null);
+            }, 4).withRetryPolicy(3, 1, 10)) {
+            publisher.publishAsync(events).get(5, TimeUnit.SECONDS);
+        }
+
+        assertEquals(2, requests.size());
+        assertEquals(Collections.singletonList(events.get(1)), requests.get(1));
+    }
+
+    @Test
+    public void testRetryableErrors() {
+        assertTrue(AsyncEventGridPublisher.isRetryable(new TopicRequestException("throttled", 429, null)));
+        assertTrue(AsyncEventGridPublisher.isRetryable(new TopicRequestException("bad gateway", 502, null)));
+        assertTrue(AsyncEventGridPublisher.isRetryable(new CompletionException(new IOException("connection reset"))));
+        assertFalse(AsyncEventGridPublisher.isRetryable(new TopicRequestException("too large", 413, null)));
+        assertFalse(AsyncEventGridPublisher.isRetryable(new IllegalStateException("bug")));
+        assertFalse(AsyncEventGridPublisher.isRetryable(new PartialPublishException(events(), new TopicRequestException("bad request", 400, null))));
+    }
+
+    private static void assertFailsWithStatus(CompletableFuture<Void> result, int statusCode) throws Exception {
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            fail("The publish was expected to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TopicRequestException);
+            assertEquals(statusCode, ((TopicRequestException) e.getCause()).statusCode());
+        }
+    }
+
+    private static CompletableFuture<Void> failed(Throwable error) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        result.completeExceptionally(error);
+        return result;
+    }
+
+    private static List<EventGridEvent> events() {
+        return Collections.singletonList(event(0));
+    }
+
+    private static EventGridEvent event(int i) {
+        return new EventGridEvent("event-" + i, "Door" + i, "Contoso Item SKU #" + i, "Contoso.Items.ItemReceived", null, "2.0");
+    }
+}
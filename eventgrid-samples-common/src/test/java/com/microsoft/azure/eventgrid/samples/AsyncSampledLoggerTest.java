@@ -0,0 +1,113 @@
+package com.microsoft.azure.eventgrid.samples;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Unit test for AsyncSampledLogger class.
+ */
+public class AsyncSampledLoggerTest {
+    @Test
+    public void testLevelsSamplingAndTruncation() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        AsyncSampledLogger logger = new AsyncSampledLogger(new PrintStream(output, true, "UTF-8"), 16)
+            .withLevel(Level.INFO)
+            .withMaxPayloadChars(4)
+            .withSampleRates("Noisy.Type=0,*=1");
+
+        assertFalse(logger.isLoggable(Level.FINE, null));
+        assertFalse(logger.isLoggable(Level.INFO, "Noisy.Type"));
+        assertTrue(logger.isLoggable(Level.INFO, "Other.Type"));
+        logger.log(Level.INFO, "payload %s", "0123456789".getBytes(StandardCharsets.UTF_8));
+        logger.close();
+
+        String text = new String(output.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(text, text.contains("INFO payload 0123...(10 bytes)"));
+        assertEquals(1, logger.entriesWritten());
+        assertEquals(1, logger.entriesSampledOut());
+    }
+
+    @Test
+    public void testFullBufferDropsEntriesInsteadOfBlocking() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        OutputStream blockedOutput = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                writing.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+        };
+        AsyncSampledLogger logger = new AsyncSampledLogger(new PrintStream(blockedOutput), 2);
+
+        // The writer holds the first entry while it is blocked, so one more fits and the rest are dropped
+        logger.log(Level.INFO, "entry %d", 0);
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 5; i++) {
+            logger.log(Level.INFO, "entry %d", i);
+        }
+        assertEquals(4, logger.entriesDropped());
+
+        release.countDown();
+        logger.close();
+        assertEquals(2, logger.entriesWritten());
+    }
+
+    @Test
+    public void testSampleRatesApplyPerKeyAndByDefault() {
+        AsyncSampledLogger logger = new AsyncSampledLogger(new PrintStream(new ByteArrayOutputStream()), 16)
+            .withSampleRates("Sampled.Type=0.25, Always.Type=1, *=0");
+        int sampled = 0;
+        for (int i = 0; i < 20000; i++) {
+            if (logger.isLoggable(Level.INFO, "Sampled.Type")) {
+                sampled++;
+            }
+        }
+
+        assertTrue("sampled: " + sampled, sampled > 4000 && sampled < 6000);
+        assertTrue(logger.isLoggable(Level.INFO, "Always.Type"));
+        assertFalse(logger.isLoggable(Level.INFO, "Other.Type"));
+        assertFalse(logger.isLoggable(Level.INFO, null));
+        assertEquals(20000 - sampled + 2, logger.entriesSampledOut());
+        logger.close();
+    }
+
+    @Test
+    public void testIdleWriterIsWokenUpByTheNextEntry() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        AsyncSampledLogger logger = new AsyncSampledLogger(new PrintStream(output, true, "UTF-8"), 16);
+
+        for (int i = 0; i < 3; i++) {
+            // Long enough for the writer to find the buffer empty and park
+            Thread.sleep(50);
+            logger.log(Level.WARNING, "entry %d", i);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (logger.entriesWritten() <= i && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(i + 1, logger.entriesWritten());
+        }
+        logger.close();
+
+        String text = new String(output.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(text, text.contains("WARNING entry 2"));
+    }
+}
@@ -0,0 +1,50 @@
+package com.microsoft.azure.eventgrid.samples;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Unit test for EventDeduplicator class.
+ */
+public class EventDeduplicatorTest {
+    @Test
+    public void testDuplicatesAreDetectedAndForgottenIdsAccepted() {
+        EventDeduplicator deduplicator = new EventDeduplicator(16 * 1000, 60000);
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(deduplicator.firstSeen("event-" + i));
+        }
+        for (int i = 0; i < 10000; i += 7) {
+            assertFalse(deduplicator.firstSeen("event-" + i));
+        }
+
+        for (int i = 0; i < 10000; i += 2) {
+            deduplicator.forget("event-" + i);
+        }
+        for (int i = 1; i < 10000; i += 2) {
+            assertFalse(deduplicator.firstSeen("event-" + i));
+        }
+        assertTrue(deduplicator.firstSeen("event-0"));
+        assertEquals(10001, deduplicator.misses());
+        assertEquals(0, deduplicator.earlyEvictions());
+    }
+
+    @Test
+    public void testIdsExpireOneWindowAfterRotation() throws Exception {
+        EventDeduplicator deduplicator = new EventDeduplicator(16, 100);
+        assertTrue(deduplicator.firstSeen("event-1"));
+
+        // One window later the generations rotate and the id is still remembered
+        Thread.sleep(120);
+        assertTrue(deduplicator.firstSeen("event-2"));
+        assertFalse(deduplicator.firstSeen("event-1"));
+
+        // One more window later it is dropped, whether one rotation or a full reset happens
+        Thread.sleep(120);
+        assertTrue(deduplicator.firstSeen("event-1"));
+        assertEquals(0, deduplicator.earlyEvictions());
+    }
+}
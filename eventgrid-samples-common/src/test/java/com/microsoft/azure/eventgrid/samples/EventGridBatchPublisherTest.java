@@ -0,0 +1,57 @@
+package com.microsoft.azure.eventgrid.samples;
+
+import com.microsoft.azure.eventgrid.models.EventGridEvent;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Unit test for EventGridBatchPublisher class.
+ */
+public class EventGridBatchPublisherTest {
+    @Test
+    public void testSplitKeepsOrderWithinTheCountAndByteLimits() throws Exception {
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            data.append('x');
+        }
+        List<EventGridEvent> events = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            events.add(new EventGridEvent("event-" + i, "Door" + i, data.toString(), "Contoso.Items.ItemReceived", null, "2.0"));
+        }
+
+        List<List<EventGridEvent>> byCount = EventGridBatchPublisher.split(events, 10, 1024 * 1024);
+        assertEquals(3, byCount.size());
+        assertEquals(10, byCount.get(0).size());
+        assertEquals(5, byCount.get(2).size());
+
+        // Each event serializes to more than 100 bytes, so at most 4 fit in 600 bytes
+        List<List<EventGridEvent>> byBytes = EventGridBatchPublisher.split(events, 1000, 600);
+        int index = 0;
+        for (List<EventGridEvent> batch : byBytes) {
+            assertTrue(batch.size() >= 1 && batch.size() <= 4);
+            for (EventGridEvent event : batch) {
+                assertEquals("event-" + index++, event.id());
+            }
+        }
+        assertEquals(25, index);
+    }
+
+    @Test
+    public void testSplitRejectsAnEventLargerThanARequest() throws Exception {
+        List<EventGridEvent> events = new ArrayList<>();
+        events.add(new EventGridEvent("event-0", "Door0", "too large for 32 bytes", "Contoso.Items.ItemReceived", null, "2.0"));
+        try {
+            EventGridBatchPublisher.split(events, 10, 32);
+            fail("The event does not fit in a request");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("event-0"));
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.microsoft.azure.eventgrid.samples;
+
+import com.microsoft.azure.eventgrid.models.EventGridEvent;
+import com.microsoft.azure.serializer.AzureJacksonAdapter;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Unit test for EventOutbox class.
+ */
+public class EventOutboxTest {
+    private final List<Path> directories = new ArrayList<>();
+
+    @After
+    public void deleteDirectories() throws IOException {
+        for (Path directory : directories) {
+            List<Path> files = new ArrayList<>();
+            Files.walk(directory).forEach(files::add);
+            files.sort(Comparator.reverseOrder());
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Test
+    public void testDrainsEventsInOrderAcrossSegments() throws Exception {
+        Path directory = newDirectory();
+        final List<String> published = Collections.synchronizedList(new ArrayList<>());
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+
+        try (EventOutbox outbox = new EventOutbox(directory, 4096, 1000, events -> {
+                batchSizes.add(events.size());
+                for (EventGridEvent event : events) {
+                    published.add(event.id());
+                }
+                return CompletableFuture.completedFuture(null);
+            }).withBatching(50, 1024 * 1024, 1)) {
+            outbox.append(events(0, 500));
+            outbox.start();
+            outbox.awaitDrained(10, TimeUnit.SECONDS);
+
+            assertEquals(500, outbox.eventsDrained());
+        }
+
+        assertEquals(500, published.size());
+        for (int i = 0; i < 500; i++) {
+            assertEquals("event-" + i, published.get(i));
+        }
+        for (int size : batchSizes) {
+            assertTrue("batch of " + size + " events", size <= 50);
+        }
+    }
+
+    @Test
+    public void testKeepsFailedEventsForTheNextRun() throws Exception {
+        Path directory = newDirectory();
+        try (EventOutbox outbox = new EventOutbox(directory, 4096, 1000, events -> {
+                CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new TopicRequestException("topic unavailable", 503, null));
+                return failed;
+            }).start()) {
+            outbox.append(events(0, 100));
+            Thread.sleep(200);
+
+            assertTrue(outbox.drainFailures() > 0);
+            assertEquals(100, outbox.eventsPending());
+        }
+
+        final List<String> published = Collections.synchronizedList(new ArrayList<>());
+        try (EventOutbox outbox = new EventOutbox(directory, 4096, 1000, events -> {
+                for (EventGridEvent event : events) {
+                    published.add(event.id());
+                }
+                return CompletableFuture.completedFuture(null);
+            })) {
+            assertEquals(100, outbox.eventsPending());
+            outbox.append(events(100, 10));
+            outbox.start();
+            outbox.awaitDrained(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals(110, published.size());
+        assertEquals("event-0", published.get(0));
+        assertEquals("event-109", published.get(109));
+    }
+
+    @Test
+    public void testRejectedBatchIsDeadLetteredWithoutBlockingTheEventsBehindIt() throws Exception {
+        Path directory = newDirectory();
+        DeadLetterSpool spool = new DeadLetterSpool(directory.resolve("dead-letters.jsonl"));
+        final List<String> published = Collections.synchronizedList(new ArrayList<>());
+
+        try (EventOutbox outbox = new EventOutbox(directory.resolve("outbox"), 4096, 1000, events -> {
+                CompletableFuture<Void> result = new CompletableFuture<>();
+                if (events.get(0).id().equals("event-3")) {
+                    result.completeExceptionally(new TopicRequestException("bad request", 400, null));
+                } else {
+                    for (EventGridEvent event : events) {
+                        published.add(event.id());
+                    }
+                    result.complete(null);
+                }
+                return result;
+            }).withBatching(1, 1024 * 1024, 1).withDeadLetterSpool(spool)) {
+            outbox.append(events(0, 10));
+            outbox.start();
+            outbox.awaitDrained(10, TimeUnit.SECONDS);
+
+            assertEquals(0, outbox.eventsPending());
+            assertEquals(9, outbox.eventsDrained());
+            assertEquals(1, outbox.eventsRejected());
+            assertEquals(0, outbox.drainFailures());
+        }
+
+        assertEquals(9, published.size());
+        assertFalse(published.contains("event-3"));
+        assertEquals("event-9", published.get(8));
+        assertEquals(1, spool.eventsSpooled());
+        assertEquals("event-3", spool.readEvents().get(0).id());
+    }
+
+    @Test
+    public void testBatchesCountTheirSeparators() throws Exception {
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        int eventBytes = new AzureJacksonAdapter().serialize(events(0, 1).get(0)).getBytes(StandardCharsets.UTF_8).length;
+
+        // Two events and their "[", "," and "]" are one byte over the limit
+        try (EventOutbox outbox = new EventOutbox(newDirectory(), 4096, 1000, events -> {
+                batchSizes.add(events.size());
+                return CompletableFuture.completedFuture(null);
+            }).withBatching(10, 2 * eventBytes + 2, 1)) {
+            outbox.append(events(0, 2));
+            outbox.start();
+            outbox.awaitDrained(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals(2, batchSizes.size());
+    }
+
+    @Test
+    public void testRejectsAnEventLargerThanABatch() throws Exception {
+        try (EventOutbox outbox = new EventOutbox(newDirectory(), 4096, 1000, events -> CompletableFuture.completedFuture(null))
+                .withBatching(10, 100, 1)) {
+            try {
+                outbox.append(events(0, 1));
+                fail("IOException was expected");
+            } catch (IOException e) {
+                // expected
+            }
+            assertEquals(0, outbox.eventsPending());
+        }
+    }
+
+    @Test
+    public void testRecoveryDropsATornTailAndKeepsTheCompleteRecords() throws Exception {
+        Path directory = newDirectory();
+        try (EventOutbox outbox = new EventOutbox(directory, 64 * 1024, 1000, events -> CompletableFuture.completedFuture(null))) {
+            outbox.append(events(0, 10));
+        }
+
+        // Corrupt the payload of the last record, as a crash in the middle of its copy would
+        Path segment;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*.log")) {
+            segment = files.iterator().next();
+        }
+        byte[] bytes = Files.readAllBytes(segment);
+        ByteBuffer view = ByteBuffer.wrap(bytes);
+        int position = 0;
+        int last = 0;
+        while (view.getInt(position) > 0) {
+            last = position;
+            position += 8 + view.getInt(position);
+        }
+        bytes[last + 8] ^= 0x7f;
+        Files.write(segment, bytes);
+
+        final List<String> published = Collections.synchronizedList(new ArrayList<>());
+        try (EventOutbox outbox = new EventOutbox(directory, 64 * 1024, 1000, events -> {
+                for (EventGridEvent event : events) {
+                    published.add(event.id());
+                }
+                return CompletableFuture.completedFuture(null);
+            })) {
+            assertEquals(9, outbox.eventsPending());
+            outbox.append(events(10, 5));
+            outbox.start();
+            outbox.awaitDrained(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals(14, published.size());
+        assertEquals("event-8", published.get(8));
+        assertFalse(published.contains("event-9"));
+        assertEquals("event-10", published.get(9));
+    }
+
+    @Test
+    public void testAppendsFailOnceClosed() throws Exception {
+        EventOutbox outbox = new EventOutbox(newDirectory(), 4096, 1000, events -> CompletableFuture.completedFuture(null));
+        outbox.close();
+        try {
+            outbox.append(events(0, 1));
+            fail("IOException was expected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private Path newDirectory() throws IOException {
+        Path directory = Files.createTempDirectory("outbox");
+        directories.add(directory);
+        return directory;
+    }
+
+    private static List<EventGridEvent> events(int first, int count) {
+        List<EventGridEvent> events = new ArrayList<>();
+        for (int i = first; i < first + count; i++) {
+            events.add(new EventGridEvent("event-" + i, "Door" + (i % 5), "Contoso Item SKU #" + i, "Contoso.Items.ItemReceived", null, "2.0"));
+        }
+        return events;
+    }
+}
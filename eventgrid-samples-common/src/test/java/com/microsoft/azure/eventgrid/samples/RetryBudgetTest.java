@@ -0,0 +1,68 @@
+package com.microsoft.azure.eventgrid.samples;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Unit test for RetryBudget class.
+ */
+public class RetryBudgetTest {
+    @Test
+    public void testRetriesAreEarnedBackBySuccesses() {
+        RetryBudget budget = new RetryBudget(2, 0.5);
+
+        assertTrue(budget.tryAcquireRetry());
+        assertTrue(budget.tryAcquireRetry());
+        assertFalse(budget.tryAcquireRetry());
+
+        budget.onSuccess();
+        assertFalse(budget.tryAcquireRetry());
+        budget.onSuccess();
+        assertTrue(budget.tryAcquireRetry());
+
+        for (int i = 0; i < 10; i++) {
+            budget.onSuccess();
+        }
+        assertEquals(2.0, budget.availableRetries(), 0.0);
+    }
+
+    @Test
+    public void testConcurrentCallersNeverAcquireMoreThanTheCapacity() throws Exception {
+        final RetryBudget budget = new RetryBudget(100, 0.1);
+        final AtomicInteger acquired = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < 1000; j++) {
+                    if (budget.tryAcquireRetry()) {
+                        acquired.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(100, acquired.get());
+        assertEquals(0.0, budget.availableRetries(), 0.0);
+    }
+}